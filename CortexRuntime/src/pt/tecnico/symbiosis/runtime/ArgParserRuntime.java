@@ -75,6 +75,59 @@ public class ArgParserRuntime {
 		{
 			throw new IllegalArgumentException("[SymbiosisRuntime] No main class introduced. Please indicate the program's main class as follows: "+Option.MAIN_CLASS+" [path-to-main-class]");
 		}
+		if(!getValue(Option.TRACE_FORMAT).equals("text") && !getValue(Option.TRACE_FORMAT).equals("binary"))
+		{
+			throw new IllegalArgumentException("[SymbiosisRuntime] Unknown trace format: "+getValue(Option.TRACE_FORMAT)+". Possible formats are: text, binary");
+		}
+		long ringSize = getCount(Option.RING_BUFFER, "number of basic blocks to keep per thread");
+		long budget = getCount(Option.BB_BUDGET, "maximum number of basic blocks recorded per thread");
+		long armAfter = getCount(Option.ARM_AFTER, "number of basic blocks executed by each thread before recording");
+		if(ringSize > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("[SymbiosisRuntime] Invalid ring buffer size: "+ringSize+". Please indicate the number of basic blocks to keep per thread.");
+		}
+		if(ringSize > 0 && getValue(Option.STREAM) != null)
+		{
+			throw new IllegalArgumentException("[SymbiosisRuntime] Options "+Option.STREAM+" and "+Option.RING_BUFFER+" cannot be used together.");
+		}
+		if(ringSize > 0 && (budget > 0 || armAfter > 0))
+		{
+			throw new IllegalArgumentException("[SymbiosisRuntime] Option "+Option.RING_BUFFER+" cannot be used together with "+Option.BB_BUDGET+" or "+Option.ARM_AFTER+".");
+		}
+
+		double sampleRate;
+		try{
+			sampleRate = Double.parseDouble(getValue(Option.SAMPLE_RATE));
+		}
+		catch(NumberFormatException e){
+			sampleRate = -1;
+		}
+		if(sampleRate < 0 || sampleRate > 1)
+		{
+			throw new IllegalArgumentException("[SymbiosisRuntime] Invalid sample rate: "+getValue(Option.SAMPLE_RATE)+". Please indicate a probability between 0 and 1.");
+		}
+	}
+
+	/**
+	 * Returns the value of an option that expects a non-negative number.
+	 * @param option
+	 * @param what description of the value expected (for the error message)
+	 * @return
+	 */
+	private long getCount(Option option, String what)
+	{
+		long value;
+		try{
+			value = Long.parseLong(getValue(option));
+		}
+		catch(NumberFormatException e){
+			value = -1;
+		}
+		if(value < 0)
+		{
+			throw new IllegalArgumentException("[SymbiosisRuntime] Invalid value for "+option+": "+getValue(option)+". Please indicate the "+what+".");
+		}
+		return value;
 	}
 	
 	public final String getValue(Option option) {
@@ -88,7 +141,13 @@ public class ArgParserRuntime {
 		//** NAME_OPTION( flag, is only flag?, description, config parameter name, default value) 
 		SYMBTRACE("--bb-trace",false,"usage: --bb-traces [path-to-trace-file] | Generates a trace file with each thread's control flow in the path indicated.",null,defaultFile),
 		MAIN_CLASS("--main-class",false,"usage: --main-class [path-to-main-class] [parameters] | Program's main class, previoulsy instrumented, along with the corresponding parameters.","mainClass",null),
-		FULLTRACE("-full",true,"usage: -full | Stores the basic block trace for the entire execution in addition to the assertion",null,null)
+		FULLTRACE("-full",true,"usage: -full | Stores the basic block trace for the entire execution in addition to the assertion",null,null),
+		TRACE_FORMAT("--trace-format",false,"usage: --trace-format [text|binary] | Format of the trace file: one line per basic block (text) or the compact binary format (binary).",null,"text"),
+		STREAM("-stream",true,"usage: -stream | Continuously flushes the basic block trace to disk in background, instead of keeping it in memory until the end of the execution",null,null),
+		RING_BUFFER("--ring-buffer",false,"usage: --ring-buffer [number-of-blocks] | Only keeps the last N basic blocks executed by each thread (0 keeps the whole trace).",null,"0"),
+		SAMPLE_RATE("--sample-rate",false,"usage: --sample-rate [probability] | Probability of recording this run (runs that are not sampled do not record any basic block).",null,"1"),
+		BB_BUDGET("--bb-budget",false,"usage: --bb-budget [number-of-blocks] | Maximum number of basic blocks recorded per thread; afterwards, blocks are only counted (0 means no limit).",null,"0"),
+		ARM_AFTER("--arm-after",false,"usage: --arm-after [number-of-blocks] | Each thread only starts recording after executing N basic blocks, which are only counted (0 records from the start).",null,"0")
 		;
 
 		private final String arg;
@@ -0,0 +1,244 @@
+package pt.tecnico.symbiosis.runtime;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Per-thread basic block recorder. Each thread appends the ids of the basic blocks
+ * it executes to its own buffer, which is organized as a list of fixed-size primitive chunks.
+ * Appending a block id is therefore a plain array store (no locking, no boxing), and
+ * growing the buffer only allocates a new chunk (the previous ones are never copied).
+ *
+ * The buffer is only written by its owner thread. It is read by other threads
+ * when saving the trace (i.e. at an assertion or at shutdown) and, in streaming mode,
+ * by the TraceFlusher, which drains the chunks that were already filled.
+ * The recording threads are not stopped while the trace is saved, so the owner publishes
+ * the number of block ids it has appended (committed, set after each append with an
+ * ordered store) and the chunk table, which is replaced before the first id of a new chunk
+ * is committed. Readers only read the block ids below the committed length they read first,
+ * which the owner never modifies again.
+ * @author nunomachado
+ *
+ */
+public class BBTraceBuffer {
+
+	public static final int CHUNK_SIZE = 4096; 	//** number of block ids per chunk
+
+	private static final AtomicLongFieldUpdater<BBTraceBuffer> COMMITTED = AtomicLongFieldUpdater.newUpdater(BBTraceBuffer.class, "committed");
+
+	private final String tid;					//** thread id of the owner thread
+	private volatile long[][] chunks;			//** chunk k holds block ids [k*CHUNK_SIZE, (k+1)*CHUNK_SIZE[ (when not streaming)
+	private final ConcurrentLinkedQueue<long[]> fullChunks; //** chunks already filled and waiting to be flushed (when streaming)
+	private final ConcurrentLinkedQueue<long[]> freeChunks; //** chunks already flushed that can be reused (when streaming)
+	private long[] curChunk;					//** chunk currently being filled
+	private int curPos;							//** next free position in curChunk
+	private long count;							//** number of block ids appended (owner only)
+	private volatile long committed;			//** number of block ids that other threads can read
+	private volatile long[] openChunk;			//** chunk currently being filled, as seen by the readers (when streaming)
+	private long written;						//** number of block ids already written (when streaming, guarded by SymbiosisRuntime.l)
+	private long flushedChunks;					//** number of chunks taken from fullChunks (when streaming, guarded by SymbiosisRuntime.l)
+	private int slot;							//** slot of the owner thread (see SymbiosisRuntime.traceBB)
+
+	public BBTraceBuffer(String tid, boolean streaming)
+	{
+		this.tid = tid;
+		this.curChunk = new long[CHUNK_SIZE];
+		if(streaming){
+			this.fullChunks = new ConcurrentLinkedQueue<long[]>();
+			this.freeChunks = new ConcurrentLinkedQueue<long[]>();
+			this.openChunk = curChunk;
+		}
+		else{
+			this.fullChunks = null;
+			this.freeChunks = null;
+			this.chunks = new long[16][];
+			this.chunks[0] = curChunk;
+		}
+		this.curPos = 0;
+		this.count = 0;
+		this.slot = -1;
+	}
+
+	public BBTraceBuffer(String tid)
+	{
+		this(tid, false);
+	}
+
+	/**
+	 * Appends a basic block id to the buffer.
+	 * @param bbid
+	 */
+	public void add(long bbid)
+	{
+		if(curPos == CHUNK_SIZE)
+			nextChunk();
+		curChunk[curPos++] = bbid;
+		COMMITTED.lazySet(this, ++count);
+	}
+
+	/**
+	 * Retires the current (full) chunk and starts a new one.
+	 */
+	private void nextChunk()
+	{
+		if(fullChunks != null){
+			fullChunks.add(curChunk);
+			long[] chunk = freeChunks.poll();
+			curChunk = (chunk != null ? chunk : new long[CHUNK_SIZE]);
+			openChunk = curChunk;	//** only after the previous chunk was queued (see write)
+		}
+		else{
+			int k = (int)(count / CHUNK_SIZE);
+			long[][] table = chunks;
+			if(k == table.length){
+				long[][] tmp = new long[k*2][];
+				System.arraycopy(table, 0, tmp, 0, k);
+				table = tmp;
+			}
+			curChunk = new long[CHUNK_SIZE];
+			table[k] = curChunk;
+			chunks = table;	//** publishes the new chunk before any of its ids is committed
+		}
+		curPos = 0;
+	}
+
+	/**
+	 * Returns the number of block ids currently held by the buffer (when not streaming).
+	 * @return
+	 */
+	public int size()
+	{
+		return (int) committed;
+	}
+
+	/**
+	 * Returns the i-th block id held by the buffer (when not streaming).
+	 * @param i
+	 * @return
+	 */
+	public long get(int i)
+	{
+		return chunks[i / CHUNK_SIZE][i % CHUNK_SIZE];
+	}
+
+	/**
+	 * Writes the chunks that are already full and recycles them (streaming mode).
+	 * If writer is null, the chunks are recycled without being written.
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void flushFullChunks(TraceWriter writer) throws IOException
+	{
+		if(fullChunks == null)
+			return;
+
+		long[] chunk;
+		while((chunk = fullChunks.poll()) != null)
+		{
+			long base = flushedChunks++ * CHUNK_SIZE;
+			if(writer != null && written < base + CHUNK_SIZE)
+				writer.writeBlocks(slot, chunk, (int) Math.max(0, written - base), CHUNK_SIZE);
+			written = Math.max(written, base + CHUNK_SIZE);
+			freeChunks.add(chunk);
+		}
+	}
+
+	/**
+	 * Writes all the block ids recorded so far that were not written yet (streaming mode).
+	 * Must only be called by the owner thread.
+	 * @param writer
+	 * @param markLast indicates whether the last block should be marked as the assertion block
+	 * @throws IOException
+	 */
+	public void drain(TraceWriter writer, boolean markLast) throws IOException
+	{
+		write(writer, slot, markLast);
+	}
+
+	/**
+	 * Writes the block ids held by the buffer.
+	 * @param writer
+	 * @param slot
+	 * @param markLast indicates whether the last block should be marked as the assertion block
+	 * @throws IOException
+	 */
+	public void write(TraceWriter writer, int slot, boolean markLast) throws IOException
+	{
+		if(fullChunks == null){
+			long n = committed;			//** read before the table, so that the table holds all the chunks below n
+			long[][] table = chunks;
+			long last = n;
+			if(markLast && n > 0)
+				last--;
+			for(int k = 0; (long) k*CHUNK_SIZE < last; k++)
+				writer.writeBlocks(slot, table[k], 0, (int) Math.min(CHUNK_SIZE, last - (long) k*CHUNK_SIZE));
+			if(last != n)
+				writer.writeAssertBlock(slot, table[(int)(last / CHUNK_SIZE)][(int)(last % CHUNK_SIZE)]);
+			return;
+		}
+
+		//** streaming: the full chunks are written from the queue, the last ones from the open chunk
+		long n = committed;
+		flushFullChunks(writer);
+		if(written >= n)
+			return;
+
+		long k = (n - 1) / CHUNK_SIZE;	//** chunk that holds the last committed id
+		if(flushedChunks > k)
+			return;						//** it was queued in the meantime, and was written by flushFullChunks
+
+		long[] chunk = openChunk;
+		if(fullChunks.peek() != null){
+			//** the owner moved on after we read n, so the chunk we read might be the next one;
+			//** the queued one is chunk k, which is full (i.e. it also holds the ids beyond n)
+			flushFullChunks(writer);
+			return;
+		}
+
+		//** nothing was queued since we read the open chunk, so it is chunk k
+		long base = k * CHUNK_SIZE;
+		long last = n;
+		if(markLast)
+			last--;
+		writer.writeBlocks(slot, chunk, (int)(written - base), (int)(last - base));
+		if(last != n)
+			writer.writeAssertBlock(slot, chunk[(int)(last - base)]);
+		written = n;
+	}
+
+	/**
+	 * Returns the number of blocks executed by the thread before the first block held by the buffer
+	 * (i.e. that were not recorded).
+	 * @return
+	 */
+	public long getSkippedBefore()
+	{
+		return 0;
+	}
+
+	/**
+	 * Returns the number of blocks executed by the thread after the last block held by the buffer
+	 * (i.e. that were not recorded).
+	 * @return
+	 */
+	public long getSkippedAfter()
+	{
+		return 0;
+	}
+
+	public String getThreadId()
+	{
+		return tid;
+	}
+
+	public int getSlot()
+	{
+		return slot;
+	}
+
+	public void setSlot(int slot)
+	{
+		this.slot = slot;
+	}
+}
@@ -0,0 +1,167 @@
+package pt.tecnico.symbiosis.runtime;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streaming writer for the binary production trace format.
+ *
+ * Layout (all integers are unsigned LEB128 varints unless stated otherwise):
+ *   header:  magic "CXBT" | version (1 byte) | flags (1 byte)
+ *   records: THREAD  -> tag | slot | name length | name (UTF-8)
+ *            BLOCKS  -> tag | slot | count | count x zigzag(bbid - previous bbid of that thread)
+ *            ASSERT  -> tag | slot | position of the assertion block in the thread's path
+ *            SKIPPED -> tag | slot | blocks not recorded before the thread's path | blocks not recorded after it
+ *            END     -> tag | 64-bit hash of the execution path (8 bytes, big endian) | total number of blocks
+ *
+ * A THREAD record always precedes the BLOCKS records of that thread, and a thread's
+ * path may be split across several BLOCKS records (which allows the trace to be streamed).
+ * The flags mark partial traces (FLAG_PARTIAL), whose threads may have SKIPPED records.
+ * @author nunomachado
+ *
+ */
+public class BinaryTraceWriter extends TraceWriter {
+
+	public static final byte[] MAGIC = {'C','X','B','T'};
+	public static final byte VERSION = 1;
+
+	public static final byte TAG_END = 0;
+	public static final byte TAG_THREAD = 1;
+	public static final byte TAG_BLOCKS = 2;
+	public static final byte TAG_ASSERT = 3;
+	public static final byte TAG_SKIPPED = 4;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private long[] lastBB;						//** slot -> last block id written (for delta encoding)
+	private long[] counts;						//** slot -> number of block ids written
+	private long totalBlocks;
+
+	public BinaryTraceWriter(String filename, int flags) throws IOException
+	{
+		channel = new FileOutputStream(filename).getChannel();
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		lastBB = new long[16];
+		counts = new long[16];
+		totalBlocks = 0;
+
+		buffer.put(MAGIC);
+		buffer.put(VERSION);
+		buffer.put((byte)flags);
+	}
+
+	public int addThread(String tid) throws IOException
+	{
+		int slot = super.addThread(tid);
+		if(slot == lastBB.length){
+			long[] tmp = new long[slot*2];
+			System.arraycopy(lastBB, 0, tmp, 0, slot);
+			lastBB = tmp;
+			tmp = new long[slot*2];
+			System.arraycopy(counts, 0, tmp, 0, slot);
+			counts = tmp;
+		}
+
+		byte[] name = tid.getBytes("UTF-8");
+		ensureRemaining(1 + 10 + 5 + name.length);
+		buffer.put(TAG_THREAD);
+		putVarint(slot);
+		putVarint(name.length);
+		buffer.put(name);
+		return slot;
+	}
+
+	public void writeBlocks(int slot, long[] bbs, int from, int to) throws IOException
+	{
+		if(from >= to)
+			return;
+
+		ensureRemaining(1 + 10 + 10);
+		buffer.put(TAG_BLOCKS);
+		putVarint(slot);
+		putVarint(to - from);
+
+		long prev = lastBB[slot];
+		long hash = hashes[slot];
+		for(int i = from; i < to; i++)
+		{
+			long bbid = bbs[i];
+			ensureRemaining(10);
+			long delta = bbid - prev;
+			putVarint((delta << 1) ^ (delta >> 63)); //zigzag encoding
+			hash = rollHash(hash, bbid);
+			prev = bbid;
+		}
+		lastBB[slot] = prev;
+		hashes[slot] = hash;
+		counts[slot] += (to - from);
+		totalBlocks += (to - from);
+	}
+
+	public void writeAssertBlock(int slot, long bbid) throws IOException
+	{
+		writeBlocks(slot, new long[]{bbid}, 0, 1);
+		ensureRemaining(1 + 10 + 10);
+		buffer.put(TAG_ASSERT);
+		putVarint(slot);
+		putVarint(counts[slot]-1); //position of the assertion block in the thread's path
+	}
+
+	public void writeSkipped(int slot, long before, long after) throws IOException
+	{
+		ensureRemaining(1 + 10 + 10 + 10);
+		buffer.put(TAG_SKIPPED);
+		putVarint(slot);
+		putVarint(before);
+		putVarint(after);
+	}
+
+	/**
+	 * Writes the trailer and closes the file.
+	 * @return the hash of the execution path
+	 * @throws IOException
+	 */
+	public long close() throws IOException
+	{
+		long hash = getHash();
+		ensureRemaining(1 + 8 + 10);
+		buffer.put(TAG_END);
+		buffer.putLong(hash);
+		putVarint(totalBlocks);
+		flush();
+		channel.close();
+		return hash;
+	}
+
+	/**
+	 * Writes the buffered bytes to the file channel.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException
+	{
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	private void ensureRemaining(int n) throws IOException
+	{
+		if(buffer.remaining() < n)
+			flush();
+	}
+
+	private void putVarint(long v)
+	{
+		while((v & ~0x7FL) != 0)
+		{
+			buffer.put((byte)((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buffer.put((byte)v);
+	}
+}
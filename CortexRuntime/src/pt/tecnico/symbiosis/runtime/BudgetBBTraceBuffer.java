@@ -0,0 +1,55 @@
+package pt.tecnico.symbiosis.runtime;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Basic block recorder for the budgeted recording modes: the thread only starts recording
+ * after executing a given number of blocks (--arm-after) and stops recording once it has
+ * recorded a given number of blocks (--bb-budget). The blocks that are not recorded are only counted.
+ * The counters are read by the thread that saves the trace, so they are published as the committed length is.
+ * @author nunomachado
+ *
+ */
+public class BudgetBBTraceBuffer extends BBTraceBuffer {
+
+	private final long armAfter;	//** number of blocks to execute before recording
+	private final long budget;		//** maximum number of blocks recorded (0 means no limit)
+	private static final AtomicLongFieldUpdater<BudgetBBTraceBuffer> SKIPPED_BEFORE = AtomicLongFieldUpdater.newUpdater(BudgetBBTraceBuffer.class, "skippedBefore");
+	private static final AtomicLongFieldUpdater<BudgetBBTraceBuffer> SKIPPED_AFTER = AtomicLongFieldUpdater.newUpdater(BudgetBBTraceBuffer.class, "skippedAfter");
+
+	private volatile long skippedBefore;	//** number of blocks executed before recording
+	private long recorded;					//** number of blocks recorded (owner only)
+	private volatile long skippedAfter;		//** number of blocks executed after exhausting the budget
+
+	public BudgetBBTraceBuffer(String tid, boolean streaming, long armAfter, long budget)
+	{
+		super(tid, streaming);
+		this.armAfter = armAfter;
+		this.budget = (budget > 0 ? budget : Long.MAX_VALUE);
+		this.skippedBefore = 0;
+		this.recorded = 0;
+		this.skippedAfter = 0;
+	}
+
+	public void add(long bbid)
+	{
+		if(skippedBefore < armAfter)
+			SKIPPED_BEFORE.lazySet(this, skippedBefore + 1);
+		else if(recorded == budget)
+			SKIPPED_AFTER.lazySet(this, skippedAfter + 1);
+		else{
+			recorded++;
+			super.add(bbid);
+		}
+	}
+
+	public long getSkippedBefore()
+	{
+		return skippedBefore;
+	}
+
+	public long getSkippedAfter()
+	{
+		return skippedAfter;
+	}
+}
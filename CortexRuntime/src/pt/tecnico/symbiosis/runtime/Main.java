@@ -9,6 +9,13 @@ public class Main {
 	public static String mainclass;
 	public static String tracefile;
 	public static String storeFullTrace;
+	public static boolean binaryTrace;
+	public static boolean streamTrace;
+	public static int ringSize;
+	public static boolean sampled = true;	//** false if this run was not selected for recording (see --sample-rate)
+	public static long bbBudget;
+	public static long armAfter;
+	public static boolean partialTrace;		//** true if the recording mode may drop blocks from the threads' paths
 	
 	/**
 	 * Parse input arguments. 
@@ -23,10 +30,30 @@ public class Main {
 			mainclass = CONFIG.getValue(Option.MAIN_CLASS);
 			tracefile = CONFIG.getValue(Option.SYMBTRACE);
 			storeFullTrace = CONFIG.getValue(Option.FULLTRACE);
+			binaryTrace = CONFIG.getValue(Option.TRACE_FORMAT).equals("binary");
+			streamTrace = CONFIG.getValue(Option.STREAM) != null;
+			ringSize = Integer.parseInt(CONFIG.getValue(Option.RING_BUFFER));
+			bbBudget = Long.parseLong(CONFIG.getValue(Option.BB_BUDGET));
+			armAfter = Long.parseLong(CONFIG.getValue(Option.ARM_AFTER));
+			partialTrace = (ringSize > 0 || bbBudget > 0 || armAfter > 0);
+			double sampleRate = Double.parseDouble(CONFIG.getValue(Option.SAMPLE_RATE));
+			sampled = (sampleRate >= 1 || Math.random() < sampleRate);
 			System.out.println(">> Main Class: "+mainclass);
 			System.out.println(">> Trace File: "+tracefile);
 			if(storeFullTrace != null)
 				System.out.println(">> Store full trace [ON]");
+			if(binaryTrace)
+				System.out.println(">> Binary trace format [ON]");
+			if(streamTrace)
+				System.out.println(">> Stream trace [ON]");
+			if(ringSize > 0)
+				System.out.println(">> Ring buffer [ON] (last "+ringSize+" blocks per thread)");
+			if(bbBudget > 0)
+				System.out.println(">> Block budget [ON] ("+bbBudget+" blocks per thread)");
+			if(armAfter > 0)
+				System.out.println(">> Armed after "+armAfter+" blocks per thread");
+			if(!sampled)
+				System.out.println(">> Run not sampled (sample rate "+sampleRate+"): recording [OFF]");
 		}
 		catch(IllegalArgumentException e)
 		{
@@ -11,7 +11,8 @@ public class MonitorThread extends Thread{
 	
 	public void run()
 	{
-		if(Main.storeFullTrace != null)
+		//** when streaming, the trace must always be completed (it is a no-op if an assertion already did it)
+		if(Main.sampled && (Main.storeFullTrace != null || Main.streamTrace))
 			SymbiosisRuntime.saveTrace(Main.tracefile);
 	}
 
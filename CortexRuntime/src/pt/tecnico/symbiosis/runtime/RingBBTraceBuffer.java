@@ -0,0 +1,80 @@
+package pt.tecnico.symbiosis.runtime;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Basic block recorder that only keeps the last N block ids of its thread,
+ * so that the memory used by the recorder does not depend on the length of the run.
+ * As in BBTraceBuffer, the owner publishes the number of ids recorded after each append.
+ * Since the owner keeps overwriting the oldest ids while the ring is read by another thread,
+ * the reader copies the ring and then drops the ids that might have been overwritten meanwhile.
+ * @author nunomachado
+ *
+ */
+public class RingBBTraceBuffer extends BBTraceBuffer {
+
+	private static final AtomicLongFieldUpdater<RingBBTraceBuffer> COMMITTED = AtomicLongFieldUpdater.newUpdater(RingBBTraceBuffer.class, "committed");
+
+	private final long[] ring;	//** last block ids recorded (circular)
+	private long count;			//** total number of block ids recorded (owner only)
+	private volatile long committed; //** total number of block ids recorded, as seen by the other threads
+	private long skipped;		//** number of block ids discarded before the first one written by the last write
+
+	public RingBBTraceBuffer(String tid, int capacity)
+	{
+		super(tid);
+		this.ring = new long[capacity];
+		this.count = 0;
+	}
+
+	public void add(long bbid)
+	{
+		ring[(int)(count % ring.length)] = bbid;
+		COMMITTED.lazySet(this, ++count);
+	}
+
+	public int size()
+	{
+		return (int) Math.min(committed, ring.length);
+	}
+
+	public long get(int i)
+	{
+		long n = committed;
+		long first = n - Math.min(n, ring.length);
+		return ring[(int)((first + i) % ring.length)];
+	}
+
+	/**
+	 * Returns the number of block ids that were discarded (because the buffer was full)
+	 * before the first block id written by the last call to write.
+	 * @return
+	 */
+	public long getSkippedBefore()
+	{
+		return skipped;
+	}
+
+	public void write(TraceWriter writer, int slot, boolean markLast) throws IOException
+	{
+		long n = committed;
+		long first = n - Math.min(n, ring.length);
+		long[] ids = new long[(int)(n - first)];
+		for(long i = first; i < n; i++)
+			ids[(int)(i - first)] = ring[(int)(i % ring.length)];
+
+		//** the ids below n2-ring.length may have been overwritten while we were copying them
+		long n2 = committed;
+		long valid = Math.max(first, n2 - ring.length);
+		int from = (int)(Math.min(valid, n) - first);
+		skipped = first + from;
+
+		int last = ids.length;
+		if(markLast && last > from)
+			last--;
+		writer.writeBlocks(slot, ids, from, last);
+		if(last != ids.length)
+			writer.writeAssertBlock(slot, ids[last]);
+	}
+}
@@ -1,17 +1,10 @@
 package pt.tecnico.symbiosis.runtime;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Vector;
 import java.util.concurrent.locks.ReentrantLock;
 
 
@@ -24,11 +17,15 @@ public class SymbiosisRuntime {
 	public static Map<Thread, String> MapBackupThreadName;					//** used to keep the thread name consistent during the execution (because the name can be reset by the target program after the thread initialization)
 
 	//** data structures for tracing log file events
-	public static HashMap<String, LinkedList<Long>> traceBB;
-	public static ReentrantLock l; //** to avoid concurrent modifications when writing the trace, for some programs
+	public static BBTraceBuffer[] traceBB;					//** slot -> thread's basic block buffer (only accessed when registering threads and saving the trace)
+	public static int numThreads;							//** number of slots in use in traceBB
+	public static HashMap<String, Integer> threadSlots;		//** map: thread id -> slot (only accessed when registering threads)
+	public static ThreadLocal<BBTraceBuffer> localTrace;	//** each thread's own basic block buffer, bound in mainThreadStartRun/threadStartRun
+	public static ReentrantLock l; //** to avoid concurrent modifications when registering threads and writing the trace
 	public static int assertCounter; //counts the number of times we hit an assertion
 	public static HashSet<String> assertProbeList; //contains the ids of the threads that executed the assertion 
 	public static String execLabel = "";	//labels the trace file as failing ".fail" or correct ".ok"
+	public static TraceFlusher flusher;		//** drains the basic block buffers to disk in background (only when streaming the trace)
 	//public static HashMap<String,Boolean> skipBB; //** map: tid -> skipBB : used to skip a given BB entry when we arrive from a goto stmt in a catch exception block (the symbolic execution cannot guide threads towards catch blocks)
 
 	public static void initialize()
@@ -40,32 +37,123 @@ public class SymbiosisRuntime {
 		//skipBB = new HashMap<String, Boolean>();
 
 		assertCounter = 0;
-		traceBB = new HashMap<String, LinkedList<Long>>(); 		
+		traceBB = new BBTraceBuffer[16];
+		numThreads = 0;
+		threadSlots = new HashMap<String, Integer>();
+		localTrace = new ThreadLocal<BBTraceBuffer>();
 		l = new ReentrantLock();
+
+		if(Main.streamTrace && SAMPLED)
+		{
+			try{
+				flusher = new TraceFlusher(openTraceWriter(Main.tracefile));
+				flusher.start();
+			}
+			catch(IOException e){
+				System.err.println("[SymbiosisRuntime] Unable to stream the trace: "+e.getMessage());
+				Main.streamTrace = false;
+			}
+		}
 	}
 
+	//** false if this run was not selected for recording: being final, the check below
+	//** is folded by the JIT and symbiosisBBEntry becomes (almost) free
+	private static final boolean SAMPLED = Main.sampled;
+
 	public static void symbiosisBBEntry(long bbid)
 	{	
+		if(!SAMPLED)
+			return;
+
+		BBTraceBuffer buffer = localTrace.get();
+		if(buffer == null)
+			buffer = bindCurrentThread();
+		buffer.add(bbid);
+		//System.out.println("-- ["+buffer.getThreadId()+"] BB:"+bbid);
+	}
+
+	/**
+	 * Path profiling mode (see PathProfiler in CortexTransformer): records the Ball-Larus path
+	 * that the current thread has just executed in a method. Paths are stored in the same buffer
+	 * as basic blocks, as two entries: -(methodId+1) followed by the path id.
+	 * @param methodId
+	 * @param pathId
+	 */
+	public static void symbiosisPathEntry(long methodId, long pathId)
+	{
+		if(!SAMPLED)
+			return;
+
+		BBTraceBuffer buffer = localTrace.get();
+		if(buffer == null)
+			buffer = bindCurrentThread();
+		buffer.add(-(methodId+1));
+		buffer.add(pathId);
+	}
+
+	/**
+	 * Slow path of the probes: the thread did not go through mainThreadStartRun/threadStartRun.
+	 * @return
+	 */
+	private static BBTraceBuffer bindCurrentThread()
+	{
 		if(Thread.currentThread().getName().equals("main"))
 			Thread.currentThread().setName("0");
+		return bindTraceBuffer(Thread.currentThread().getName());
+	}
 
-		String tid = Thread.currentThread().getName();
-		
+	/**
+	 * Binds the current thread to the basic block buffer of thread tid, creating it if necessary.
+	 * A new thread gets the next free slot, which identifies it in the trace writer as well;
+	 * the thread id itself is only used again when the trace is written.
+	 * @param tid
+	 * @return
+	 */
+	private static BBTraceBuffer bindTraceBuffer(String tid)
+	{
+		BBTraceBuffer buffer = null;
 		l.lock();
-		try{	
-			traceBB.get(tid).add(bbid);
-			//System.out.println("-- ["+tid+"] BB:"+bbid);
-			//System.out.println(traceBB.get(tid));
-		}
-		catch(NullPointerException e){
-			if(!traceBB.containsKey(tid)){
-				traceBB.put(tid, new LinkedList<Long>());
-				//System.out.println("-- ["+tid+"] NEW BB:"+bbid);
+		try{
+			Integer slot = threadSlots.get(tid);
+			if(slot != null){
+				buffer = traceBB[slot];
 			}
-			traceBB.get(tid).add(bbid);
-			//System.out.println(traceBB.get(tid));
+			else{
+				slot = numThreads++;
+				if(slot == traceBB.length){
+					BBTraceBuffer[] tmp = new BBTraceBuffer[slot*2];
+					System.arraycopy(traceBB, 0, tmp, 0, slot);
+					traceBB = tmp;
+				}
+				buffer = newTraceBuffer(tid);
+				buffer.setSlot(slot);
+				traceBB[slot] = buffer;
+				threadSlots.put(tid, slot);
+				if(flusher != null)
+					flusher.register(buffer);
+			}
+		}
+		catch(IOException e){
+			System.err.println("[SymbiosisRuntime] "+e.getMessage());
+			e.printStackTrace();
 		}
 		finally{l.unlock();}
+		localTrace.set(buffer);
+		return buffer;
+	}
+
+	/**
+	 * Creates the basic block buffer for thread tid according to the recording mode.
+	 * @param tid
+	 * @return
+	 */
+	private static BBTraceBuffer newTraceBuffer(String tid)
+	{
+		if(Main.ringSize > 0)
+			return new RingBBTraceBuffer(tid, Main.ringSize);
+		if(Main.bbBudget > 0 || Main.armAfter > 0)
+			return new BudgetBBTraceBuffer(tid, Main.streamTrace, Main.armAfter, Main.bbBudget);
+		return new BBTraceBuffer(tid, Main.streamTrace);
 	}
 
 
@@ -84,11 +172,8 @@ public class SymbiosisRuntime {
 
 			//**to generate deterministic thread identifiers
 			threadChildrenCounter.put("0", 1);
-			if(!traceBB.containsKey("0")){
-				l.lock();
-				traceBB.put("0", new LinkedList<Long>());
-				l.unlock();
-			}
+			if(SAMPLED)
+				bindTraceBuffer("0");
 			//skipBB.put("0", false);
 
 		}catch(Exception e)
@@ -138,11 +223,8 @@ public class SymbiosisRuntime {
 			threadChildrenCounter.put(threadId, 1);
 			MapBackupThreadName.put(Thread.currentThread(),threadId);
 			//skipBB.put(threadId, false);
-			if(!traceBB.containsKey(threadId)){
-				l.lock();
-				traceBB.put(threadId, new LinkedList<Long>());
-				l.unlock();
-			}
+			if(SAMPLED)
+				bindTraceBuffer(threadId);
 
 			System.out.println("[SymbiosisRuntime] T"+threadId+" started running");
 		}catch(Exception e)
@@ -154,7 +236,7 @@ public class SymbiosisRuntime {
 
 	public static void assertHandler(int success)
 	{
-		if(!assertProbeList.contains(Thread.currentThread().getName()))
+		if(!SAMPLED || !assertProbeList.contains(Thread.currentThread().getName()))
 			return;
 			
 		String filename;
@@ -163,7 +245,29 @@ public class SymbiosisRuntime {
 		else
 			execLabel = assertCounter++ + ".ok";//filename = Main.tracefile + assertCounter++ + ".ok";
 
-		saveTrace(Main.tracefile);
+		//** when streaming the full trace, the assertion is only marked and the trace is completed at shutdown (MonitorThread)
+		if(Main.streamTrace && Main.storeFullTrace != null)
+			markAssertion();
+		else
+			saveTrace(Main.tracefile);
+	}
+
+	/**
+	 * Writes the blocks recorded so far by the current thread to the trace being streamed
+	 * and marks the last one as the assertion block.
+	 */
+	private static void markAssertion()
+	{
+		l.lock();
+		try{
+			BBTraceBuffer buffer = localTrace.get();
+			if(buffer != null)
+				flusher.markAssertion(buffer);
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+		finally{l.unlock();}
 	}
 	
 	public static void assertProbe()
@@ -173,35 +277,20 @@ public class SymbiosisRuntime {
 
 	public static void saveTrace(String filename)
 	{
-		int execHash = 0; //hash to identify this execution path
+		l.lock();
 		try {
-			OutputStreamWriter outstream = new OutputStreamWriter(new FileOutputStream(filename));
-			String tid = Thread.currentThread().getName();
-			
-			l.lock(); 
-			for(Entry<String,LinkedList<Long>> entry : traceBB.entrySet())
-			{
-				Iterator<Long> it = entry.getValue().iterator();
-				while(it.hasNext())
-				{
-					Long bbid = (Long)it.next();
-					execHash = (String.valueOf(execHash)+bbid.toString()).hashCode();
-					if(!it.hasNext() && tid.equals(entry.getKey())){
-						outstream.write("["+entry.getKey()+" "+bbid+"]"+"\n"); //mark the basic block corresponding to the assertion with [ ]
-					}
-					else{
-						outstream.write(entry.getKey()+" "+bbid+"\n");
-					}
-				}
-				//Nuno: handle join case in Critical (ugly!) {--
-				if(entry.getKey().equals("0") && 
-						(Main.mainclass.equals("critical.Critical")
-						|| Main.mainclass.equals("jdk_StringBuffer.StringBufferTest"))){
-					outstream.write("0 2\n");	
-				}
-				//--}
+			long execHash; //hash to identify this execution path
+			BBTraceBuffer cur = localTrace.get();
+			int assertSlot = (cur == null ? -1 : cur.getSlot()); //the shutdown hook has no slot, so no block is marked
+			if(flusher != null){
+				if(flusher.isFinished())
+					return; //the streamed trace was already completed
+				execHash = flusher.finish(assertSlot);
 			}
-			outstream.close();
+			else{
+				execHash = writeTrace(openTraceWriter(filename), assertSlot);
+			}
+
 			System.out.println("[SymbiosisRuntime] Execution hash: "+execHash);
 			String newFileName = filename+"_"+execHash+"_"+execLabel;
 			
@@ -211,16 +300,72 @@ public class SymbiosisRuntime {
 			if(!oldfile.renameTo(newfile)){
 				System.out.println("[SymbiosisRuntime] Failed to rename logfile.");
 			}
-			l.unlock();
-
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			l.unlock();
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
 			e.printStackTrace();
-			l.unlock();
 		}
+		finally{l.unlock();}
+	}
+
+	/**
+	 * Creates the trace writer for the format chosen (text or binary).
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	private static TraceWriter openTraceWriter(String filename) throws IOException
+	{
+		int flags = (Main.partialTrace ? TraceWriter.FLAG_PARTIAL : 0);
+		if(Main.binaryTrace)
+			return new BinaryTraceWriter(filename, flags);
+		return new TextTraceWriter(filename, flags);
+	}
+
+	/**
+	 * Writes the blocks of every thread and closes the trace.
+	 * @param writer
+	 * @param assertSlot slot of the thread that hit the assertion (its last block is marked)
+	 * @return the hash of the execution path
+	 * @throws IOException
+	 */
+	private static long writeTrace(TraceWriter writer, int assertSlot) throws IOException
+	{
+		for(int slot = 0; slot < numThreads; slot++)
+		{
+			BBTraceBuffer buffer = traceBB[slot];
+			writer.addThread(buffer.getThreadId()); //threads are added in slot order, so the writer's slots match ours
+			writeThread(writer, slot, buffer, slot == assertSlot);
+		}
+		return writer.close();
+	}
+
+	/**
+	 * Writes the blocks held by a thread's buffer, followed by the artificial join block of the main thread,
+	 * if needed (see needsJoinBlock), and by the number of blocks that were not recorded, if any.
+	 * @param writer
+	 * @param slot
+	 * @param buffer
+	 * @param isAssertThread indicates whether the thread hit the assertion (its last block is marked)
+	 * @throws IOException
+	 */
+	static void writeThread(TraceWriter writer, int slot, BBTraceBuffer buffer, boolean isAssertThread) throws IOException
+	{
+		//** if the budget was exhausted, the last block recorded is not the assertion block
+		buffer.write(writer, slot, isAssertThread && buffer.getSkippedAfter() == 0);
+		if(needsJoinBlock(buffer.getThreadId()))
+			writer.writeBlocks(slot, new long[]{2}, 0, 1);
+		if(buffer.getSkippedBefore() > 0 || buffer.getSkippedAfter() > 0)
+			writer.writeSkipped(slot, buffer.getSkippedBefore(), buffer.getSkippedAfter());
+	}
+
+	/**
+	 * Nuno: handle join case in Critical (ugly!)
+	 * @param tid
+	 * @return
+	 */
+	private static boolean needsJoinBlock(String tid)
+	{
+		return tid.equals("0") && 
+				(Main.mainclass.equals("critical.Critical")
+				|| Main.mainclass.equals("jdk_StringBuffer.StringBufferTest"));
 	}
 }
@@ -0,0 +1,112 @@
+package pt.tecnico.symbiosis.runtime;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ * Converts a production trace in the text format ("tid bbid" per line) into the binary format.
+ * Usage: TextToBinaryTrace [text-trace] [binary-trace]
+ * (the inverse conversion is provided by pt.tecnico.jpf.symbiosis.util.BinaryToTextTrace, in jpf-symbiosis)
+ * @author nunomachado
+ *
+ */
+public class TextToBinaryTrace {
+
+	public static void main(String[] args)
+	{
+		if(args.length != 2)
+		{
+			System.out.println("usage: TextToBinaryTrace [text-trace] [binary-trace]");
+			return;
+		}
+
+		try{
+			long hash = convert(args[0], args[1]);
+			System.out.println("[SymbiosisRuntime] Converted "+args[0]+" -> "+args[1]+" (execution hash: "+hash+")");
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Converts a text trace into the binary format.
+	 * @param textfile
+	 * @param binfile
+	 * @return the rolling hash of the execution path
+	 * @throws IOException
+	 */
+	public static long convert(String textfile, String binfile) throws IOException
+	{
+		LinkedHashMap<String, BBTraceBuffer> threads = new LinkedHashMap<String, BBTraceBuffer>(); //keeps the threads' order of appearance
+		HashMap<String, long[]> skipped = new HashMap<String, long[]>(); //thread id -> blocks not recorded (before, after)
+		int flags = 0;
+		String assertThread = null;
+		int assertPos = -1;
+
+		BufferedReader br = new BufferedReader(new FileReader(textfile));
+		String line;
+		while ((line = br.readLine()) != null) {
+			if(line.equals("#partial")){
+				flags |= TraceWriter.FLAG_PARTIAL;
+				continue;
+			}
+			else if(line.startsWith("#skipped ")){
+				String[] vals = line.split(" ");
+				skipped.put(vals[1], new long[]{Long.parseLong(vals[2]), Long.parseLong(vals[3])});
+				if(!threads.containsKey(vals[1]))
+					threads.put(vals[1], new BBTraceBuffer(vals[1])); //the thread may have no block recorded
+				continue;
+			}
+
+			boolean isAssert = false;
+			if(line.startsWith("[")){
+				line = line.substring(1, line.length()-1); //transforms "[tid bbid]" into "tid bbid"
+				isAssert = true;
+			}
+
+			int sep = line.indexOf(' ');
+			String tid = line.substring(0, sep);
+			long bbid = Long.parseLong(line.substring(sep+1));
+
+			BBTraceBuffer buffer = threads.get(tid);
+			if(buffer == null){
+				buffer = new BBTraceBuffer(tid);
+				threads.put(tid, buffer);
+			}
+			if(isAssert){
+				assertThread = tid;
+				assertPos = buffer.size();
+			}
+			buffer.add(bbid);
+		}
+		br.close();
+
+		BinaryTraceWriter writer = new BinaryTraceWriter(binfile, flags);
+		for(Entry<String, BBTraceBuffer> entry : threads.entrySet())
+		{
+			BBTraceBuffer buffer = entry.getValue();
+			int slot = writer.addThread(entry.getKey());
+			long[] path = new long[buffer.size()];
+			for(int i = 0; i < path.length; i++)
+				path[i] = buffer.get(i);
+
+			if(entry.getKey().equals(assertThread)){
+				//the assertion block is not necessarily the last block of the thread
+				writer.writeBlocks(slot, path, 0, assertPos);
+				writer.writeAssertBlock(slot, path[assertPos]);
+				writer.writeBlocks(slot, path, assertPos+1, path.length);
+			}
+			else{
+				writer.writeBlocks(slot, path, 0, path.length);
+			}
+			if(skipped.containsKey(entry.getKey()))
+				writer.writeSkipped(slot, skipped.get(entry.getKey())[0], skipped.get(entry.getKey())[1]);
+		}
+		return writer.close();
+	}
+}
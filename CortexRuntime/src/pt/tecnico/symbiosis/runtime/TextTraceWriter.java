@@ -0,0 +1,58 @@
+package pt.tecnico.symbiosis.runtime;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+/**
+ * Writes the production trace in text format, i.e. one "tid bbid" line per basic block.
+ * The block corresponding to the assertion is marked with [ ].
+ * Partial traces start with a "#partial" line and contain, for each thread that has blocks
+ * missing, a "#skipped tid before after" line.
+ * @author nunomachado
+ *
+ */
+public class TextTraceWriter extends TraceWriter {
+
+	private final BufferedWriter outstream;
+
+	public TextTraceWriter(String filename, int flags) throws IOException
+	{
+		outstream = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename)));
+		if((flags & FLAG_PARTIAL) != 0)
+			outstream.write("#partial\n");
+	}
+
+	public void writeBlocks(int slot, long[] bbs, int from, int to) throws IOException
+	{
+		String tid = threads.get(slot);
+		for(int i = from; i < to; i++)
+		{
+			hashes[slot] = rollHash(hashes[slot], bbs[i]);
+			outstream.write(tid+" "+bbs[i]+"\n");
+		}
+	}
+
+	public void writeAssertBlock(int slot, long bbid) throws IOException
+	{
+		hashes[slot] = rollHash(hashes[slot], bbid);
+		outstream.write("["+threads.get(slot)+" "+bbid+"]"+"\n"); //mark the basic block corresponding to the assertion with [ ]
+	}
+
+	public void writeSkipped(int slot, long before, long after) throws IOException
+	{
+		outstream.write("#skipped "+threads.get(slot)+" "+before+" "+after+"\n");
+	}
+
+	public void flush() throws IOException
+	{
+		outstream.flush();
+	}
+
+	public long close() throws IOException
+	{
+		outstream.close();
+		return getHash();
+	}
+}
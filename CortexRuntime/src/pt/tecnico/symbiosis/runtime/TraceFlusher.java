@@ -0,0 +1,102 @@
+package pt.tecnico.symbiosis.runtime;
+
+import java.io.IOException;
+
+/**
+ * Background thread that continuously drains the threads' basic block buffers to disk,
+ * so that the memory used by the recorder stays bounded regardless of the length of the run.
+ * Only chunks that are already full are written by this thread; the remaining blocks
+ * (along with the assertion marker) are written by the last flush, in SymbiosisRuntime.saveTrace.
+ * Each buffer keeps track of how many of its blocks were already written, so a chunk that is
+ * handed over while a flush is running is neither lost nor written twice.
+ * All methods that touch the writer must be called while holding SymbiosisRuntime.l.
+ * @author nunomachado
+ *
+ */
+public class TraceFlusher extends Thread {
+
+	public static long FLUSH_INTERVAL = 100; //** time (in ms) between two consecutive flushes
+
+	private volatile TraceWriter writer;	//** null once the trace has been completed
+
+	public TraceFlusher(TraceWriter writer)
+	{
+		super("TraceFlusher");
+		this.writer = writer;
+		setDaemon(true);
+	}
+
+	public void run()
+	{
+		while(true)
+		{
+			try {
+				Thread.sleep(FLUSH_INTERVAL);
+			} catch (InterruptedException e) {
+				//keep flushing
+			}
+
+			SymbiosisRuntime.l.lock();
+			try{
+				//** after the trace is completed, the chunks filled by threads that are still running are simply recycled
+				for(int slot = 0; slot < SymbiosisRuntime.numThreads; slot++)
+					SymbiosisRuntime.traceBB[slot].flushFullChunks(writer);
+				if(writer != null)
+					writer.flush();
+			}
+			catch(IOException e){
+				System.err.println("[SymbiosisRuntime] "+e.getMessage());
+				e.printStackTrace();
+			}
+			finally{SymbiosisRuntime.l.unlock();}
+		}
+	}
+
+	/**
+	 * Registers a new thread in the trace. Threads are registered in slot order,
+	 * so the writer's slots match the ones of SymbiosisRuntime.
+	 * @param buffer
+	 * @throws IOException
+	 */
+	public void register(BBTraceBuffer buffer) throws IOException
+	{
+		if(writer != null)
+			writer.addThread(buffer.getThreadId());
+	}
+
+	/**
+	 * Writes all the blocks recorded so far by the current thread and marks the last one
+	 * as the assertion block. The trace is not completed, so the thread keeps being recorded.
+	 * @param buffer the current thread's buffer
+	 * @throws IOException
+	 */
+	public void markAssertion(BBTraceBuffer buffer) throws IOException
+	{
+		if(writer != null)
+			buffer.drain(writer, buffer.getSkippedAfter() == 0); //if the budget was exhausted, the last block recorded is not the assertion block
+	}
+
+	/**
+	 * Performs the last flush and closes the trace.
+	 * @param assertSlot slot of the thread that hit the assertion (its last block is marked)
+	 * @return the hash of the execution path
+	 * @throws IOException
+	 */
+	public long finish(int assertSlot) throws IOException
+	{
+		TraceWriter w = writer;
+		writer = null;
+		for(int slot = 0; slot < SymbiosisRuntime.numThreads; slot++)
+		{
+			BBTraceBuffer buffer = SymbiosisRuntime.traceBB[slot];
+			buffer.flushFullChunks(w);
+			SymbiosisRuntime.writeThread(w, slot, buffer, slot == assertSlot);
+		}
+		return w.close();
+	}
+
+	public boolean isFinished()
+	{
+		return writer == null;
+	}
+}
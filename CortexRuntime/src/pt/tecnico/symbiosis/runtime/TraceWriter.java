@@ -0,0 +1,124 @@
+package pt.tecnico.symbiosis.runtime;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Base class for the production trace writers. Threads are registered first (which assigns them a slot)
+ * and their basic block ids can then be written in one or several batches.
+ * Writers also compute the hash that identifies the execution path: each thread's path is hashed
+ * separately (starting from its thread id) and the per-thread hashes are then summed, so that the
+ * hash does not depend on the order in which the threads' blocks are written.
+ * @author nunomachado
+ *
+ */
+public abstract class TraceWriter {
+
+	public static final long INITIAL_HASH = 0xcbf29ce484222325L;	//** FNV-1a offset basis
+	private static final long HASH_PRIME = 0x100000001b3L;			//** FNV-1a prime
+
+	public static final int FLAG_PARTIAL = 1;	//** the threads' paths may be incomplete (see writeSkipped)
+
+	protected final ArrayList<String> threads;	//** slot -> thread id
+	protected long[] hashes;					//** slot -> rolling hash of the thread's path
+
+	protected TraceWriter()
+	{
+		threads = new ArrayList<String>();
+		hashes = new long[16];
+	}
+
+	/**
+	 * Rolling hash used to identify an execution path.
+	 * @param h
+	 * @param bbid
+	 * @return
+	 */
+	public static long rollHash(long h, long bbid)
+	{
+		return (h ^ bbid) * HASH_PRIME;
+	}
+
+	/**
+	 * Initial value of the rolling hash of thread tid's path.
+	 * @param tid
+	 * @return
+	 */
+	public static long threadHash(String tid)
+	{
+		return rollHash(INITIAL_HASH, tid.hashCode());
+	}
+
+	/**
+	 * Adds a new thread to the trace and returns its slot.
+	 * Subclasses must call this method before writing the thread's record.
+	 * @param tid
+	 * @return
+	 * @throws IOException
+	 */
+	public int addThread(String tid) throws IOException
+	{
+		int slot = threads.size();
+		threads.add(tid);
+		if(slot == hashes.length){
+			long[] tmp = new long[slot*2];
+			System.arraycopy(hashes, 0, tmp, 0, slot);
+			hashes = tmp;
+		}
+		hashes[slot] = threadHash(tid);
+		return slot;
+	}
+
+	/**
+	 * Writes the block ids in positions [from, to[ of bbs.
+	 * @param slot
+	 * @param bbs
+	 * @param from
+	 * @param to
+	 * @throws IOException
+	 */
+	public abstract void writeBlocks(int slot, long[] bbs, int from, int to) throws IOException;
+
+	/**
+	 * Writes a block id and marks it as the block corresponding to the assertion.
+	 * @param slot
+	 * @param bbid
+	 * @throws IOException
+	 */
+	public abstract void writeAssertBlock(int slot, long bbid) throws IOException;
+
+	/**
+	 * Writes the number of blocks executed by a thread that are not in the trace, before
+	 * the first block and after the last block written for that thread (partial traces only).
+	 * @param slot
+	 * @param before
+	 * @param after
+	 * @throws IOException
+	 */
+	public abstract void writeSkipped(int slot, long before, long after) throws IOException;
+
+	/**
+	 * Writes the buffered data to disk.
+	 * @throws IOException
+	 */
+	public abstract void flush() throws IOException;
+
+	/**
+	 * Completes the trace and closes the file.
+	 * @return the hash of the execution path
+	 * @throws IOException
+	 */
+	public abstract long close() throws IOException;
+
+	/**
+	 * Returns the hash of the execution path written so far.
+	 * @return
+	 */
+	public long getHash()
+	{
+		long hash = 0;
+		for(int slot = 0; slot < threads.size(); slot++)
+			hash += hashes[slot];
+		return hash;
+	}
+}
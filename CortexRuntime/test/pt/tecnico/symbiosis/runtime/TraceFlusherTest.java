@@ -0,0 +1,228 @@
+package pt.tecnico.symbiosis.runtime;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Saves and streams the trace while the recording threads keep appending to their buffers,
+ * and checks that each thread's path in the trace file is exactly a prefix of what it recorded
+ * (no block lost, duplicated or read from a recycled chunk).
+ * Each recording thread appends the ids 0, 1, 2, ... so its path must be a sequence of consecutive ids.
+ * @author nunomachado
+ *
+ */
+public class TraceFlusherTest {
+
+	static final int THREADS = 4;
+	static final long MAX_IDS = 200000;	//** ids appended by each recording thread, at most
+
+	/**
+	 * Recording thread, which appends consecutive ids to its buffer until it is stopped
+	 * (yielding now and then, so that the saves overlap with the recording).
+	 */
+	static class Recorder extends Thread {
+		final BBTraceBuffer buffer;
+		volatile boolean stop;
+
+		Recorder(BBTraceBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		public void run()
+		{
+			for(long i = 0; !stop && i < MAX_IDS; i++)
+			{
+				buffer.add(i);
+				if(i % 256 == 0)
+					Thread.yield();
+			}
+		}
+	}
+
+	private Recorder[] startRecorders(boolean streaming, int ringSize)
+	{
+		Main.mainclass = "test";
+		SymbiosisRuntime.l = new ReentrantLock();
+		SymbiosisRuntime.traceBB = new BBTraceBuffer[THREADS];
+		SymbiosisRuntime.numThreads = THREADS;
+
+		Recorder[] recorders = new Recorder[THREADS];
+		for(int slot = 0; slot < THREADS; slot++)
+		{
+			String tid = String.valueOf(slot+1);
+			BBTraceBuffer buffer = (ringSize > 0 ? new RingBBTraceBuffer(tid, ringSize) : new BBTraceBuffer(tid, streaming));
+			buffer.setSlot(slot);
+			SymbiosisRuntime.traceBB[slot] = buffer;
+			recorders[slot] = new Recorder(buffer);
+		}
+		for(Recorder r : recorders)
+			r.start();
+		for(Recorder r : recorders)
+			while(r.buffer.size() == 0)
+				Thread.yield();
+		return recorders;
+	}
+
+	private void stopRecorders(Recorder[] recorders) throws InterruptedException
+	{
+		for(Recorder r : recorders)
+			r.stop = true;
+		for(Recorder r : recorders)
+			r.join();
+	}
+
+	private TraceWriter newWriter(File f) throws IOException
+	{
+		TraceWriter w = new TextTraceWriter(f.getPath(), 0);
+		for(int slot = 0; slot < THREADS; slot++)
+			w.addThread(SymbiosisRuntime.traceBB[slot].getThreadId());
+		return w;
+	}
+
+	/**
+	 * Reads a text trace back, returning the path of each thread.
+	 */
+	private HashMap<String, List<Long>> readTrace(File f) throws IOException
+	{
+		HashMap<String, List<Long>> paths = new HashMap<String, List<Long>>();
+		BufferedReader in = new BufferedReader(new FileReader(f));
+		String line;
+		while((line = in.readLine()) != null)
+		{
+			if(line.startsWith("#"))
+				continue;
+			String[] parts = line.replace("[", "").replace("]", "").split(" ");
+			List<Long> path = paths.get(parts[0]);
+			if(path == null){
+				path = new ArrayList<Long>();
+				paths.put(parts[0], path);
+			}
+			path.add(Long.parseLong(parts[1]));
+		}
+		in.close();
+		return paths;
+	}
+
+	private void checkConsecutive(HashMap<String, List<Long>> paths, long first)
+	{
+		assertEquals(THREADS, paths.size());
+		for(List<Long> path : paths.values())
+		{
+			assertFalse(path.isEmpty());
+			long expected = (first < 0 ? path.get(0) : first);
+			for(long id : path)
+				assertEquals(expected++, id);
+		}
+	}
+
+	@Test
+	public void testSaveWhileRecording() throws Exception
+	{
+		Recorder[] recorders = startRecorders(false, 0);
+		File f = File.createTempFile("trace", ".txt");
+		try{
+			for(int i = 0; i < 20; i++)
+			{
+				Thread.sleep(1);
+				TraceWriter w = newWriter(f);
+				SymbiosisRuntime.l.lock();
+				try{
+					for(int slot = 0; slot < THREADS; slot++)
+						SymbiosisRuntime.writeThread(w, slot, SymbiosisRuntime.traceBB[slot], false);
+				}
+				finally{SymbiosisRuntime.l.unlock();}
+				w.close();
+				checkConsecutive(readTrace(f), 0);
+			}
+		}
+		finally{
+			stopRecorders(recorders);
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testStreamWhileRecording() throws Exception
+	{
+		Recorder[] recorders = startRecorders(true, 0);
+		File f = File.createTempFile("trace", ".txt");
+		try{
+			TraceWriter w = newWriter(f);
+			TraceFlusher flusher = new TraceFlusher(w);
+			for(int i = 0; i < 200; i++)
+			{
+				SymbiosisRuntime.l.lock();
+				try{
+					for(int slot = 0; slot < THREADS; slot++)
+					{
+						//** alternate between background flushes and partial drains of the open chunk
+						if(i % 2 == 0)
+							SymbiosisRuntime.traceBB[slot].flushFullChunks(w);
+						else
+							SymbiosisRuntime.traceBB[slot].write(w, slot, false);
+					}
+				}
+				finally{SymbiosisRuntime.l.unlock();}
+				Thread.yield();
+			}
+
+			SymbiosisRuntime.l.lock();
+			try{
+				flusher.finish(-1);
+			}
+			finally{SymbiosisRuntime.l.unlock();}
+			checkConsecutive(readTrace(f), 0);
+		}
+		finally{
+			stopRecorders(recorders);
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testRingWhileRecording() throws Exception
+	{
+		Recorder[] recorders = startRecorders(false, 1000);
+		File f = File.createTempFile("trace", ".txt");
+		try{
+			for(int i = 0; i < 20; i++)
+			{
+				Thread.sleep(1);
+				TraceWriter w = newWriter(f);
+				SymbiosisRuntime.l.lock();
+				try{
+					for(int slot = 0; slot < THREADS; slot++)
+						SymbiosisRuntime.writeThread(w, slot, SymbiosisRuntime.traceBB[slot], false);
+				}
+				finally{SymbiosisRuntime.l.unlock();}
+				w.close();
+
+				//** the path starts after the ids that were discarded (or overwritten while saving)
+				HashMap<String, List<Long>> paths = readTrace(f);
+				checkConsecutive(paths, -1);
+				for(int slot = 0; slot < THREADS; slot++)
+				{
+					BBTraceBuffer buffer = SymbiosisRuntime.traceBB[slot];
+					List<Long> path = paths.get(buffer.getThreadId());
+					assertEquals(buffer.getSkippedBefore(), (long) path.get(0));
+					assertTrue(path.size() <= 1000);
+				}
+			}
+		}
+		finally{
+			stopRecorders(recorders);
+			f.delete();
+		}
+	}
+}
@@ -0,0 +1,342 @@
+//
+// Copyright (C) 2010 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.classfile;
+
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.util.JPFLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * a persistent cache of the class files a ClassPath has located, so that
+ * subsequent JPF runs with the same classpath don't have to open and search
+ * the classpath containers (jars in particular) again. We keep one append-only
+ * file per classpath (the file name is a digest of the classpath elements and
+ * the size/date of its jars), which is memory mapped when the cache is opened.
+ *
+ * jar containers are therefore covered by the file name. Classes found in
+ * directories are stored with the size/date of their class file, and a cached
+ * class is only used if that still matches, and if no directory that precedes
+ * its container in the classpath has got a class file for it in the meantime.
+ *
+ * Format (big endian): MAGIC, VERSION, classpath, followed by records
+ *   className containerName length lastModified dataLength data
+ * (strings are written with writeUTF, length/lastModified are -1 for jars).
+ * Later records of a class override earlier ones.
+ *
+ * Note that we only cache the class file contents - ClassInfos, MethodInfos
+ * and their instructions are bound to the VM they were created in (static area
+ * ids, native peers, attributes) and still get created from the ClassFile.
+ * Opened caches are kept for the lifetime of the host VM, i.e. shared by all
+ * the JPF runs of a batch.
+ */
+public class ClassFileCache {
+
+  static final byte[] MAGIC = {'J','P','F','C'};
+  static final byte VERSION = 1;
+
+  static JPFLogger logger = JPF.getLogger("gov.nasa.jpf.classfile");
+
+  static HashMap<String,ClassFileCache> openCaches = new HashMap<String,ClassFileCache>();
+
+  static class Entry {
+    String container;
+    long length;       // size of the class file (dirs only)
+    long lastModified; // date of the class file (dirs only)
+    int pos;           // position of the data in the mapped file (if data == null)
+    int dataLength;
+    byte[] data;       // class file data, if the entry was added by this VM
+
+    Entry (String container, long length, long lastModified, int pos, int dataLength, byte[] data){
+      this.container = container;
+      this.length = length;
+      this.lastModified = lastModified;
+      this.pos = pos;
+      this.dataLength = dataLength;
+      this.data = data;
+    }
+  }
+
+  String fileName;
+  String classPath;
+  MappedByteBuffer buf;
+  HashMap<String,Entry> entries = new HashMap<String,Entry>();
+
+  int hits, misses;
+
+
+  /**
+   * our factory method - returns null if the cache can't be used
+   */
+  public static ClassFileCache getCache (File dir, ClassPath cp){
+    String key = getClassPathKey(cp);
+    String fname = new File(dir, "classes-" + digest(key)).getPath();
+
+    ClassFileCache cache = openCaches.get(fname);
+    if (cache == null){
+      try {
+        dir.mkdirs();
+        cache = new ClassFileCache(fname, key);
+        openCaches.put(fname, cache);
+      } catch (IOException iox){
+        logger.warning("cannot open class file cache " + fname + ": " + iox.getMessage());
+        return null;
+      }
+    }
+
+    return cache;
+  }
+
+  static String getClassPathKey (ClassPath cp){
+    StringBuilder sb = new StringBuilder();
+
+    for (ClassFileContainer e : cp.pathElements){
+      sb.append(e.getName());
+      File f = e.getJarFile();
+      if (f != null){
+        sb.append('#');
+        sb.append(f.length());
+        sb.append('#');
+        sb.append(f.lastModified());
+      }
+      sb.append(File.pathSeparatorChar);
+    }
+
+    return sb.toString();
+  }
+
+  static String digest (String s){
+    try {
+      byte[] d = MessageDigest.getInstance("MD5").digest(s.getBytes("UTF-8"));
+      StringBuilder sb = new StringBuilder();
+      for (byte b : d){
+        sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+        sb.append(Character.forDigit(b & 0xf, 16));
+      }
+      return sb.toString();
+
+    } catch (NoSuchAlgorithmException nsax){
+      return Integer.toHexString(s.hashCode());
+    } catch (IOException iox){
+      return Integer.toHexString(s.hashCode());
+    }
+  }
+
+  protected ClassFileCache (String fileName, String classPath) throws IOException {
+    this.fileName = fileName;
+    this.classPath = classPath;
+
+    File f = new File(fileName);
+    if (f.isFile()){
+      RandomAccessFile file = new RandomAccessFile(f, "rw");
+      FileLock lock = file.getChannel().lock(); // don't read records that are still being written
+      try {
+        FileChannel channel = file.getChannel();
+        long size = channel.size();
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+        long end = readEntries();
+        if (end < 0){
+          logger.warning("ignoring corrupted class file cache " + fileName);
+          entries.clear();
+          buf = null;
+          file.setLength(0);
+
+        } else if (end < size){
+          // a writer got killed - drop its record, or the ones appended after it would be lost
+          entries.clear();
+          buf = null;
+          file.setLength(end);
+          buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+          readEntries();
+        }
+
+      } finally {
+        lock.release();
+        file.close();
+      }
+    }
+  }
+
+  /**
+   * index the records of the mapped file, returning the end of the last
+   * complete record, or -1 if the file isn't a cache of our classpath
+   */
+  long readEntries (){
+    int end = 0;
+
+    try {
+      for (int i=0; i<MAGIC.length; i++){
+        if (buf.get() != MAGIC[i]){
+          return -1;
+        }
+      }
+      if (buf.get() != VERSION || !readString(buf).equals(classPath)){
+        return -1;
+      }
+      end = buf.position();
+
+      while (buf.hasRemaining()){
+        String clsName = readString(buf);
+        String container = readString(buf);
+        long length = buf.getLong();
+        long lastModified = buf.getLong();
+        int dataLength = buf.getInt();
+        int pos = buf.position();
+        buf.position(pos + dataLength);
+
+        entries.put(clsName, new Entry(container, length, lastModified, pos, dataLength, null));
+        end = buf.position();
+      }
+
+    } catch (BufferUnderflowException bux){
+      // truncated record (or header)
+    } catch (IllegalArgumentException iax){
+      // truncated record
+    } catch (IOException iox){
+      return -1;
+    }
+
+    return (end > 0) ? end : -1;
+  }
+
+  static String readString (ByteBuffer buf) throws IOException {
+    byte[] b = new byte[buf.getShort() & 0xffff];
+    buf.get(b);
+    return new String(b, "UTF-8"); // writeUTF is modified UTF-8, but that only differs for \0 and supplementary chars
+  }
+
+  public String getFileName(){
+    return fileName;
+  }
+
+  public int getHits(){
+    return hits;
+  }
+
+  public int getMisses(){
+    return misses;
+  }
+
+  /**
+   * return the cached class file of clsName if it is still the one the
+   * classpath would find, or null if it has to be looked up
+   */
+  public ClassPath.Match findMatch (String clsName, ArrayList<ClassFileContainer> pathElements){
+    Entry e = entries.get(clsName);
+
+    if (e != null){
+      for (ClassFileContainer c : pathElements){
+        if (c.getName().equals(e.container)){
+          File f = c.getClassFile(clsName);
+          if (f != null){
+            if (f.length() != e.length || f.lastModified() != e.lastModified){
+              break; // class file was changed
+            }
+          }
+
+          hits++;
+          return new ClassPath.Match(c, getData(e));
+
+        } else {
+          File f = c.getClassFile(clsName);
+          if (f != null && f.isFile()){
+            break; // shadowed by a class file that is found first
+          }
+        }
+      }
+    }
+
+    return null;
+  }
+
+  byte[] getData (Entry e){
+    if (e.data != null){
+      return e.data;
+    } else {
+      byte[] data = new byte[e.dataLength];
+      ByteBuffer b = buf.duplicate();
+      b.position(e.pos);
+      b.get(data);
+      return data;
+    }
+  }
+
+  /**
+   * store a class file that was found in container c. Failing to store is
+   * not an error, the class just has to be looked up again next time
+   */
+  public synchronized void add (String clsName, ClassFileContainer c, byte[] data){
+    long length = -1;
+    long lastModified = -1;
+    File f = c.getClassFile(clsName);
+    if (f != null){
+      length = f.length();
+      lastModified = f.lastModified();
+    }
+
+    entries.put(clsName, new Entry(c.getName(), length, lastModified, -1, data.length, data));
+    misses++;
+
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 256);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeUTF(clsName);
+      out.writeUTF(c.getName());
+      out.writeLong(length);
+      out.writeLong(lastModified);
+      out.writeInt(data.length);
+      out.write(data);
+      out.flush();
+
+      RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+      FileLock lock = file.getChannel().lock(); // other JPF processes might add to the same cache
+      try {
+        if (file.length() == 0){
+          file.write(MAGIC);
+          file.writeByte(VERSION);
+          file.writeUTF(classPath);
+        }
+        file.seek(file.length());
+        file.write(bytes.toByteArray());
+
+      } finally {
+        lock.release();
+        file.close();
+      }
+
+    } catch (IOException iox){
+      logger.warning("cannot add " + clsName + " to class file cache " + fileName + ": " + iox.getMessage());
+    }
+  }
+}
@@ -44,6 +44,21 @@ public abstract class ClassFileContainer {
 
   public abstract byte[] getClassData(String clsName) throws ClassFileException;
 
+  /**
+   * the file that holds the class file of clsName, or null if this
+   * container does not keep class files as separate files (jars)
+   */
+  File getClassFile(String clsName) {
+    return null;
+  }
+
+  /**
+   * the jar file of this container, or null if it is not a jar
+   */
+  File getJarFile() {
+    return null;
+  }
+
   protected void readFully(InputStream is, byte[] buf) throws ClassFileException {
     try {
       int nRead = 0;
@@ -93,11 +108,7 @@ public abstract class ClassFileContainer {
       
       jarFile = new File(jarPath);
       if (jarFile.isFile()){
-        try {
-          return new JarContainer(jarFile, pathPrefix);
-        } catch (IOException ix) {
-          return null;
-        }
+        return new JarContainer(jarFile, pathPrefix);
       } else {
         return null;
       }
@@ -126,9 +137,13 @@ class DirContainer extends ClassFileContainer {
     this.dir = dir;
   }
 
-  public byte[] getClassData(String clsName) throws ClassFileException {
+  File getClassFile(String clsName) {
     String pn = clsName.replace('.', File.separatorChar) + ".class";
-    File f = new File(dir, pn);
+    return new File(dir, pn);
+  }
+
+  public byte[] getClassData(String clsName) throws ClassFileException {
+    File f = getClassFile(clsName);
 
     if (f.isFile()) {
       FileInputStream fis = null;
@@ -164,23 +179,45 @@ class DirContainer extends ClassFileContainer {
 
 class JarContainer extends ClassFileContainer {
 
-  JarFile jar;
+  File file;
+  JarFile jar; // opened on the first lookup (classes might all come from a ClassFileCache)
+  boolean isOpen;
   String pathPrefix; // optional
 
-  JarContainer(File file) throws IOException {
+  JarContainer(File file) {
     super(file.getPath());
 
-    jar = new JarFile(file);
+    this.file = file;
   }
 
-  JarContainer (File file, String pathPrefix) throws IOException {
+  JarContainer (File file, String pathPrefix) {
     super(getPath(file, pathPrefix));
 
-    jar = new JarFile(file);
+    this.file = file;
     
     this.pathPrefix = getNormalizedPathPrefix(pathPrefix);
   }
 
+  /**
+   * return the opened jar, or null if it can't be read (which we treat
+   * like an empty jar, as it used to be skipped as an illegal classpath element)
+   */
+  JarFile getJar() {
+    if (!isOpen) {
+      isOpen = true;
+      try {
+        jar = new JarFile(file);
+      } catch (IOException iox) {
+        ClassPath.logger.info("illegal classpath element ", file.getPath());
+      }
+    }
+    return jar;
+  }
+
+  File getJarFile() {
+    return file;
+  }
+
   /**
    * make sure the return value ends with '/', and does NOT start with '/'. If
    * the supplied pathPrefix only contains '/' or an empty string, return null
@@ -245,7 +282,8 @@ class JarContainer extends ClassFileContainer {
       pn = pathPrefix + pn;
     }
     
-    JarEntry e = jar.getJarEntry(pn);
+    JarFile jar = getJar();
+    JarEntry e = (jar != null) ? jar.getJarEntry(pn) : null;
 
     if (e != null) {
       InputStream is = null;
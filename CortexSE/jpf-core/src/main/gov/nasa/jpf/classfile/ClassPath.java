@@ -49,6 +49,8 @@ public class ClassPath {
   
   ArrayList<ClassFileContainer> pathElements;
 
+  ClassFileCache cache; // optional, class files located by previous runs
+
 
   public ClassPath(){
     pathElements = new ArrayList<ClassFileContainer>();
@@ -74,6 +76,19 @@ public class ClassPath {
     }
   }
 
+  /**
+   * set the cache to look up class files in before searching the path
+   * elements (the cache has to be created for this classpath, i.e. after all
+   * path elements were added)
+   */
+  public void setCache (ClassFileCache cache){
+    this.cache = cache;
+  }
+
+  public ClassFileCache getCache(){
+    return cache;
+  }
+
   public String[] getPathNames(){
     String[] pn = new String[pathElements.size()];
 
@@ -103,10 +118,21 @@ public class ClassPath {
   }
 
   public Match findMatch (String clsName) throws ClassFileException {
+    if (cache != null){
+      Match match = cache.findMatch(clsName, pathElements);
+      if (match != null){
+        logger.fine("loading ", clsName, " from cache of ", match.container.getName());
+        return match;
+      }
+    }
+
     for (ClassFileContainer e : pathElements){
       byte[] data = e.getClassData(clsName);
       if (data != null){
         logger.fine("loading ", clsName, " from ", e.getName());
+        if (cache != null){
+          cache.add(clsName, e, data);
+        }
         return new Match( e, data);
       }
     }
@@ -115,15 +141,8 @@ public class ClassPath {
   }
 
   public byte[] getClassData(String clsName) throws ClassFileException {
-    for (ClassFileContainer e : pathElements){
-      byte[] data = e.getClassData(clsName);
-      if (data != null){
-        logger.fine("loading ", clsName, " from ", e.getName());
-        return data;
-      }
-    }
-
-    return null;
+    Match match = findMatch(clsName);
+    return (match != null) ? match.data : null;
   }
 
   public static void main(String[] args){
@@ -24,6 +24,7 @@ import gov.nasa.jpf.JPFConfigException;
 import gov.nasa.jpf.JPFException;
 import gov.nasa.jpf.JPFListener;
 import gov.nasa.jpf.classfile.ClassFile;
+import gov.nasa.jpf.classfile.ClassFileCache;
 import gov.nasa.jpf.classfile.ClassFileContainer;
 import gov.nasa.jpf.classfile.ClassFileException;
 import gov.nasa.jpf.classfile.ClassFileReaderAdapter;
@@ -1962,6 +1963,12 @@ public class ClassInfo extends InfoObject implements Iterable<MethodInfo>, Gener
         cp.addPathName(pn);
       }
     }
+
+    // reuse the class files that were located by previous runs
+    String cacheDir = config.getString("vm.class_cache");
+    if (cacheDir != null && cacheDir.length() > 0){
+      cp.setCache(ClassFileCache.getCache(new File(cacheDir), cp));
+    }
   }
 
   protected static Set<String> loadArrayInterfaces () {
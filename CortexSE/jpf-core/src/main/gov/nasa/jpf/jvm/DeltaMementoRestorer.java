@@ -0,0 +1,43 @@
+//
+// Copyright (C) 2010 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.jvm;
+
+/**
+ * a MementoRestorer that stores the SparseClusterArrayHeap as a delta of the
+ * previous heap memento - only the heap chunks (256 objects of a thread) with
+ * changed objects get new memento arrays, all others are shared with the
+ * previous memento. Unchanged ElementInfos share their (cached) mementos
+ * and Fields anyways, so this mostly saves the per-object memento references
+ * of big heaps that are only changed in a few places per transition, which
+ * is the typical case for deep (replay) searches that don't backtrack much.
+ *
+ * Restoring is not more expensive than with the full snapshot, since the heap
+ * chunks are rebuilt directly from the stored ones
+ */
+public class DeltaMementoRestorer extends DefaultMementoRestorer {
+
+  public Memento<KernelState> getMemento(KernelState ks) {
+    return new KernelState.KsMemento(ks, this);
+  }
+
+  public Memento<Heap> getMemento(SparseClusterArrayHeap sca){
+    return sca.getDeltaMemento();
+  }
+}
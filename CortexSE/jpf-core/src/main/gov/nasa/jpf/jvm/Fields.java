@@ -46,6 +46,14 @@ public abstract class Fields implements Cloneable {
    */
   protected Object objectAttr;
 
+  /**
+   * hash of the serialized values, cached by IncrementalSerializer. Fields
+   * get cloned upon the first modification after a state was stored, so this
+   * can be reused as long as the owning ElementInfo has no changed fields
+   */
+  protected long serialHash;
+  protected boolean hasSerialHash;
+
 
   protected Fields() {}
 
@@ -279,6 +287,8 @@ public abstract class Fields implements Cloneable {
         f.objectAttr = objectAttr; //
       }
 
+      f.hasSerialHash = false;
+
       return f;
     } catch (CloneNotSupportedException cnsx){
       return null;
@@ -305,6 +315,19 @@ public abstract class Fields implements Cloneable {
   // serialization interface
   public abstract void appendTo(IntVector v);
 
+  public boolean hasSerialHash() {
+    return hasSerialHash;
+  }
+
+  public long getSerialHash() {
+    return serialHash;
+  }
+
+  public void setSerialHash (long h) {
+    serialHash = h;
+    hasSerialHash = true;
+  }
+
 
   public int hashCode () {
     HashData hd = new HashData();
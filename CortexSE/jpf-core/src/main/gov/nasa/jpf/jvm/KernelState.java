@@ -56,6 +56,14 @@ public class KernelState implements Restorable<KernelState> {
       heapMemento = ks.heap.getMemento();
     }
 
+    // the heap memento is obtained from the factory, so that restorers can
+    // pick the heap memento type (e.g. DeltaMementoRestorer)
+    KsMemento (KernelState ks, MementoFactory factory){
+      threadsMemento = ks.threads.getMemento();
+      staticsMemento = ks.statics.getMemento();
+      heapMemento = ks.heap.getMemento(factory);
+    }
+
     public KernelState restore (KernelState ks) {
       // those are all in-situ objects, no need to set them in ks
       threadsMemento.restore(ks.threads);
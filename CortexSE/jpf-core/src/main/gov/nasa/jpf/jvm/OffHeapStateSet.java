@@ -0,0 +1,406 @@
+//
+// Copyright (C) 2010 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.jvm;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.JPFException;
+import gov.nasa.jpf.util.JPFLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * a StateSet that keeps the (Jenkins) state fingerprints outside of the
+ * Java heap, so that the state set neither competes with the states stored
+ * for backtracking nor counts for search.min_free.
+ *
+ * Fingerprints are distributed over a number of partitions (by their upper
+ * bits), each of which is an open addressing table of (fingerprint,id)
+ * entries in a direct buffer. Partitions grow independently, i.e. there is
+ * no rehash of the whole set. The direct memory is bounded by
+ * vm.storage.max_memory; if a partition has to grow beyond that, we either
+ *
+ *  - "spill": move the least recently used partitions into memory mapped
+ *    files (vm.storage.spill_dir), which are paged in and out by the OS.
+ *    This is lossless, but might get slow once the spilled partitions don't
+ *    fit into the page cache anymore
+ *
+ *  - "bloom": stop adding to the partitions, and record new states in a
+ *    Bloom filter of vm.storage.bloom_size bytes sized for a false positive
+ *    rate of vm.storage.fp_rate. States that are matched by the Bloom filter
+ *    get the id MATCHED_UNKNOWN_ID, since the filter doesn't know ids
+ *
+ * (see vm.storage.overflow). Occupancy is logged on each overflow event and
+ * every vm.storage.report_interval new states, and can be queried.
+ */
+public class OffHeapStateSet extends SerializingStateSet {
+
+  static JPFLogger logger = JPF.getLogger("gov.nasa.jpf.jvm.OffHeapStateSet");
+
+  /** id of a state that was matched by the Bloom filter */
+  public static final int MATCHED_UNKNOWN_ID = -2;
+
+  static final int ENTRY_SIZE = 12;   // long fingerprint, int id
+  static final double MAX_LOAD = 0.75;
+  static final int INIT_CAPACITY = 1024;
+  static final int MAX_CAPACITY = 1 << 27; // entries per partition (1.5GB buffer)
+
+  static class Partition {
+    ByteBuffer table;
+    int capacity;   // number of entries, a power of 2
+    int count;
+    long lastUse;   // tick of the last lookup
+    File file;      // spill file, null if this is a direct buffer
+    int generation; // of the spill file
+  }
+
+  Partition[] partitions;
+  int partitionShift;
+
+  long maxMemory;      // direct memory ceiling
+  long directMemory;   // direct memory used by the partitions
+  boolean spill;       // overflow policy
+  File spillDir;
+  int nSpilled;
+
+  // bloom fallback
+  ByteBuffer bloom;
+  long bloomBits;
+  int bloomHashes;
+  long bloomCapacity;  // number of states for which we stay below the configured fp rate
+  long bloomSize;
+  double fpRate;
+  long nBloom;         // states added to the bloom filter
+  long nBloomMatched;
+
+  int lastStateId = -1;
+  long tick;
+  int reportInterval;
+
+  public OffHeapStateSet (Config conf) {
+    int nPartitions = Integer.highestOneBit(Math.max(1, conf.getInt("vm.storage.partitions", 64)));
+    maxMemory = conf.getMemorySize("vm.storage.max_memory", 256<<20);
+    spill = !"bloom".equals(conf.getString("vm.storage.overflow", "spill"));
+    spillDir = new File(conf.getString("vm.storage.spill_dir", System.getProperty("java.io.tmpdir")));
+    bloomSize = conf.getMemorySize("vm.storage.bloom_size", 64<<20);
+    fpRate = conf.getDouble("vm.storage.fp_rate", 1e-6);
+    reportInterval = conf.getInt("vm.storage.report_interval", 0);
+
+    partitions = new Partition[nPartitions];
+    partitionShift = 64 - Integer.numberOfTrailingZeros(nPartitions);
+    for (int i=0; i<nPartitions; i++){
+      Partition p = new Partition();
+      p.capacity = INIT_CAPACITY;
+      p.table = ByteBuffer.allocateDirect(INIT_CAPACITY * ENTRY_SIZE);
+      directMemory += INIT_CAPACITY * ENTRY_SIZE;
+      partitions[i] = p;
+    }
+  }
+
+  public int size () {
+    return lastStateId + 1;
+  }
+
+  protected int add (int[] val) {
+    long hash = JenkinsStateSet.longLookup3Hash(val);
+    if (hash == 0){
+      hash = 1; // 0 marks empty entries
+    }
+
+    Partition p = (partitions.length > 1) ? partitions[(int)(hash >>> partitionShift)] : partitions[0];
+    p.lastUse = ++tick;
+
+    int mask = p.capacity - 1;
+    int idx = (int)hash & mask;
+    long fp;
+    while ((fp = p.table.getLong(idx * ENTRY_SIZE)) != 0){
+      if (fp == hash){
+        return p.table.getInt(idx * ENTRY_SIZE + 8);
+      }
+      idx = (idx + 1) & mask;
+    }
+
+    //--- not in the partitions
+
+    if (bloom != null){
+      return addToBloom(hash);
+    }
+
+    if (p.count >= (int)(p.capacity * MAX_LOAD)){
+      if (!grow(p)){
+        startBloom();
+        return addToBloom(hash);
+      }
+      mask = p.capacity - 1;
+      idx = (int)hash & mask;
+      while (p.table.getLong(idx * ENTRY_SIZE) != 0){
+        idx = (idx + 1) & mask;
+      }
+    }
+
+    lastStateId++;
+    p.table.putLong(idx * ENTRY_SIZE, hash);
+    p.table.putInt(idx * ENTRY_SIZE + 8, lastStateId);
+    p.count++;
+
+    if (reportInterval > 0 && (lastStateId % reportInterval) == 0){
+      logger.info(getOccupancyReport());
+    }
+
+    return lastStateId;
+  }
+
+  //--- partition growth and spilling
+
+  /**
+   * double the capacity of a partition, returning false if we can't do this
+   * within our memory ceiling (and overflow policy)
+   */
+  boolean grow (Partition p){
+    if (p.capacity >= MAX_CAPACITY){
+      return false;
+    }
+
+    int newCapacity = p.capacity << 1;
+    long newBytes = (long)newCapacity * ENTRY_SIZE;
+    ByteBuffer newTable;
+    File newFile = null;
+
+    if (p.file == null){
+      long required = directMemory - (long)p.capacity * ENTRY_SIZE + newBytes;
+      if (required > maxMemory){
+        if (!spill){
+          return false;
+        }
+        spillColdPartitions(required - maxMemory, p);
+      }
+    }
+
+    if (p.file == null && (directMemory - (long)p.capacity * ENTRY_SIZE + newBytes) <= maxMemory){
+      newTable = ByteBuffer.allocateDirect((int)newBytes);
+      directMemory += newBytes - (long)p.capacity * ENTRY_SIZE;
+
+    } else { // spilled, or nothing left to spill
+      newFile = getSpillFile(p);
+      newTable = mapSpillFile(newFile, newBytes);
+      if (p.file == null){
+        directMemory -= (long)p.capacity * ENTRY_SIZE;
+        nSpilled++;
+      }
+    }
+
+    // rehash
+    int mask = newCapacity - 1;
+    for (int i=0; i<p.capacity; i++){
+      long fp = p.table.getLong(i * ENTRY_SIZE);
+      if (fp != 0){
+        int idx = (int)fp & mask;
+        while (newTable.getLong(idx * ENTRY_SIZE) != 0){
+          idx = (idx + 1) & mask;
+        }
+        newTable.putLong(idx * ENTRY_SIZE, fp);
+        newTable.putInt(idx * ENTRY_SIZE + 8, p.table.getInt(i * ENTRY_SIZE + 8));
+      }
+    }
+
+    if (p.file != null){
+      p.file.delete();
+    }
+    p.table = newTable;
+    p.capacity = newCapacity;
+    p.file = newFile;
+
+    return true;
+  }
+
+  /**
+   * move least recently used direct partitions (other than 'growing') into
+   * spill files until at least 'bytes' of direct memory are released
+   */
+  void spillColdPartitions (long bytes, Partition growing){
+    long released = 0;
+
+    while (released < bytes){
+      Partition lru = null;
+      for (Partition p : partitions){
+        if (p.file == null && p != growing && (lru == null || p.lastUse < lru.lastUse)){
+          lru = p;
+        }
+      }
+      if (lru == null){
+        return; // the growing partition will be spilled itself
+      }
+
+      long size = (long)lru.capacity * ENTRY_SIZE;
+      File f = getSpillFile(lru);
+      ByteBuffer mapped = mapSpillFile(f, size);
+      lru.table.clear();
+      mapped.put(lru.table);
+      lru.table = mapped;
+      lru.file = f;
+
+      directMemory -= size;
+      released += size;
+      nSpilled++;
+    }
+
+    logger.info("spilled state set partitions: ", getOccupancyReport());
+  }
+
+  File getSpillFile (Partition p){
+    int pid = 0;
+    while (partitions[pid] != p){
+      pid++;
+    }
+    return new File(spillDir, "jpf-states-" + Integer.toHexString(System.identityHashCode(this)) + '-' + pid + '-' + (p.generation++));
+  }
+
+  ByteBuffer mapSpillFile (File f, long size){
+    try {
+      spillDir.mkdirs();
+      RandomAccessFile raf = new RandomAccessFile(f, "rw");
+      try {
+        raf.setLength(size); // zero filled
+        ByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        f.deleteOnExit();
+        return buf;
+      } finally {
+        raf.close();
+      }
+    } catch (IOException iox){
+      throw new JPFException("cannot create state set spill file " + f + ": " + iox.getMessage());
+    }
+  }
+
+  //--- bloom fallback
+
+  void startBloom (){
+    bloomBits = Math.max(64, (bloomSize * 8) & ~63L);
+    bloom = ByteBuffer.allocateDirect((int)Math.min(bloomBits / 8, Integer.MAX_VALUE & ~7));
+    bloomBits = (long)bloom.capacity() * 8;
+
+    // optimal number of hash functions for the configured rate, and the
+    // number of states we can take before exceeding it
+    double ln2 = Math.log(2);
+    bloomHashes = Math.max(1, (int)Math.round(-Math.log(fpRate) / ln2));
+    bloomCapacity = (long)(bloomBits * ln2 * ln2 / -Math.log(fpRate));
+
+    logger.warning("state set memory limit reached, continuing with bloom filter: ", getOccupancyReport());
+  }
+
+  int addToBloom (long hash){
+    int h1 = (int)hash;
+    int h2 = (int)(hash >>> 32) | 1;
+    boolean seen = true;
+
+    for (int i=0; i<bloomHashes; i++){
+      long bit = ((h1 + (long)i * h2) & Long.MAX_VALUE) % bloomBits;
+      int pos = (int)(bit >>> 3);
+      byte b = bloom.get(pos);
+      byte m = (byte)(1 << (bit & 7));
+      if ((b & m) == 0){
+        seen = false;
+        bloom.put(pos, (byte)(b | m));
+      }
+    }
+
+    if (seen){
+      nBloomMatched++;
+      return MATCHED_UNKNOWN_ID;
+    }
+
+    if (++nBloom == bloomCapacity){
+      logger.warning("state set bloom filter exceeds its false positive rate: ", getOccupancyReport());
+    }
+
+    return ++lastStateId;
+  }
+
+  //--- metrics
+
+  public int getNumberOfPartitions() {
+    return partitions.length;
+  }
+
+  public int getNumberOfSpilledPartitions() {
+    return nSpilled;
+  }
+
+  public long getDirectMemory() {
+    return directMemory;
+  }
+
+  public long getSpilledMemory() {
+    long n = 0;
+    for (Partition p : partitions){
+      if (p.file != null){
+        n += (long)p.capacity * ENTRY_SIZE;
+      }
+    }
+    return n;
+  }
+
+  /** ratio of used to allocated entries over all partitions */
+  public double getLoadFactor() {
+    long count = 0, capacity = 0;
+    for (Partition p : partitions){
+      count += p.count;
+      capacity += p.capacity;
+    }
+    return (double)count / capacity;
+  }
+
+  public long getNumberOfBloomStates() {
+    return nBloom;
+  }
+
+  public long getNumberOfBloomMatches() {
+    return nBloomMatched;
+  }
+
+  /** expected false positive rate of the bloom filter with its current number of states */
+  public double getBloomFalsePositiveRate() {
+    if (bloom == null){
+      return 0;
+    }
+    return Math.pow(1 - Math.exp(-(double)bloomHashes * nBloom / bloomBits), bloomHashes);
+  }
+
+  public String getOccupancyReport() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("states=").append(size());
+    sb.append(",load=").append(String.format("%.2f", getLoadFactor()));
+    sb.append(",direct=").append(directMemory >> 10).append("K/").append(maxMemory >> 10).append('K');
+    sb.append(",spilled=").append(nSpilled).append('/').append(partitions.length);
+    if (nSpilled > 0){
+      sb.append('(').append(getSpilledMemory() >> 10).append("K)");
+    }
+    if (bloom != null){
+      sb.append(",bloom=").append(nBloom).append('/').append(bloomCapacity);
+      sb.append(",bloomMatches=").append(nBloomMatched);
+      sb.append(",fp=").append(String.format("%.1e", getBloomFalsePositiveRate()));
+    }
+    return sb.toString();
+  }
+}
@@ -75,6 +75,9 @@ public class SparseClusterArrayHeap extends SparseClusterArray<ElementInfo> impl
   // this is set to false upon backtrack/restore
   protected boolean liveBitValue;
 
+  // the last stored or restored SCADeltaMemento snapshot, which the next one is based on
+  protected DeltaSnapshot<Memento<ElementInfo>> lastDeltaSnapshot;
+
 
   public static class Snapshot<T> extends SparseClusterArray.Snapshot<ElementInfo,T> {
     int attributes;
@@ -86,6 +89,16 @@ public class SparseClusterArrayHeap extends SparseClusterArray<ElementInfo> impl
     }
   }
 
+  public static class DeltaSnapshot<T> extends SparseClusterArray.DeltaSnapshot<ElementInfo,T> {
+    int attributes;
+    IntVector pinDownList;
+    IntTable<String> internStrings;
+
+    DeltaSnapshot (int nChunks){
+      super(nChunks);
+    }
+  }
+
   static Transformer<ElementInfo,Memento<ElementInfo>> ei2mei = new Transformer<ElementInfo,Memento<ElementInfo>>(){
     public Memento<ElementInfo> transform (ElementInfo ei){
       Memento<ElementInfo> m = null;
@@ -125,6 +138,26 @@ public class SparseClusterArrayHeap extends SparseClusterArray<ElementInfo> impl
 
   }
 
+  // a memento that only stores the chunks which changed since the previous
+  // one, sharing the others with it (see DeltaMementoRestorer)
+  static class SCADeltaMemento implements Memento<Heap> {
+    SparseClusterArrayHeap.DeltaSnapshot<Memento<ElementInfo>> snap;
+
+    SCADeltaMemento(SparseClusterArrayHeap sca) {
+      snap = sca.getDeltaSnapshot(ei2mei, sca.lastDeltaSnapshot);
+      sca.lastDeltaSnapshot = snap;
+      sca.markUnchanged();
+    }
+
+    public Heap restore(Heap inSitu) {
+      SparseClusterArrayHeap sca = (SparseClusterArrayHeap)inSitu;
+      sca.restoreDeltaSnapshot(snap, mei2ei);
+      sca.lastDeltaSnapshot = snap;
+      return sca;
+    }
+
+  }
+
 
   public SparseClusterArrayHeap (Config config, KernelState ks){
     vm = JVM.getVM();
@@ -173,6 +206,34 @@ public class SparseClusterArrayHeap extends SparseClusterArray<ElementInfo> impl
     liveBitValue = false; // always start with false after a restore
   }
 
+  public <T> DeltaSnapshot<T> getDeltaSnapshot (Transformer<ElementInfo,T> transformer, DeltaSnapshot<T> prev){
+    int nChunks = 0;
+    for (Chunk c = head; c != null; c = c.next) {
+      if (!c.isEmpty()){
+        nChunks++;
+      }
+    }
+
+    DeltaSnapshot snap = new DeltaSnapshot(nChunks);
+    populateDeltaSnapshot(snap, transformer, prev);
+
+    snap.pinDownList = pinDownList;
+    snap.internStrings = internStrings;
+    snap.attributes = attributes & ATTR_STORE_MASK;
+
+    return snap;
+  }
+
+  public <T> void restoreDeltaSnapshot (DeltaSnapshot<T> snap, Transformer<T,ElementInfo> transformer){
+    super.restoreDeltaSnapshot(snap, transformer);
+
+    pinDownList = snap.pinDownList;
+    internStrings = snap.internStrings;
+    attributes = snap.attributes;
+
+    liveBitValue = false; // always start with false after a restore
+  }
+
   //--- Heap interface
 
   public boolean isGcEnabled (){
@@ -557,6 +618,10 @@ public class SparseClusterArrayHeap extends SparseClusterArray<ElementInfo> impl
     return new SCAMemento(this);
   }
 
+  public Memento<Heap> getDeltaMemento(){
+    return new SCADeltaMemento(this);
+  }
+
 
 
   public void checkConsistency(boolean isStateStore) {
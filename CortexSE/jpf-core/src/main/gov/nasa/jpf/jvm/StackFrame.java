@@ -90,6 +90,9 @@ public class StackFrame implements Cloneable {
 
   protected boolean changed;
 
+  protected long serialHash;        // cached by IncrementalSerializer (frames are cloned upon modification)
+  protected boolean hasSerialHash;
+
   static final int[] EMPTY_ARRAY = new int[0];
   static final FixedBitSet EMPTY_BITSET = new BitSet64();
 
@@ -1121,6 +1124,7 @@ public class StackFrame implements Cloneable {
       sf.frameAttr = frameAttr;
       
       sf.changed = false; // has to be set explicitly
+      sf.hasSerialHash = false;
 
       return sf;
     } catch (CloneNotSupportedException cnsx) {
@@ -1136,6 +1140,20 @@ public class StackFrame implements Cloneable {
     changed = hasChanged;
   }
 
+  // see Fields.serialHash
+  public boolean hasSerialHash() {
+    return hasSerialHash;
+  }
+
+  public long getSerialHash() {
+    return serialHash;
+  }
+
+  public void setSerialHash (long h) {
+    serialHash = h;
+    hasSerialHash = true;
+  }
+
   // all the dupses don't have any GC side effect (everything is already
   // on the stack), so skip the GC requests associated with push()/pop()
 
@@ -0,0 +1,245 @@
+//
+// Copyright (C) 2010 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.jvm.serialize;
+
+import gov.nasa.jpf.jvm.ArrayFields;
+import gov.nasa.jpf.jvm.ClassInfo;
+import gov.nasa.jpf.jvm.ElementInfo;
+import gov.nasa.jpf.jvm.Fields;
+import gov.nasa.jpf.jvm.StackFrame;
+import gov.nasa.jpf.jvm.StaticArea;
+import gov.nasa.jpf.jvm.StaticElementInfo;
+import gov.nasa.jpf.jvm.ThreadInfo;
+import gov.nasa.jpf.jvm.ThreadList;
+import gov.nasa.jpf.jvm.bytecode.Instruction;
+import gov.nasa.jpf.util.FinalBitSet;
+import gov.nasa.jpf.util.IntVector;
+
+/**
+ * a FilteringSerializer that doesn't serialize the heap and the statics,
+ * but only stores hashes of them. Each object, class and stack frame caches
+ * the hash of its (filtered) values, which is only recomputed if it was
+ * changed since the last stored state. This relies on the copy-on-first-write
+ * of Fields and StackFrames (their change flags get reset when a state is
+ * stored), which also means cached hashes survive backtracking since the
+ * mementos keep the same Fields and StackFrame objects.
+ *
+ * The heap and statics hashes are order independent sums of the per object
+ * (class) hashes, so there is no traversal of the reference graph. This has
+ * two consequences: (1) there is no heap symmetry (reference values are
+ * hashed as they are, as in FilteringSerializer), and (2) all live objects
+ * count, including the ones that are only reachable through filtered fields.
+ * Use this serializer if the heap is big and transitions are short, i.e. if
+ * state matching cost is dominated by re-serializing unchanged objects.
+ *
+ * Since this only stores hashes, the probability of a false state match
+ * is slightly higher than with the full serialization (we add 64bit hashes
+ * of the objects, which are then hashed again by the StateSet).
+ */
+public class IncrementalSerializer extends FilteringSerializer {
+
+  // scratch buffer for the values of a single object or frame
+  protected IntVector vals = new IntVector(256);
+
+  // number of objects, classes and frames whose hash had to be computed
+  // in the last serialization (the rest were unchanged)
+  protected int nHashed;
+  protected int nTotal;
+
+  public int getNumberOfHashed() {
+    return nHashed;
+  }
+
+  public int getNumberOfHashedTotal() {
+    return nTotal;
+  }
+
+  //--- the hash functions
+
+  // FNV-1a over ints, with a final avalanche step
+  static long hash (IntVector v){
+    long h = 0xcbf29ce484222325L;
+    int n = v.size();
+    for (int i=0; i<n; i++){
+      h ^= v.get(i);
+      h *= 0x100000001b3L;
+    }
+    return mix(h);
+  }
+
+  static long mix (long h){
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  //--- per object/class/frame hashes
+
+  protected long getObjectHash (ElementInfo ei){
+    Fields fields = ei.getFields();
+    nTotal++;
+
+    if (fields.hasSerialHash() && !ei.haveFieldsChanged()){
+      return fields.getSerialHash();
+    }
+
+    ClassInfo ci = ei.getClassInfo();
+    vals.clear();
+    vals.add(ci.getUniqueId());
+
+    if (fields instanceof ArrayFields){ // not filtered
+      vals.add(((ArrayFields)fields).arrayLength());
+      fields.appendTo(vals);
+
+    } else {
+      FinalBitSet filtered = getInstanceFilterMask(ci);
+      int[] values = fields.asFieldSlots();
+      for (int i = 0; i < values.length; i++) {
+        if (!filtered.get(i)) {
+          vals.add(values[i]);
+        }
+      }
+    }
+
+    long h = hash(vals);
+    fields.setSerialHash(h);
+    nHashed++;
+    return h;
+  }
+
+  protected long getClassHash (StaticElementInfo sei){
+    Fields fields = sei.getFields();
+    nTotal++;
+
+    if (fields.hasSerialHash() && !sei.haveFieldsChanged()){
+      return fields.getSerialHash();
+    }
+
+    ClassInfo ci = sei.getClassInfo();
+    vals.clear();
+    vals.add(ci.getUniqueId());
+
+    FinalBitSet filtered = getStaticFilterMask(ci);
+    int max = ci.getStaticDataSize();
+    for (int i = 0; i < max; i++) {
+      if (!filtered.get(i)) {
+        vals.add(fields.getIntValue(i));
+      }
+    }
+
+    long h = hash(vals);
+    fields.setSerialHash(h);
+    nHashed++;
+    return h;
+  }
+
+  protected long getFrameHash (StackFrame frame){
+    nTotal++;
+
+    if (frame.hasSerialHash() && !frame.hasChanged()){
+      return frame.getSerialHash();
+    }
+
+    vals.clear();
+    vals.add(frame.getMethodInfo().getGlobalId());
+
+    // there can be (rare) cases where a listener sets a null nextPc in
+    // a frame that is still on the stack
+    Instruction pc = frame.getPC();
+    vals.add( pc != null ? pc.getInstructionIndex() : -1);
+
+    int len = frame.getTopPos()+1;
+    vals.add(len);
+    vals.append(frame.getSlots(), 0, len);
+
+    long h = hash(vals);
+    frame.setSerialHash(h);
+    nHashed++;
+    return h;
+  }
+
+  //--- the state parts
+
+  protected void addHash (long h){
+    buf.add((int)(h >>> 32));
+    buf.add((int)h);
+  }
+
+  protected void serializeHeap(){
+    long h = 0;
+    int n = 0;
+
+    for (ElementInfo ei : heap.liveObjects()){
+      h += mix(getObjectHash(ei) + ei.getObjectRef() * 0x9e3779b97f4a7c15L);
+      n++;
+    }
+
+    buf.add(n);
+    addHash(h);
+  }
+
+  @Override
+  protected void serializeStatics(){
+    StaticArea statics = ks.getStaticArea();
+    long h = 0;
+
+    for (StaticElementInfo sei : statics) {
+      h += mix(getClassHash(sei) + sei.getStatus() * 0x9e3779b97f4a7c15L);
+    }
+
+    buf.add(statics.getLength());
+    addHash(h);
+  }
+
+  @Override
+  protected void serializeStackFrames(ThreadInfo ti){
+    buf.add( ti.getThreadObjectRef());
+    buf.add( ti.getStackDepth());
+
+    for (StackFrame frame = ti.getTopFrame(); frame != null; frame = frame.getPrevious()){
+      addHash( getFrameHash(frame));
+    }
+  }
+
+  // references are not followed, all live objects are hashed by serializeHeap()
+  @Override
+  public void processReference(int objref) {
+    buf.add(objref);
+  }
+
+  @Override
+  protected int[] computeStoringData() {
+
+    buf.clear();
+    heap = ks.getHeap();
+    nHashed = 0;
+    nTotal = 0;
+
+    serializeStackFrames();
+    serializeStatics();
+    serializeHeap();
+    serializeThreadStates();
+
+    return buf.toArray();
+  }
+}
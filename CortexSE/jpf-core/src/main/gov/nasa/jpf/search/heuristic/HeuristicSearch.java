@@ -20,6 +20,7 @@ package gov.nasa.jpf.search.heuristic;
 
 import gov.nasa.jpf.Config;
 import gov.nasa.jpf.jvm.JVM;
+import gov.nasa.jpf.jvm.RestorableVMState;
 import gov.nasa.jpf.jvm.ThreadInfo;
 import gov.nasa.jpf.search.Search;
 
@@ -76,6 +77,9 @@ public abstract class HeuristicSearch extends Search {
 	public abstract int getQueueSize();
 	public abstract boolean isQueueLimitReached();
 
+	// drop all the queued states
+	public abstract void clearQueue();
+
 	public HeuristicState getParentState() {
 		return parentState;
 	}
@@ -203,6 +207,25 @@ public abstract class HeuristicSearch extends Search {
 		notifySearchFinished();
 	}
 
+	/*
+	 * restart the search from a state saved during a previous search of this same VM,
+	 * e.g. by a listener that explores from there again with a different configuration.
+	 * The queued states and the errors of the previous search are dropped, and the search
+	 * becomes path sensitive, since the states it generates may have been visited before
+	 */
+	public void searchFrom (RestorableVMState state) {
+		clearQueue();
+		errors.clear();
+		currentError = null;
+
+		vm.restoreState(state);
+		depth = vm.getPathLength();
+		notifyStateRestored();
+
+		isPathSensitive = true;
+		search();
+	}
+
 	public boolean supportsBacktrack () {
 		// we don't do multi-level backtracks, but automatically do backtrackToParent()
 		// after each child state generation
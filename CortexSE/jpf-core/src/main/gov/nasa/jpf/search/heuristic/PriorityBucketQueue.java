@@ -0,0 +1,210 @@
+//
+//Copyright (C) 2008 United States Government as represented by the
+//Administrator of the National Aeronautics and Space Administration
+//(NASA).  All Rights Reserved.
+//
+//This software is distributed under the NASA Open Source Agreement
+//(NOSA), version 1.3.  The NOSA has been approved by the Open Source
+//Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+//directory tree for the complete NOSA document.
+//
+//THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+//KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+//LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+//SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+//A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+//THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+//DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.search.heuristic;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.util.JPFLogger;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * a PrioritizedStateQueue that keeps a FIFO bucket per priority value, which
+ * is more suitable than StaticPriorityQueue for wide searches with few
+ * distinct priorities (e.g. BFSHeuristic, where the priority is the search
+ * level). Since consecutive adds and polls mostly hit the same bucket, we
+ * cache the last used ones, i.e. both are O(1) in this case. Other than in
+ * StaticPriorityQueue, states with the same priority are processed in the
+ * order in which they were added, not in the order of their state ids.
+ *
+ * Besides search.heuristic.queue_limit, the queue size can be bounded by
+ * the available memory: if the free heap drops below
+ * search.heuristic.queue_min_free, the current size becomes the queue limit,
+ * i.e. new states are only queued if they have a higher priority than the
+ * last queued one (which is dropped instead). Note that the queued
+ * RestorableVMStates refer to the live VM objects (ClassInfos, shared Fields
+ * etc.) and therefore cannot be spilled to disk
+ */
+public class PriorityBucketQueue implements PrioritizedStateQueue {
+
+  static JPFLogger log = JPF.getLogger("gov.nasa.jpf.search.heuristic");
+
+  static final int CHECK_INTERVAL = 256; // adds between free memory checks
+
+  TreeMap<Integer,ArrayDeque<PrioritizedState>> buckets = new TreeMap<Integer,ArrayDeque<PrioritizedState>>();
+
+  // the buckets we added to and polled from last
+  int addPriority;
+  ArrayDeque<PrioritizedState> addBucket;
+  int firstPriority;
+  ArrayDeque<PrioritizedState> firstBucket;
+
+  int size;
+  int maxQueueSize;
+
+  long minFreeMemory;
+  int nAdds;
+
+  public PriorityBucketQueue (Config config) {
+    maxQueueSize = config.getInt("search.heuristic.queue_limit", 1024);
+    if (maxQueueSize < 0){
+      maxQueueSize = Integer.MAX_VALUE;
+    }
+
+    minFreeMemory = config.getMemorySize("search.heuristic.queue_min_free", 0);
+  }
+
+  ArrayDeque<PrioritizedState> getBucket (int priority, boolean create){
+    if (addBucket != null && addPriority == priority){
+      return addBucket;
+    }
+
+    ArrayDeque<PrioritizedState> b = buckets.get(priority);
+    if (b == null){
+      if (!create){
+        return null;
+      }
+      b = new ArrayDeque<PrioritizedState>();
+      buckets.put(priority, b);
+    }
+
+    addPriority = priority;
+    addBucket = b;
+    return b;
+  }
+
+  void removeBucket (int priority){
+    buckets.remove(priority);
+    if (addBucket != null && addPriority == priority){
+      addBucket = null;
+    }
+    if (firstBucket != null && firstPriority == priority){
+      firstBucket = null;
+    }
+  }
+
+  public boolean add (PrioritizedState s) {
+    if (minFreeMemory > 0 && (++nAdds % CHECK_INTERVAL) == 0){
+      checkFreeMemory();
+    }
+
+    int priority = s.getPriority();
+
+    if (size >= maxQueueSize) {
+      Map.Entry<Integer,ArrayDeque<PrioritizedState>> last = buckets.lastEntry();
+      if (last == null || priority >= last.getKey()){
+        return false; // don't add with this priority value
+      }
+
+      ArrayDeque<PrioritizedState> b = last.getValue();
+      b.pollLast();
+      size--;
+      if (b.isEmpty()){
+        removeBucket(last.getKey());
+      }
+    }
+
+    getBucket(priority, true).addLast(s);
+    size++;
+
+    if (firstBucket != null && priority < firstPriority){
+      firstBucket = null;
+    }
+
+    return true;
+  }
+
+  void checkFreeMemory () {
+    if (size < maxQueueSize){
+      Runtime rt = Runtime.getRuntime();
+      long avail = rt.maxMemory() - rt.totalMemory() + rt.freeMemory();
+
+      if (avail < minFreeMemory){
+        rt.gc();
+        avail = rt.maxMemory() - rt.totalMemory() + rt.freeMemory();
+
+        if (avail < minFreeMemory){
+          maxQueueSize = size;
+          log.warning("heuristic queue limited by free memory to: ", maxQueueSize);
+        }
+      }
+    }
+  }
+
+  public PrioritizedState first () {
+    if (size == 0){
+      return null;
+    }
+
+    if (firstBucket == null){
+      Map.Entry<Integer,ArrayDeque<PrioritizedState>> e = buckets.firstEntry();
+      firstPriority = e.getKey();
+      firstBucket = e.getValue();
+    }
+
+    return firstBucket.peekFirst();
+  }
+
+  public boolean remove (Object o) {
+    if (o instanceof PrioritizedState){
+      PrioritizedState s = (PrioritizedState)o;
+      int priority = s.getPriority();
+
+      ArrayDeque<PrioritizedState> b;
+      if (firstBucket != null && firstPriority == priority){
+        b = firstBucket;
+      } else {
+        b = getBucket(priority, false);
+      }
+
+      if (b != null){
+        if (b.peekFirst() == s){ // the usual case, it was returned by first()
+          b.pollFirst();
+        } else if (!b.remove(s)){
+          return false;
+        }
+
+        size--;
+        if (b.isEmpty()){
+          removeBucket(priority);
+        }
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  public int size () {
+    return size;
+  }
+
+  public void clear () {
+    buckets.clear();
+    addBucket = null;
+    firstBucket = null;
+    size = 0;
+  }
+
+  public boolean isQueueLimitReached() {
+    return size >= maxQueueSize;
+  }
+}
@@ -27,12 +27,16 @@ import gov.nasa.jpf.jvm.JVM;
  */
 public abstract class SimplePriorityHeuristic extends HeuristicSearch {
 
-  StaticPriorityQueue queue;
+  PrioritizedStateQueue queue;
   
   public SimplePriorityHeuristic (Config config, JVM vm) {
     super(config,vm);
 
-    queue = new StaticPriorityQueue(config);    
+    if (config.getBoolean("search.heuristic.bucket_queue", false)) {
+      queue = new PriorityBucketQueue(config);
+    } else {
+      queue = new StaticPriorityQueue(config);
+    }
   }
 
   protected abstract int computeHeuristicValue ();
@@ -92,4 +96,8 @@ public abstract class SimplePriorityHeuristic extends HeuristicSearch {
   public boolean isQueueLimitReached() {
     return queue.isQueueLimitReached();
   }
+
+  public void clearQueue() {
+    queue.clear();
+  }
 }
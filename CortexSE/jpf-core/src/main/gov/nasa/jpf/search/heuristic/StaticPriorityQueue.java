@@ -39,7 +39,7 @@ import java.util.TreeSet;
  * make remove(last()) work as expected
  */
 @SuppressWarnings("serial")
-public class StaticPriorityQueue extends TreeSet<PrioritizedState> {
+public class StaticPriorityQueue extends TreeSet<PrioritizedState> implements PrioritizedStateQueue {
 
   int maxQueueSize;
   
@@ -92,6 +92,47 @@ public class SparseClusterArray <E> implements Iterable<E> {
   }
 
 
+  /**
+   * a snapshot that is stored per chunk, so that the values of chunks that
+   * are unchanged with respect to a previous snapshot are shared with it
+   */
+  public static class DeltaSnapshot<T,E> {
+    int[] bases;
+    Object[][] values; // N_ELEM values per chunk, null if not set
+    int[] counts;      // number of set values per chunk
+    int nSet;
+
+    public DeltaSnapshot (int nChunks){
+      bases = new int[nChunks];
+      values = new Object[nChunks][];
+      counts = new int[nChunks];
+    }
+
+    public int size() {
+      return nSet;
+    }
+    public int numberOfChunks() {
+      return bases.length;
+    }
+    /** number of chunks that are shared with 'prev' */
+    public int numberOfSharedChunks (DeltaSnapshot<T,E> prev){
+      int n = 0;
+      if (prev != null){
+        for (int i=0, j=0; i<bases.length && j<prev.bases.length;){
+          if (bases[i] == prev.bases[j]){
+            if (values[i] == prev.values[j]) n++;
+            i++; j++;
+          } else if (bases[i] < prev.bases[j]){
+            i++;
+          } else {
+            j++;
+          }
+        }
+      }
+      return n;
+    }
+  }
+
   public static class Entry<E> {  // queued element
     int index;
     E value;
@@ -704,6 +745,136 @@ public class SparseClusterArray <E> implements Iterable<E> {
     }
   }
 
+  /**
+   * create a snapshot that shares the values of all chunks that didn't change
+   * with respect to 'prev' (which can be null). Values are compared by identity,
+   * i.e. this only saves memory if the transformer returns the same object for
+   * unchanged elements (e.g. by caching it in the element)
+   */
+  public <T> DeltaSnapshot<E,T> getDeltaSnapshot (Transformer<E,T> transformer, DeltaSnapshot<E,T> prev){
+    int nChunks = 0;
+    for (Chunk c = head; c != null; c = c.next) {
+      if (!c.isEmpty()){
+        nChunks++;
+      }
+    }
+
+    DeltaSnapshot<E,T> snap = new DeltaSnapshot<E,T>(nChunks);
+    populateDeltaSnapshot(snap, transformer, prev);
+
+    return snap;
+  }
+
+  protected void populateDeltaSnapshot (DeltaSnapshot snap, Transformer transformer, DeltaSnapshot prev){
+    int k = 0; // next prev chunk (both are sorted by base)
+
+    int j = 0;
+    for (Chunk c = head; c != null; c = c.next) {
+      if (c.isEmpty()){
+        continue;
+      }
+
+      int base = c.base;
+      Object[] pv = null;
+      int pn = 0;
+      if (prev != null){
+        while (k < prev.bases.length && prev.bases[k] < base){
+          k++;
+        }
+        if (k < prev.bases.length && prev.bases[k] == base){
+          pv = prev.values[k];
+          pn = prev.counts[k];
+        }
+      }
+
+      // check if we can share the prev values before we allocate anything
+      Object[] v = pv;
+      int n = 0;
+      for (int i=c.nextSetBit(0); i>=0; i=c.nextSetBit(i+1)) {
+        Object val = transformer.transform(c.elements[i]);
+        if (v == pv){
+          if (pv == null || pv[i] != val){
+            v = new Object[N_ELEM];
+            if (pv != null){ // the ones we have checked so far are the same
+              for (int l=c.nextSetBit(0); l<i; l=c.nextSetBit(l+1)){
+                v[l] = pv[l];
+              }
+            }
+            v[i] = val;
+          }
+        } else {
+          v[i] = val;
+        }
+        n++;
+      }
+
+      if (v == pv && n != pn){ // elements were removed
+        v = new Object[N_ELEM];
+        for (int i=c.nextSetBit(0); i>=0; i=c.nextSetBit(i+1)) {
+          v[i] = pv[i];
+        }
+      }
+
+      snap.bases[j] = base;
+      snap.values[j] = v;
+      snap.counts[j] = n;
+      snap.nSet += n;
+      j++;
+    }
+  }
+
+  /**
+   * this builds the chunks directly from the snapshot values, i.e. we don't
+   * have to look up the chunk of each element
+   */
+  @SuppressWarnings("unchecked")
+  public <T> void restoreDeltaSnapshot (DeltaSnapshot<E,T> snap, Transformer<T,E> transformer) {
+    clear();
+
+    int[] bases = snap.bases;
+    Chunk last = null;
+
+    for (int k=0; k<bases.length; k++){
+      int base = bases[k];
+      Object[] v = snap.values[k];
+      Chunk c = new Chunk(base);
+
+      Object[] elements = c.elements;
+      long[] bm = c.bitmap;
+      for (int i=0; i<N_ELEM; i++){
+        T val = (T)v[i];
+        if (val != null){
+          elements[i] = transformer.transform(val);
+          bm[i >> 6] |= (1L << i);
+        }
+      }
+
+      // link it into the trie and the (sorted) chunk list
+      int j = base >>> S1;
+      Node l1 = root.seg[j];
+      if (l1 == null){
+        l1 = new Node();
+        root.seg[j] = l1;
+      }
+      j = (base >>> S2) & SEG_MASK;
+      ChunkNode l2 = l1.seg[j];
+      if (l2 == null){
+        l2 = new ChunkNode();
+        l1.seg[j] = l2;
+      }
+      l2.seg[(base >>> S3) & SEG_MASK] = c;
+
+      if (last == null){
+        head = c;
+      } else {
+        last.next = c;
+      }
+      last = c;
+    }
+
+    nSet = snap.nSet;
+  }
+
   public void clear() {
     lastChunk = null;
     head = null;
@@ -0,0 +1,144 @@
+//
+// Copyright (C) 2010 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.jvm;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.util.test.TestJPF;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+/**
+ * unit tests for gov.nasa.jpf.jvm.OffHeapStateSet
+ */
+public class OffHeapStateSetTest extends TestJPF {
+
+  public static void main (String[] args){
+    runTestsOfThisClass(args);
+  }
+
+  static OffHeapStateSet createStateSet (String props){
+    return new OffHeapStateSet(new Config(new StringReader(props)));
+  }
+
+  static int[] state (int i){
+    return new int[] { i, i * 31, 42 };
+  }
+
+  @Test
+  public void testGrow () {
+    OffHeapStateSet set = createStateSet("vm.storage.partitions=1\n");
+    long initialMemory = set.getDirectMemory();
+    int n = 5000; // several times the initial capacity
+
+    for (int i=0; i<n; i++){
+      assert set.add(state(i)) == i;
+    }
+    assert set.size() == n;
+    assert set.getDirectMemory() > initialMemory;
+    assert set.getLoadFactor() <= OffHeapStateSet.MAX_LOAD;
+
+    // the ids survive the rehashes
+    for (int i=0; i<n; i++){
+      assert set.add(state(i)) == i;
+    }
+    assert set.size() == n;
+    assert set.getNumberOfSpilledPartitions() == 0;
+  }
+
+  @Test
+  public void testSpill () throws IOException {
+    File dir = File.createTempFile("jpf-states", "");
+    dir.delete();
+
+    // the direct memory only takes the initial partitions and one grown one
+    OffHeapStateSet set = createStateSet("vm.storage.partitions=4\n" +
+                                         "vm.storage.max_memory=64K\n" +
+                                         "vm.storage.overflow=spill\n" +
+                                         "vm.storage.spill_dir=" + dir.getPath() + '\n');
+    int n = 20000;
+    try {
+      for (int i=0; i<n; i++){
+        assert set.add(state(i)) == i;
+      }
+
+      System.out.println(set.getOccupancyReport());
+      assert set.getNumberOfSpilledPartitions() > 0;
+      assert set.getSpilledMemory() > 0;
+      assert set.getDirectMemory() <= (64 << 10);
+      assert set.getNumberOfBloomStates() == 0;
+
+      // spilling is lossless
+      for (int i=0; i<n; i++){
+        assert set.add(state(i)) == i;
+      }
+      assert set.size() == n;
+
+    } finally {
+      File[] files = dir.listFiles();
+      if (files != null){
+        for (File f : files){
+          f.delete();
+        }
+      }
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testBloom () {
+    // the partition can't grow, so the states beyond its load limit go into the bloom filter
+    OffHeapStateSet set = createStateSet("vm.storage.partitions=1\n" +
+                                         "vm.storage.max_memory=12K\n" +
+                                         "vm.storage.overflow=bloom\n" +
+                                         "vm.storage.bloom_size=64K\n" +
+                                         "vm.storage.fp_rate=0.000001\n");
+    int nStored = (int)(OffHeapStateSet.INIT_CAPACITY * OffHeapStateSet.MAX_LOAD);
+    int n = 2000;
+
+    for (int i=0; i<n; i++){
+      assert set.add(state(i)) == i;
+    }
+    assert set.size() == n;
+    assert set.getNumberOfBloomStates() == n - nStored;
+    assert set.getNumberOfBloomMatches() == 0;
+    assert set.getBloomFalsePositiveRate() > 0;
+    assert set.getBloomFalsePositiveRate() < 0.001;
+
+    // the stored states keep their ids, the bloom states are only known to be visited
+    for (int i=0; i<n; i++){
+      int id = set.add(state(i));
+      if (i < nStored){
+        assert id == i;
+      } else {
+        assert id == OffHeapStateSet.MATCHED_UNKNOWN_ID;
+      }
+    }
+    assert set.size() == n;
+    assert set.getNumberOfBloomMatches() == n - nStored;
+
+    // new states still get new ids
+    assert set.add(state(n)) == n;
+    assert set.size() == n + 1;
+  }
+}
@@ -0,0 +1,127 @@
+//
+// Copyright (C) 2010 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.jvm.serialize;
+
+import gov.nasa.jpf.ListenerAdapter;
+import gov.nasa.jpf.jvm.Verify;
+import gov.nasa.jpf.search.Search;
+import gov.nasa.jpf.util.test.TestJPF;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+/**
+ * regression test for IncrementalSerializer
+ */
+public class IncrementalSerializerTest extends TestJPF {
+
+  static final String SERIALIZER_OPT = "+vm.serializer.class=.jvm.serialize.IncrementalSerializer";
+
+  static int nChecked;    // just outside JPF
+  static int nMismatches;
+
+  /**
+   * recomputes the fingerprint of every state we get to, and compares it with
+   * the one of the state when it was stored
+   */
+  public static class FingerprintChecker extends ListenerAdapter {
+    HashMap<Integer,int[]> fingerprints = new HashMap<Integer,int[]>();
+
+    void check (Search search){
+      // bypass the cached storing data of the serializer, but not the cached hashes
+      IncrementalSerializer serializer = (IncrementalSerializer) search.getVM().getSerializer();
+      int[] data = serializer.computeStoringData();
+      int id = search.getStateId();
+
+      int[] stored = fingerprints.get(id);
+      if (stored == null){
+        fingerprints.put(id, data);
+      } else {
+        nChecked++;
+        if (!Arrays.equals(stored, data)){
+          System.out.println("fingerprint mismatch for state " + id);
+          nMismatches++;
+        }
+      }
+    }
+
+    public void stateAdvanced (Search search){
+      check(search);
+    }
+
+    public void stateBacktracked (Search search){
+      check(search);
+    }
+
+    public void stateRestored (Search search){
+      check(search);
+    }
+  }
+
+  static class Data {
+    int x;
+    int[] a = new int[3];
+  }
+
+  static int s;
+
+  void run (){
+    Data d = new Data();
+    int i = Verify.getInt(0, 2);
+
+    d.x = i;
+    d.a[i] = 1;
+    s = i;
+    Verify.breakTransition(); // different states
+    Verify.incrementCounter(0);
+
+    d.x = 0;
+    d.a[i] = 0;
+    s = 0;
+    i = 0;
+    Verify.breakTransition(); // the same state
+    Verify.incrementCounter(1);
+  }
+
+  @Test
+  public void testMatchAndRestore (){
+    String listener = null;
+    if (!isJPFRun()){
+      Verify.resetCounter(0);
+      Verify.resetCounter(1);
+      nChecked = 0;
+      nMismatches = 0;
+      listener = "+listener=" + FingerprintChecker.class.getName();
+    }
+
+    if (verifyNoPropertyViolation(SERIALIZER_OPT, listener)){
+      run();
+    }
+
+    if (!isJPFRun()){
+      assert Verify.getCounter(0) == 3;  // different values are not hashed the same
+      assert Verify.getCounter(1) == 1;  // equal states are
+      assert nChecked > 0;
+      assert nMismatches == 0;
+    }
+  }
+}
@@ -0,0 +1,165 @@
+//
+// Copyright (C) 2010 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.search.heuristic;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.jvm.JVM;
+import gov.nasa.jpf.jvm.RestorableVMState;
+import gov.nasa.jpf.util.test.TestJPF;
+
+import java.io.StringReader;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * unit tests for gov.nasa.jpf.search.heuristic.PriorityBucketQueue
+ */
+public class PriorityBucketQueueTest extends TestJPF {
+
+  public static void main (String[] args){
+    runTestsOfThisClass(args);
+  }
+
+  // just enough of a VM to create PrioritizedStates
+  static class MockVM extends JVM {
+    int stateId;
+
+    public int getStateId() {
+      return stateId;
+    }
+    public RestorableVMState getRestorableState () {
+      return null;
+    }
+  }
+
+  MockVM vm = new MockVM();
+
+  // new states get increasing ids, like in a real search
+  PrioritizedState newState (int priority){
+    vm.stateId++;
+    return new PrioritizedState(vm, priority);
+  }
+
+  static Config createConfig (String props){
+    return new Config(new StringReader(props));
+  }
+
+  @Test
+  public void testFifoWithinPriority () {
+    PriorityBucketQueue q = new PriorityBucketQueue(createConfig("search.heuristic.queue_limit=-1\n"));
+    int[] priorities = { 3, 1, 3, 2, 1, 3, 0, 2 };
+    PrioritizedState[] states = new PrioritizedState[priorities.length];
+
+    for (int i=0; i<priorities.length; i++){
+      states[i] = newState(priorities[i]);
+      assert q.add(states[i]);
+    }
+    assert q.size() == priorities.length;
+
+    // by priority, and in the order of their adds within the same priority
+    int[] expected = { 6, 1, 4, 3, 7, 0, 2, 5 };
+    for (int i : expected){
+      PrioritizedState s = q.first();
+      assert s == states[i];
+      assert q.remove(s);
+    }
+    assert q.size() == 0;
+    assert q.first() == null;
+  }
+
+  @Test
+  public void testQueueLimit () {
+    PriorityBucketQueue q = new PriorityBucketQueue(createConfig("search.heuristic.queue_limit=3\n"));
+
+    PrioritizedState s1 = newState(5);
+    PrioritizedState s2 = newState(5);
+    PrioritizedState s3 = newState(5);
+    assert q.add(s1);
+    assert q.add(s2);
+    assert q.add(s3);
+    assert q.isQueueLimitReached();
+
+    // no room for lower (or equal) priorities
+    assert !q.add(newState(5));
+    assert !q.add(newState(7));
+    assert q.size() == 3;
+
+    // higher priorities replace the last added state with the lowest priority
+    PrioritizedState s4 = newState(1);
+    assert q.add(s4);
+    assert q.size() == 3;
+    assert !q.remove(s3);
+
+    assert q.first() == s4;
+    assert q.remove(s4);
+    assert !q.isQueueLimitReached();
+    assert q.first() == s1;
+    assert q.remove(s1);
+    assert q.first() == s2;
+  }
+
+  @Test
+  public void testMemoryLimit () {
+    // we never have that much free memory, so the first check limits the queue
+    long minFree = Runtime.getRuntime().maxMemory() * 2;
+    PriorityBucketQueue q = new PriorityBucketQueue(createConfig("search.heuristic.queue_limit=-1\n" +
+                                                                  "search.heuristic.queue_min_free=" + minFree + '\n'));
+    int n = PriorityBucketQueue.CHECK_INTERVAL - 1;
+    for (int i=0; i<n; i++){
+      assert q.add(newState(5));
+    }
+    assert !q.isQueueLimitReached();
+
+    // the next add checks the free memory
+    assert !q.add(newState(5));
+    assert q.isQueueLimitReached();
+    assert q.size() == n;
+
+    // higher priorities still get in, dropping the last added state
+    PrioritizedState s = newState(0);
+    assert q.add(s);
+    assert q.size() == n;
+    assert q.first() == s;
+  }
+
+  @Test
+  public void testCompareWithStaticPriorityQueue () {
+    Config config = createConfig("search.heuristic.queue_limit=50\n");
+    PriorityBucketQueue q = new PriorityBucketQueue(config);
+    StaticPriorityQueue sq = new StaticPriorityQueue(config);
+    Random random = new Random(42);
+
+    // with increasing state ids, both queues process and drop the same states
+    for (int i=0; i<10000; i++){
+      if (random.nextInt(3) > 0){
+        PrioritizedState s = newState(random.nextInt(8));
+        assert q.add(s) == sq.add(s);
+      } else if (sq.size() > 0){
+        PrioritizedState s = sq.first();
+        assert q.first() == s;
+        assert q.remove(s);
+        assert sq.remove(s);
+      }
+      assert q.size() == sq.size();
+      assert q.isQueueLimitReached() == sq.isQueueLimitReached();
+    }
+  }
+}
@@ -20,6 +20,7 @@
 package gov.nasa.jpf.util;
 
 import static gov.nasa.jpf.util.SparseClusterArray.S1;
+import gov.nasa.jpf.util.SparseClusterArray.DeltaSnapshot;
 import gov.nasa.jpf.util.SparseClusterArray.Entry;
 import gov.nasa.jpf.util.SparseClusterArray.Snapshot;
 import gov.nasa.jpf.util.test.TestJPF;
@@ -245,6 +246,68 @@ public class SparseClusterArrayTest extends TestJPF {
     assert arr.get(7162827) == 7162827;
   }
 
+  static Transformer<Integer,Integer> sameInt = new Transformer<Integer,Integer>() {
+    public Integer transform (Integer n) {
+      return n;
+    }
+  };
+
+  static void assertContents (SparseClusterArray<Integer> arr, int... indices){
+    assert arr.cardinality() == indices.length;
+    for (int i : indices){
+      assert arr.get(i) == i;
+    }
+  }
+
+  @Test
+  public void testDeltaSnapshot() {
+    SparseClusterArray<Integer> arr = new SparseClusterArray<Integer>();
+    int[] before = { 0, 42, 256, 300, 512, 520, 4096 };
+    for (int i : before){
+      arr.set(i, new Integer(i));
+    }
+
+    DeltaSnapshot<Integer,Integer> snap1 = arr.getDeltaSnapshot(sameInt, null);
+    assert snap1.numberOfChunks() == 4;
+    assert snap1.size() == before.length;
+    assert snap1.numberOfSharedChunks(null) == 0;
+
+    // nothing changed - all chunks are shared
+    DeltaSnapshot<Integer,Integer> snap = arr.getDeltaSnapshot(sameInt, snap1);
+    assert snap.numberOfSharedChunks(snap1) == 4;
+
+    arr.set(7, new Integer(7));       // chunk 0: element added
+    arr.set(300, null);               // chunk 256: element removed
+    arr.set(520, null);               // chunk 512: same count, but another element
+    arr.set(530, new Integer(530));
+                                      // chunk 4096: unchanged
+    int[] after = { 0, 7, 42, 256, 512, 530, 4096 };
+
+    DeltaSnapshot<Integer,Integer> snap2 = arr.getDeltaSnapshot(sameInt, snap1);
+    assert snap2.numberOfChunks() == 4;
+    assert snap2.size() == after.length;
+    assert snap2.numberOfSharedChunks(snap1) == 1;
+    assert snap2.values[3] == snap1.values[3];
+    for (int k=0; k<3; k++){
+      assert snap2.values[k] != snap1.values[k];
+    }
+
+    // the values of the previous snapshot are not modified
+    arr.restoreDeltaSnapshot(snap1, sameInt);
+    assertContents(arr, before);
+
+    arr.restoreDeltaSnapshot(snap2, sameInt);
+    assertContents(arr, after);
+
+    // a chunk that became empty is dropped
+    arr.set(4096, null);
+    DeltaSnapshot<Integer,Integer> snap3 = arr.getDeltaSnapshot(sameInt, snap2);
+    assert snap3.numberOfChunks() == 3;
+    assert snap3.numberOfSharedChunks(snap2) == 3;
+    arr.restoreDeltaSnapshot(snap3, sameInt);
+    assertContents(arr, 0, 7, 42, 256, 512, 530);
+  }
+
   @Test
   public void testChanges() {
     SparseClusterArray<Integer> arr = new SparseClusterArray<Integer>();
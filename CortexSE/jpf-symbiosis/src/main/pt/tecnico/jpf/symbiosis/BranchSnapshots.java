@@ -0,0 +1,144 @@
+package pt.tecnico.jpf.symbiosis;
+
+import gov.nasa.jpf.jvm.RestorableVMState;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Restorable snapshots of the states where a thread has logged its n-th branch while following the BB trace in
+ * flip mode, kept in LRU order up to "symbiosis.snapshots" entries. A later flip of a branch k > n of the same
+ * thread (and trace) restarts the search from the snapshot with the largest n, instead of replaying the whole
+ * guided prefix (see SymbiosisService).
+ *
+ * Besides the VM state, a snapshot keeps a copy of the listener data that is not indexed by JPF state, so that
+ * the listener resumes as it was when the snapshot was taken.
+ * @author nunomachado
+ *
+ */
+public class BranchSnapshots {
+
+	public static class Snapshot {
+		final RestorableVMState vmState;
+		final long key;									//state (see StateTable)
+		final List<StateInfo> infos;					//copies of the state info
+		final HashSet<String> threadsFinished;
+		final HashMap<String,String> writtenValues;
+		final HashMap<String,Integer> lastNumBBs;
+		final HashMap<String,Stack<String>> methodMonitor;
+
+		Snapshot(RestorableVMState vmState, long key, List<StateInfo> infos)
+		{
+			this.vmState = vmState;
+			this.key = key;
+			this.infos = copy(infos);
+			threadsFinished = new HashSet<String>(SymbiosisListener.threadsFinished);
+			writtenValues = new HashMap<String, String>(SymbiosisListener.writtenValues);
+			lastNumBBs = new HashMap<String, Integer>(SymbiosisListener.lastNumBBs);
+			methodMonitor = copyMonitors(SymbiosisListener.methodMonitor);
+		}
+
+		/**
+		 * Puts back the listener data of the snapshot (copied again, as the snapshot may be restored more than once).
+		 * @param listener
+		 */
+		void restore(SymbiosisListener listener)
+		{
+			listener.states.putStateInfos(key, copy(infos));
+			SymbiosisListener.threadsFinished = new HashSet<String>(threadsFinished);
+			SymbiosisListener.writtenValues = new HashMap<String, String>(writtenValues);
+			SymbiosisListener.lastNumBBs = new HashMap<String, Integer>(lastNumBBs);
+			SymbiosisListener.methodMonitor = copyMonitors(methodMonitor);
+		}
+
+		private static List<StateInfo> copy(List<StateInfo> infos)
+		{
+			ArrayList<StateInfo> l = new ArrayList<StateInfo>(infos.size());
+			for(StateInfo s : infos)
+				l.add(new StateInfo(s.jpfid, s));
+			return l;
+		}
+
+		@SuppressWarnings("unchecked")
+		private static HashMap<String,Stack<String>> copyMonitors(HashMap<String,Stack<String>> monitors)
+		{
+			HashMap<String,Stack<String>> m = new HashMap<String, Stack<String>>();
+			for(Map.Entry<String,Stack<String>> e : monitors.entrySet())
+				m.put(e.getKey(), (Stack<String>) e.getValue().clone());
+			return m;
+		}
+	}
+
+	private final LinkedHashMap<String, Snapshot> snapshots;	//map: "tid:branches reached" -> snapshot (in LRU order)
+	private final HashMap<String, Integer> pending;			//map: thread id -> branches reached when the thread matched the BB trace after its last branch (the next stored state is on the guided path)
+
+	public BranchSnapshots(final int capacity)
+	{
+		snapshots = new LinkedHashMap<String, Snapshot>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String, Snapshot> eldest) {
+				return size() > capacity;
+			}
+		};
+		pending = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Marks that the next state stored by a thread can be snapshotted, if there is no snapshot for its branch count yet.
+	 * @param tid
+	 * @param branches
+	 */
+	public void setPending(String tid, int branches)
+	{
+		if(branches > 0 && !snapshots.containsKey(tid+":"+branches))
+			pending.put(tid, branches);
+	}
+
+	/**
+	 * Returns (and clears) the branch count of the pending snapshot of a thread, or -1 if there is none.
+	 * @param tid
+	 * @return
+	 */
+	public int takePending(String tid)
+	{
+		Integer n = pending.remove(tid);
+		return (n == null ? -1 : n);
+	}
+
+	public void clearPending()
+	{
+		pending.clear();
+	}
+
+	public void put(String tid, int branches, Snapshot s)
+	{
+		snapshots.put(tid+":"+branches, s);
+	}
+
+	/**
+	 * Returns the snapshot of a thread with the most branches reached, up to maxBranches, or null if there is none.
+	 * @param tid
+	 * @param maxBranches
+	 * @return
+	 */
+	public Snapshot getLatest(String tid, int maxBranches)
+	{
+		for(int n = maxBranches; n > 0; n--)
+		{
+			Snapshot s = snapshots.get(tid+":"+n);
+			if(s != null)
+				return s;
+		}
+		return null;
+	}
+
+	public int size()
+	{
+		return snapshots.size();
+	}
+}
@@ -0,0 +1,125 @@
+package pt.tecnico.jpf.symbiosis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Production run paths (BB trace) that guide the symbolic execution, kept as one array of basic block ids
+ * per thread slot (see StateTable.slot), so that checking a block against the trace is a primitive comparison.
+ * @author nunomachado
+ *
+ */
+public class GuidanceTrace {
+
+	private long[][] paths;		//thread slot -> basic block ids (null if the thread is not in the trace)
+	private int[] sizes;		//thread slot -> number of basic block ids in the path
+	private int[] prefix;		//thread slot -> number of basic blocks executed before the first block of the thread's path (partial traces only); these blocks are not checked against the trace
+	private final ArrayList<String> threads;	//thread ids in the trace, in the order in which they were loaded
+
+	public GuidanceTrace()
+	{
+		paths = new long[8][];
+		sizes = new int[8];
+		prefix = new int[8];
+		threads = new ArrayList<String>();
+	}
+
+	private void ensureSlot(int slot)
+	{
+		if(slot >= paths.length){
+			int n = Math.max(slot + 1, paths.length << 1);
+			paths = Arrays.copyOf(paths, n);
+			sizes = Arrays.copyOf(sizes, n);
+			prefix = Arrays.copyOf(prefix, n);
+		}
+	}
+
+	/**
+	 * Adds a thread to the trace (with an empty path), if it is not there yet.
+	 * @param slot
+	 * @param tid
+	 */
+	public void addThread(int slot, String tid)
+	{
+		ensureSlot(slot);
+		if(paths[slot] == null){
+			paths[slot] = new long[16];
+			threads.add(tid);
+		}
+	}
+
+	/**
+	 * Appends a basic block to the path of a thread.
+	 * @param slot
+	 * @param tid
+	 * @param bbid
+	 */
+	public void add(int slot, String tid, long bbid)
+	{
+		addThread(slot, tid);
+		if(sizes[slot] == paths[slot].length)
+			paths[slot] = Arrays.copyOf(paths[slot], sizes[slot] << 1);
+		paths[slot][sizes[slot]++] = bbid;
+	}
+
+	/**
+	 * Sets the whole path of a thread.
+	 * @param slot
+	 * @param tid
+	 * @param path
+	 */
+	public void setPath(int slot, String tid, long[] path)
+	{
+		addThread(slot, tid);
+		paths[slot] = path;
+		sizes[slot] = path.length;
+	}
+
+	public boolean contains(int slot)
+	{
+		return slot < paths.length && paths[slot] != null;
+	}
+
+	public long[] getPath(int slot)
+	{
+		return (sizes[slot] == paths[slot].length ? paths[slot] : Arrays.copyOf(paths[slot], sizes[slot]));
+	}
+
+	public long get(int slot, int pos)
+	{
+		if(pos >= sizes[slot])
+			throw new ArrayIndexOutOfBoundsException(pos+" >= "+sizes[slot]);
+		return paths[slot][pos];
+	}
+
+	public int size(int slot)
+	{
+		return sizes[slot];
+	}
+
+	public void setPrefix(int slot, int before)
+	{
+		ensureSlot(slot);
+		prefix[slot] = before;
+	}
+
+	public int getPrefix(int slot)
+	{
+		return (slot < prefix.length ? prefix[slot] : 0);
+	}
+
+	/**
+	 * Returns the thread ids in the trace.
+	 * @return
+	 */
+	public List<String> getThreads()
+	{
+		return threads;
+	}
+
+	public int getNumThreads()
+	{
+		return threads.size();
+	}
+}
@@ -16,10 +16,11 @@ public class StateInfo {
 	public String tid;  		//thread id
 	public int jpfid;			//JPF state id
 	public String pathid; 		//path id
-	public String symbTrace;	//symbolic trace
+	public SymbEventChain symbTrace;	//symbolic trace (shared with the parent state, see SymbEventChain)
 	public int bbsReached;		//number of basic blocks reached
 	public int brchsReached;	//number branches reached
-	public HashMap<String,Integer> mapSymVarIds = new HashMap<String, Integer>(); //map: symbvar -> number of times it was accessed by this thread for this path
+	public HashMap<String,Integer> mapSymVarIds = new HashMap<String, Integer>(); //map: symbvar -> number of times it was accessed by this thread for this path (copy-on-write, see putSymbVarId)
+	private boolean mapShared;	//flag indicating whether mapSymVarIds is shared with other states, i.e. it must be copied before being modified
 	public boolean mayRunFree;	//flag indicating whether this state is allowed to go on free mode at some point
 	public boolean hitAssert; //flag indicating if this state already seen the assertion condition (if it has not and belongs to the assertion thread, it is not allowed to store logs)
 	
@@ -27,7 +28,7 @@ public class StateInfo {
 		tid = "";
 		jpfid = 0;
 		pathid = "-1";
-		symbTrace = "";
+		symbTrace = SymbEventChain.EMPTY;
 		bbsReached = 0;
 		brchsReached = 0;
 		mapSymVarIds = new HashMap<String, Integer>();
@@ -35,7 +36,7 @@ public class StateInfo {
 		hitAssert = false;
 	}
 	
-	public StateInfo(String threadid, int stateid, String pathid, String symbtrace, int bbs, int brchs, HashMap<String,Integer> mapSymVarIds, boolean freeMode)
+	public StateInfo(String threadid, int stateid, String pathid, SymbEventChain symbtrace, int bbs, int brchs, HashMap<String,Integer> mapSymVarIds, boolean freeMode)
 	{
 		this.tid = threadid;
 		this.jpfid = stateid;
@@ -54,8 +55,9 @@ public class StateInfo {
 		this.symbTrace = s.symbTrace;
 		this.bbsReached = s.bbsReached;
 		this.brchsReached = s.brchsReached;
-		this.mapSymVarIds = new HashMap<String, Integer>();
-		this.mapSymVarIds.putAll(s.mapSymVarIds);
+		this.mapSymVarIds = s.mapSymVarIds;
+		this.mapShared = true;
+		s.mapShared = true;
 		this.mayRunFree = s.mayRunFree;
 		this.hitAssert = s.hitAssert;
 	}
@@ -93,7 +95,7 @@ public class StateInfo {
 		else
 		{
 			//System.out.println("--> NEW: mapSymVarIds["+symbname+"] = 1");
-			mapSymVarIds.put(symbname, 1); 
+			putSymbVarId(symbname, 1); 
 			symbname = symbname +"-1";
 		}
 		return symbname;
@@ -136,12 +138,24 @@ public class StateInfo {
 		else
 		{
 			//System.out.println("--> NEW: mapSymVarIds["+symbname+"] = 1");
-			mapSymVarIds.put(symbname, 1); 
+			putSymbVarId(symbname, 1); 
 			symbname = symbname +"-1";
 		}
 		return symbname;
 	}
 	
+	/**
+	 * Sets the id of a symbolic var, copying the map first if it is shared with another state.
+	 */
+	private void putSymbVarId(String symbvar, int id)
+	{
+		if(mapShared){
+			mapSymVarIds = new HashMap<String, Integer>(mapSymVarIds);
+			mapShared = false;
+		}
+		mapSymVarIds.put(symbvar, id);
+	}
+	
 	/**
 	 * Increase symbolic variable id. Used to update the id of fresh symbolic vars.
 	 */
@@ -150,7 +164,7 @@ public class StateInfo {
 		symbvar = symbvar.substring(0,symbvar.lastIndexOf('-'));
 		int id = mapSymVarIds.get(symbvar);
 		id++;
-		mapSymVarIds.put(symbvar, id);
+		putSymbVarId(symbvar, id);
 		//System.out.println("--> INCREMENT: mapSymVarIds["+symbvar+"] = "+mapSymVarIds.get(symbvar));
 	}
 	
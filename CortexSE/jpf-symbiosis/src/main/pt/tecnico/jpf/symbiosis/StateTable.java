@@ -0,0 +1,196 @@
+package pt.tecnico.jpf.symbiosis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import pt.tecnico.jpf.symbiosis.util.LongLongMap;
+import pt.tecnico.jpf.symbiosis.util.LongObjectMap;
+
+/**
+ * Per-state bookkeeping of SymbiosisListener. States are identified by (thread slot, JPF state id) packed into
+ * a long, where the thread slot is a small integer assigned to each thread id the first time it is seen, so the
+ * listener callbacks don't have to build "thread id_state id" strings to access the state information.
+ * @author nunomachado
+ *
+ */
+public class StateTable {
+
+	public static final long NO_STATE = Long.MIN_VALUE;	//key of a missing state (e.g. the parent of the first state)
+
+	private final HashMap<String, Integer> slots;		//map: thread id -> thread slot
+	private final ArrayList<String> tids;				//thread slot -> thread id
+
+	private final LongObjectMap<List<StateInfo>> stateInfo;	//map: state -> list of objects containing the state info (there two possible states at most, corresponding to the two branches)
+	private final LongObjectMap<Boolean> okToLog;		//map: state -> boolean indicating whether it is ok to log (i.e. if the state corresponds to a basic block that conforms with the trace)
+	private final LongLongMap parents;					//map: state -> parent state (this allows to know the parent state when storing new states)
+	private final LongObjectMap<Boolean> started;		//set of states in which the thread has already logged its start event
+
+	//per thread slot
+	private long[] prevState;							//previous state of the thread (used to build the parent map)
+	private int[] branchChoice;							//choice taken in the previous branch (-1 -> don't trace branch; 0 -> trace choice 0; 1 -> trace choice 1)
+	private final ArrayList<HashMap<String, List<String>>> pathConds;	//map: path id -> list of path conditions of the thread
+
+	public StateTable()
+	{
+		slots = new HashMap<String, Integer>();
+		tids = new ArrayList<String>();
+		stateInfo = new LongObjectMap<List<StateInfo>>(1024);
+		okToLog = new LongObjectMap<Boolean>(1024);
+		parents = new LongLongMap(1024);
+		started = new LongObjectMap<Boolean>();
+		prevState = new long[8];
+		branchChoice = new int[8];
+		pathConds = new ArrayList<HashMap<String, List<String>>>();
+	}
+
+	/**
+	 * Returns the slot of a thread, assigning a new one if the thread was not seen before.
+	 * @param tid
+	 * @return
+	 */
+	public int slot(String tid)
+	{
+		Integer slot = slots.get(tid);
+		if(slot != null)
+			return slot;
+
+		int s = tids.size();
+		slots.put(tid, s);
+		tids.add(tid);
+		pathConds.add(new HashMap<String, List<String>>());
+		if(s == prevState.length){
+			prevState = Arrays.copyOf(prevState, s << 1);
+			branchChoice = Arrays.copyOf(branchChoice, s << 1);
+		}
+		prevState[s] = NO_STATE;
+		branchChoice[s] = -1;
+		return s;
+	}
+
+	public long key(String tid, int stateId)
+	{
+		return ((long) slot(tid) << 32) | (stateId & 0xffffffffL);
+	}
+
+	/**
+	 * Returns the "thread id_state id" representation of a state (used in the debug output), or null for NO_STATE.
+	 * @param key
+	 * @return
+	 */
+	public String keyToString(long key)
+	{
+		if(key == NO_STATE)
+			return null;
+		return tids.get((int) (key >>> 32))+"_"+((int) key);
+	}
+
+	public boolean hasStateInfo(long key)
+	{
+		return stateInfo.containsKey(key);
+	}
+
+	public List<StateInfo> getStateInfos(long key)
+	{
+		return stateInfo.get(key);
+	}
+
+	public void putStateInfos(long key, List<StateInfo> l)
+	{
+		stateInfo.put(key, l);
+	}
+
+	/**
+	 * Returns the info of a state, creating an empty one if the state has none yet.
+	 * @param tid
+	 * @param stateId
+	 * @return
+	 */
+	public StateInfo getOrCreateStateInfo(String tid, int stateId)
+	{
+		long key = key(tid, stateId);
+		List<StateInfo> l = stateInfo.get(key);
+		if(l != null)
+			return l.get(0);
+
+		StateInfo s = new StateInfo();
+		s.tid = tid;
+		s.jpfid = stateId;
+		l = new ArrayList<StateInfo>();
+		l.add(s);
+		stateInfo.put(key, l);
+		return s;
+	}
+
+	/**
+	 * Returns whether it is ok to log in a given state, or null if this was not set yet.
+	 * @param key
+	 * @return
+	 */
+	public Boolean getOkToLog(long key)
+	{
+		return okToLog.get(key);
+	}
+
+	public void setOkToLog(long key, boolean ok)
+	{
+		okToLog.put(key, ok);
+	}
+
+	public long getParent(long key)
+	{
+		return parents.get(key, NO_STATE);
+	}
+
+	public void setParent(long key, long parent)
+	{
+		parents.put(key, parent);
+	}
+
+	public boolean isStarted(long key)
+	{
+		return started.containsKey(key);
+	}
+
+	public void setStarted(long key)
+	{
+		started.put(key, Boolean.TRUE);
+	}
+
+	public long getPrevState(int slot)
+	{
+		return prevState[slot];
+	}
+
+	public void setPrevState(int slot, long key)
+	{
+		prevState[slot] = key;
+	}
+
+	public int getBranchChoice(int slot)
+	{
+		return branchChoice[slot];
+	}
+
+	public void setBranchChoice(int slot, int choice)
+	{
+		branchChoice[slot] = choice;
+	}
+
+	/**
+	 * Returns the path conditions of a thread's path, or null if there are none.
+	 * @param slot
+	 * @param pathid
+	 * @return
+	 */
+	public List<String> getPathConditions(int slot, String pathid)
+	{
+		return pathConds.get(slot).get(pathid);
+	}
+
+	public void putPathConditions(int slot, String pathid, List<String> conds)
+	{
+		pathConds.get(slot).put(pathid, conds);
+	}
+}
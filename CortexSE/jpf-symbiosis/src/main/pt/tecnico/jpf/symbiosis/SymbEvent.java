@@ -0,0 +1,122 @@
+package pt.tecnico.jpf.symbiosis;
+
+import gov.nasa.jpf.jvm.bytecode.Instruction;
+
+import pt.tecnico.jpf.symbiosis.util.Utilities;
+
+/**
+ * Symbolic event logged by SymbiosisListener. Events are kept typed, with their parts interned (e.g. the location
+ * "airline.java@52" of every access of a given instruction is the same string), and are only rendered into the
+ * text of the symbolic traces (toString) when a trace is printed or stored in the legacy format:
+ *   READ, WRITE				- location:R-var / location:W-var\n$value$
+ *   LOCK, UNLOCK, WAIT,
+ *   SIGNAL, SIGNALALL, FORK,
+ *   JOIN					- location:S-type_object-tid (the object of fork and join is the child thread)
+ *   START					- location:S-start-tid
+ *   BRANCH					- branch-tid
+ *   ASSERT_OK, ASSERT_FAIL	- <assertThread_ok> / <assertThread_fail>
+ * @author nunomachado
+ *
+ */
+public final class SymbEvent {
+
+	public enum Kind {
+		READ, WRITE, LOCK, UNLOCK, WAIT, SIGNAL, SIGNALALL, FORK, JOIN, START, BRANCH, ASSERT_OK, ASSERT_FAIL;
+
+		private final String name = name().toLowerCase();	//name of the synchronization type in the text form
+
+		public boolean isSync()
+		{
+			return compareTo(LOCK) >= 0 && compareTo(JOIN) <= 0;
+		}
+	}
+
+	public static final SymbEvent ASSERT_OK_EVENT = new SymbEvent(Kind.ASSERT_OK, null, null, null, null);
+	public static final SymbEvent ASSERT_FAIL_EVENT = new SymbEvent(Kind.ASSERT_FAIL, null, null, null, null);
+
+	public final Kind kind;
+	public final String loc;		//"file@line" (null for branch and assert events)
+	public final String name;		//symbolic variable (read/write) or object (synchronization)
+	public final String tid;		//thread id (null for read/write, as it is part of the variable)
+	public final String value;		//written value (write events only)
+
+	public SymbEvent(Kind kind, String loc, String name, String tid, String value)
+	{
+		this.kind = kind;
+		this.loc = (loc == null ? null : loc.intern());
+		this.name = (name == null ? null : name.intern());
+		this.tid = (tid == null ? null : tid.intern());
+		this.value = value;
+	}
+
+	public static SymbEvent read(String loc, String var)
+	{
+		return new SymbEvent(Kind.READ, loc, var, null, null);
+	}
+
+	public static SymbEvent write(String loc, String var, String value)
+	{
+		return new SymbEvent(Kind.WRITE, loc, var, null, value);
+	}
+
+	public static SymbEvent sync(Kind kind, String loc, String object, String tid)
+	{
+		return new SymbEvent(kind, loc, object, tid, null);
+	}
+
+	public static SymbEvent start(String loc, String tid)
+	{
+		return new SymbEvent(Kind.START, loc, null, tid, null);
+	}
+
+	public static SymbEvent branch(String tid)
+	{
+		return new SymbEvent(Kind.BRANCH, null, null, tid, null);
+	}
+
+	/**
+	 * Location of an instruction, in the form used by the events ("file@line"). The location is computed once
+	 * per instruction and kept as an attribute of the instruction.
+	 */
+	private static class LocationAttr {
+		final String loc;
+
+		LocationAttr(String loc)
+		{
+			this.loc = loc;
+		}
+	}
+
+	public static String location(Instruction ins)
+	{
+		LocationAttr attr = ins.getAttr(LocationAttr.class);
+		if(attr == null){
+			attr = new LocationAttr(Utilities.getFileShortName(ins.getFileLocation()).replace(':', '@').intern());
+			ins.addAttr(attr);
+		}
+		return attr.loc;
+	}
+
+	/**
+	 * Returns the event in the text form of the symbolic traces.
+	 */
+	public String toString()
+	{
+		switch(kind){
+		case READ:
+			return loc+":"+name;
+		case WRITE:
+			return (value == null ? loc+":"+name : loc+":"+name+"\n$"+value+"$");
+		case START:
+			return loc+":S-start-"+tid;
+		case BRANCH:
+			return "branch-"+tid;
+		case ASSERT_OK:
+			return "<assertThread_ok>";
+		case ASSERT_FAIL:
+			return "<assertThread_fail>";
+		default:
+			return loc+":S-"+kind.name+"_"+name+"-"+tid;
+		}
+	}
+}
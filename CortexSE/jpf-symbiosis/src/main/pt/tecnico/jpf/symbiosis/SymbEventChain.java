@@ -0,0 +1,97 @@
+package pt.tecnico.jpf.symbiosis;
+
+/**
+ * Symbolic trace of a state, kept as an immutable chain of events linked to the trace of the parent state.
+ * Appending an event creates a new node that points to the previous one, so states forked from the same parent
+ * share their common prefix and copying a trace is O(1). The text of the trace (one event per line) is only
+ * built when the trace is stored or checked.
+ * Events are typed (see SymbEvent) and share their interned parts, as the same events are logged over and over by
+ * the different states.
+ * @author nunomachado
+ *
+ */
+public final class SymbEventChain {
+
+	public static final SymbEventChain EMPTY = new SymbEventChain(null, null);
+
+	private final SymbEvent event;
+	private final SymbEventChain parent;
+	private final int size; //number of events in the chain
+
+	private SymbEventChain(SymbEvent event, SymbEventChain parent)
+	{
+		this.event = event;
+		this.parent = parent;
+		this.size = (parent == null ? 0 : parent.size + 1);
+	}
+
+	/**
+	 * Returns the trace with a given event appended to this one.
+	 * @param event
+	 * @return
+	 */
+	public SymbEventChain append(SymbEvent event)
+	{
+		return new SymbEventChain(event, this);
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the events of the trace, from the first to the last.
+	 * @return
+	 */
+	public SymbEvent[] getEvents()
+	{
+		SymbEvent[] events = new SymbEvent[size];
+		SymbEventChain node = this;
+		for(int i = size-1; i >= 0; i--){
+			events[i] = node.event;
+			node = node.parent;
+		}
+		return events;
+	}
+
+	/**
+	 * Returns the trace obtained by replacing every event of kind target with replacement (e.g. to turn an
+	 * "<assertThread_ok>" into "<assertThread_fail>"). The trace is rebuilt from the first changed event onwards.
+	 * @param target
+	 * @param replacement
+	 * @return
+	 */
+	public SymbEventChain replace(SymbEvent.Kind target, SymbEvent replacement)
+	{
+		SymbEvent[] events = getEvents();
+		int first = 0;
+		while(first < events.length && events[first].kind != target)
+			first++;
+		if(first == events.length)
+			return this;
+
+		SymbEventChain node = this;
+		for(int i = events.length; i > first; i--)
+			node = node.parent;
+		for(int i = first; i < events.length; i++)
+			node = node.append(events[i].kind == target ? replacement : events[i]);
+		return node;
+	}
+
+	/**
+	 * Returns the text of the trace, i.e. each event followed by a new line.
+	 */
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		for(SymbEvent e : getEvents())
+			sb.append(e).append('\n');
+		return sb.toString();
+	}
+}
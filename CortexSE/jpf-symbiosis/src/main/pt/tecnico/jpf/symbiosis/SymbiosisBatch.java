@@ -0,0 +1,276 @@
+package pt.tecnico.jpf.symbiosis;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.JPFShell;
+import gov.nasa.jpf.symbc.numeric.MinMax;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import pt.tecnico.jpf.symbiosis.util.SymbolizedPathIndex;
+import pt.tecnico.jpf.symbiosis.util.Utilities;
+
+/**
+ * JPF shell that generates the symbolic traces of all the production runs in a folder within a single JVM,
+ * instead of starting a new JVM per BB trace.
+ *
+ * Every trace is run by a fresh JPF object created from the same configuration, with "symbiosis.bbtrace" pointing
+ * to the trace; SymbiosisListener re-initializes its data structures when it is created and, in batch mode, terminates
+ * the search (instead of exiting) once all threads have consumed their logs.
+ *
+ * With "symbiosis.batch.workers" = N > 1, the traces are split among N worker JVMs (worker i takes the i-th, (i+N)-th, ...
+ * traces), each running this same shell with "symbiosis.batch.worker" = i. The workers share a dedup index (a folder
+ * with one marker file per stored symbolic trace, see Utilities.storeSymbLog), so that two traces with the same
+ * execution id never write the same trace file.
+ *
+ * Traces whose thread paths were all symbolically executed before (by this or a previous batch) are skipped, as they would
+ * only produce redundant symbolic traces. The symbolized (thread, path) pairs are kept in [trace folder]/.symbolized
+ * (see SymbolizedPathIndex); this is disabled with "symbiosis.batch.dedup=false" and when flipping branches.
+ *
+ * Usage: RunJPF.jar +shell=pt.tecnico.jpf.symbiosis.SymbiosisBatch +symbiosis.batch.folder=[PRuns folder] [+symbiosis.batch.workers=N] [file.jpf]
+ * (only the traces whose name ends with "symbiosis.batch.suffix", ".ok" by default, are processed)
+ * @author nunomachado
+ *
+ */
+public class SymbiosisBatch implements JPFShell {
+
+	private final Config config;
+
+	public SymbiosisBatch(Config conf)
+	{
+		config = conf;
+	}
+
+	public void start(String[] args)
+	{
+		String folder = config.getString("symbiosis.batch.folder");
+		final String suffix = config.getString("symbiosis.batch.suffix", ".ok");
+		if(folder == null)
+		{
+			System.out.println("[SymbiosisBatch] symbiosis.batch.folder is not set");
+			return;
+		}
+
+		File[] traces = new File(folder).listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(suffix);
+			}
+		});
+		if(traces == null || traces.length == 0)
+		{
+			System.out.println("[SymbiosisBatch] No "+suffix+" traces in "+folder);
+			return;
+		}
+		Arrays.sort(traces);
+
+		int workers = config.getInt("symbiosis.batch.workers", 1);
+		int worker = config.getInt("symbiosis.batch.worker", -1);
+		if(workers > 1 && worker < 0)
+		{
+			runWorkers(Math.min(workers, traces.length));
+			return;
+		}
+
+		String index = config.getString("symbiosis.batch.index");
+		if(index != null)
+			Utilities.sharedIndex = new File(index);
+
+		SymbolizedPathIndex pathIndex = null;
+		if(config.getBoolean("symbiosis.batch.dedup", true) && config.getString("cortex.flipfile") == null)
+		{
+			File tracefolder = new File(config.getString("symbiosis.tracefolder"));
+			tracefolder.mkdirs();
+			pathIndex = new SymbolizedPathIndex(new File(tracefolder, ".symbolized").getPath());
+		}
+
+		SymbiosisListener.batchMode = true;
+		long startTime = System.nanoTime();
+		int processed = 0;
+		int failed = 0;
+		int redundant = 0;
+		for(int i = 0; i < traces.length; i++)
+		{
+			if(worker >= 0 && i % workers != worker)
+				continue;
+			File trace = traces[i];
+			processed++;
+			System.out.println("\n=== SYMBOLIC EXECUTION - "+trace.getName());
+
+			LinkedHashMap<String, String> fps = null;
+			if(pathIndex != null)
+			{
+				try{
+					fps = SymbolizedPathIndex.fingerprint(trace.getPath());
+					if(fps != null && pathIndex.containsAll(fps)){
+						System.out.println("[SymbiosisBatch] All thread paths were already symbolized. Skip trace.");
+						redundant++;
+						continue;
+					}
+				}
+				catch(IOException e){
+					e.printStackTrace();
+					fps = null;
+				}
+			}
+
+			config.setProperty("symbiosis.bbtrace", trace.getAbsolutePath());
+			reset();
+			try{
+				JPF jpf = new JPF(config);
+				jpf.run();
+				//only the paths whose symbolic trace was actually stored count as symbolized
+				if(fps != null && !jpf.foundErrors())
+					pathIndex.addAll(storedPaths(fps));
+			}
+			catch(Exception e){
+				//an exception in one trace should not prevent the remaining ones from being processed
+				System.out.println("[SymbiosisBatch] Symbolic execution of "+trace.getName()+" failed: "+e.getMessage());
+				e.printStackTrace();
+				failed++;
+			}
+		}
+
+		double time = (((double)(System.nanoTime() - startTime)/1000000000));
+		System.out.println("\n[SymbiosisBatch] Processed "+processed+" traces ("+failed+" failed, "+redundant+" skipped as redundant) in "+time+"s");
+	}
+
+	/**
+	 * Runs the batch with a given number of worker JVMs and waits for them to finish.
+	 * @param workers
+	 */
+	private void runWorkers(int workers)
+	{
+		System.out.println("[SymbiosisBatch] Generating symbolic traces with "+workers+" workers");
+		File index = null;
+		try{
+			index = File.createTempFile("symbiosis", ".index");
+			index.delete();
+			index.mkdir();
+		}
+		catch(IOException e){
+			e.printStackTrace();
+			return;
+		}
+
+		long startTime = System.nanoTime();
+		Process[] procs = new Process[workers];
+		for(int w = 0; w < workers; w++)
+			procs[w] = startWorker(w, workers, index);
+
+		for(int w = 0; w < workers; w++)
+		{
+			try{
+				if(procs[w] == null || procs[w].waitFor() != 0)
+					System.out.println("[SymbiosisBatch] Worker "+w+" failed");
+			}
+			catch(InterruptedException e){
+				e.printStackTrace();
+			}
+		}
+
+		File[] markers = index.listFiles();
+		if(markers != null){
+			for(File f : markers)
+				f.delete();
+		}
+		index.delete();
+
+		double time = (((double)(System.nanoTime() - startTime)/1000000000));
+		System.out.println("\n[SymbiosisBatch] All workers finished in "+time+"s");
+	}
+
+	/**
+	 * Launches a worker JVM, forwarding its output to ours. The worker gets the application property file
+	 * and all the symbiosis/cortex properties of this configuration (which include the command line ones).
+	 * @param worker
+	 * @param workers
+	 * @param index folder of the shared dedup index
+	 * @return
+	 */
+	private Process startWorker(int worker, int workers, File index)
+	{
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+		cmd.add("-Xmx"+(Runtime.getRuntime().maxMemory() >> 20)+"m");
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add("gov.nasa.jpf.tool.RunJPF");
+		cmd.add("+shell="+SymbiosisBatch.class.getName());
+		for(Entry<Object, Object> e : config.entrySet())
+		{
+			String key = e.getKey().toString();
+			if((key.startsWith("symbiosis.") || key.startsWith("cortex.")) && !key.startsWith("symbiosis.batch."))
+				cmd.add("+"+key+"="+e.getValue());
+		}
+		cmd.add("+symbiosis.batch.folder="+config.getString("symbiosis.batch.folder"));
+		cmd.add("+symbiosis.batch.suffix="+config.getString("symbiosis.batch.suffix", ".ok"));
+		cmd.add("+symbiosis.batch.workers="+workers);
+		cmd.add("+symbiosis.batch.worker="+worker);
+		cmd.add("+symbiosis.batch.index="+index.getAbsolutePath());
+		cmd.add(config.getString("jpf.app"));
+
+		try{
+			ProcessBuilder pb = new ProcessBuilder(cmd);
+			pb.redirectErrorStream(true);
+			final Process p = pb.start();
+			final String prefix = "[worker "+worker+"] ";
+			Thread pump = new Thread(){
+				public void run(){
+					try{
+						BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()));
+						String line;
+						while((line = br.readLine()) != null)
+							System.out.println(prefix+line);
+					}
+					catch(IOException e){
+						e.printStackTrace();
+					}
+				}
+			};
+			pump.setDaemon(true);
+			pump.start();
+			return p;
+		}
+		catch(IOException e){
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the (thread, path) pairs of the last run whose threads had their symbolic trace stored.
+	 * @param fps map: thread id -> fingerprint
+	 * @return
+	 */
+	private static LinkedHashMap<String, String> storedPaths(LinkedHashMap<String, String> fps)
+	{
+		LinkedHashMap<String, String> stored = new LinkedHashMap<String, String>();
+		for(Entry<String, String> e : fps.entrySet())
+		{
+			if(Utilities.storedThreads.contains(e.getKey()))
+				stored.put(e.getKey(), e.getValue());
+		}
+		return stored;
+	}
+
+	/**
+	 * Clears the static state that is not re-initialized by SymbiosisListener, so that every trace
+	 * is symbolically executed as if it were run by its own JVM.
+	 */
+	static void reset()
+	{
+		Utilities.storedLogs.clear();
+		Utilities.storedFiles.clear();
+		Utilities.storedThreads.clear();
+		MinMax.reset();
+	}
+}
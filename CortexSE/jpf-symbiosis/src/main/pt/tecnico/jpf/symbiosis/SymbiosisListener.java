@@ -8,6 +8,7 @@ import gov.nasa.jpf.jvm.ElementInfo;
 import gov.nasa.jpf.jvm.FieldInfo;
 import gov.nasa.jpf.jvm.JVM;
 import gov.nasa.jpf.jvm.MethodInfo;
+import gov.nasa.jpf.jvm.RestorableVMState;
 import gov.nasa.jpf.jvm.StackFrame;
 import gov.nasa.jpf.jvm.SystemState;
 import gov.nasa.jpf.jvm.ThreadChoiceGenerator;
@@ -53,6 +54,9 @@ import java.util.Vector;
 
 import com.sun.xml.internal.bind.v2.model.core.MaybeElement;
 
+import pt.tecnico.jpf.symbiosis.util.BinaryTraceReader;
+import pt.tecnico.jpf.symbiosis.util.LongObjectMap;
+import pt.tecnico.jpf.symbiosis.util.PathProfileDecoder;
 import pt.tecnico.jpf.symbiosis.util.Type;
 import pt.tecnico.jpf.symbiosis.util.Utilities;
 
@@ -60,28 +64,29 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 
 	public static Config config; //configuration parameters
 	public static boolean DEBUG = true; 
-	public static HashMap<String,Vector<String>> bbtrace; 	//"symbiosis.bbtrace" - path to the log containing each thread's execution path, in terms of basic block ids 
+	public static boolean batchMode = false;				//set by SymbiosisBatch/SymbiosisService: the search is terminated (instead of exiting the JVM) when all threads have consumed their logs
+	private static GuidanceTrace cachedTrace = null;		//last BB trace loaded in batch mode, reused when the next JPF run has the same trace (e.g. the flip requests of SymbiosisService)
+	private static String cachedTraceKey = null;			//"file:last modified:path profile" of cachedTrace
+	private static boolean cachedPartial = false;			//partialTrace flag of cachedTrace
+	private static String cachedAssertThread = null;		//assertThread of cachedTrace
+	public GuidanceTrace bbtrace; 						//"symbiosis.bbtrace" - each thread's execution path recorded at runtime, in terms of basic block ids (indexed by thread slot, see StateTable)
+	public static boolean partialTrace;						//flag indicating whether the BB trace may have incomplete thread paths (sampled, budgeted or ring-buffer recording)
+	public static LongObjectMap<Boolean> skippedBBs;		//"symbiosis.skippedbbs" - ids of the basic blocks without probe in the runtime version (sparse probes mode), which are not in the BB trace
 	public static HashSet<String> sharedAccesses;			//"symbiosis.sharedAccesses" - set of strings indicating the shared accesses identified by the static analysis
 	public static String symbTraceFolder;					//"symbiosis.tracefolder" - path to the output folder where we will store the symbolic event traces
 	public static HashSet<String> threadsFinished;			//set used to mark threads as finished, i.e. threads which have already printed their Path Conditions to the file
-	public static HashSet<String> threadsStarted;			//set used to count threads that already started, i.e. threads which have already printed their start event into the file	
 	public static HashSet<String> daemonThreads;			//set that stores the deamon threads that are still alive; this is important to prevent all user threads from finishing before the deamon threads have completed their execution paths 
 	public boolean hasForked = false;						//bool indicating whether a thread has forked a children or not (used to ensure that all threads are executed right after being forked)
-	public static HashMap<String, Integer> canLogBranch; 	//map: thread id -> int flag indicating the choice taken in the previous branch (-1 -> don't trace branch; 0 -> trace choice 0; 1 -> trace choice 1) 
 	public static boolean failedExec;						//flag indicating whether the BB trace file is from a successful or failing execution
 	
 	//data structures for collecting information to generate per-thread symbolic traces
-	public HashMap<String,List<String>> pathPerThread; 		//map: "thread id_path id" -> list of path conditions of that thread (JPF stores all threads' path conditions into one single string)
 	public static String executionId; 							//indicates the unique id of this execution (used to distinguish symbolic traces from different executions) 
 	public static String assertThread;						//indicates what thread contains the assertion condition
 	
 	//data structures to handle consistent state identification
-	public HashMap<String, String> stateTree;				//map: "thread id-state id" -> parent "thread id-state id" (this allows to know the parent state when storing new states)
-	public HashMap<String, String> prevState;				//map: thread id -> previous "thread id-state id" (used to build stateTree) 
+	public StateTable states;								//per-state info (state info, parent states, ok to log, start events), and per-thread previous state, branch choice and path conditions
 	public static HashMap<String,Integer> lastNumBBs; 		//map: symb var name -> number of BBs (consumed from the trace) when the symbolic variable was created for the first time 
-	public static HashMap<String,Boolean> stateOkToLog;	//map: state id -> boolean indicating whether it is ok to log (i.e. if the state corresponds to a basic block that conforms with the trace)
 	public static HashMap<String,String> writtenValues;		//map: write operation -> written value -> used to resolve write operations whose values are references to other writes
-	public static HashMap<String, List<StateInfo>> mapStateInfo;	//map: "thread id_state id" -> list if object containing the state info (there two possible states at most, corresponding to the two branches)
 	
 	//data structures to handle object monitors
 	public static HashMap<String, Stack<String>> methodMonitor; //map: thread id -> stack with the last monitor acquired (used to identify the monitor of a given synchronized method, when leaving that method)
@@ -91,6 +96,8 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 	public SystemState pointerToSS = null;
 	public JVM pointerToVM = null;
 	public static HashMap<String, Integer> flipBranchMap;	//map: thread id -> branch counter (when the counter is 0, then we stop guiding the symbolic execution for that thread)
+	public BranchSnapshots snapshots;						//"symbiosis.snapshots" - restorable states at the branches logged while following the BB trace in flip mode (null if disabled)
+	private long resumedKey = StateTable.NO_STATE;			//state from which the search was resumed (see resumeFlip), whose state info must not be copied from its parent
 	
 	//measure elapsed time
 	long startTime, endTime;
@@ -104,22 +111,21 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 		pointerToSS = jpf.getVM().getSystemState();
 		pointerToVM = jpf.getVM();
 		//initialize data structures
-		bbtrace = new HashMap<String, Vector<String>>();
+		states = new StateTable();
+		bbtrace = new GuidanceTrace();
+		partialTrace = false;
+		skippedBBs = new LongObjectMap<Boolean>();
 		sharedAccesses = new HashSet<String>();
 		threadsFinished = new HashSet<String>();
-		threadsStarted = new HashSet<String>();
 		lastNumBBs = new HashMap<String, Integer>();
 		methodMonitor = new HashMap<String, Stack<String>>();
-		stateOkToLog = new HashMap<String, Boolean>();
 		writtenValues = new HashMap<String, String>();
 		daemonThreads = new HashSet<String>();
-		canLogBranch = new HashMap<String, Integer>();
 		//executionId = System.currentTimeMillis();
 		flipBranchMap = new HashMap<String, Integer>();
-		prevState = new HashMap<String, String>();
-		stateTree = new HashMap<String, String>();
-		pathPerThread = new HashMap<String, List<String>>();
-		mapStateInfo = new HashMap<String, List<StateInfo>>();
+		assertThread = null;
+		int nsnapshots = config.getInt("symbiosis.snapshots", 0);
+		snapshots = (nsnapshots > 0 ? new BranchSnapshots(nsnapshots) : null);
 		
 		//create output folder if it doesn't exist
 		symbTraceFolder = config.getString("symbiosis.tracefolder");
@@ -129,46 +135,138 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 
 		//load basic block trace and shared access locations
 		loadBBTrace();
+		loadSkippedBBs();
 		loadSharedAccesses();
 		
 		//load flip branch file (if exists one)
 		loadFlipBranchFile();
+
+		//append the symbolic traces to a single store, instead of writing one file per thread path
+		if(config.getBoolean("symbiosis.tracestore", false))
+			Utilities.openTraceStore(symbTraceFolder);
+		else
+			Utilities.traceStore = null;
 	}
 
 
 	/**
-	 * Loads the file containing the branch that should be flipped w.r.t to the original path profile recorded at runtime
+	 * Loads the file containing the branch that should be flipped w.r.t to the original path profile recorded at runtime.
+	 * The branch can also be given directly by "cortex.flip" = "tid branch" (used by SymbiosisService), which overrides the file.
 	 */
 	private void loadFlipBranchFile() {
+		String flip = config.getString("cortex.flip");
 		String flipfile = config.getString("cortex.flipfile");
 		
-		if(flipfile!=null){
+		if(flip!=null){
+			addFlipBranch(flip.trim());
+		}
+		else if(flipfile!=null){
 			System.out.println("[SymbiosisListener] Loading branch to flip from "+flipfile);
 			
 			try{
 				BufferedReader br = new BufferedReader(new FileReader(flipfile));
 				String line;
 				while ((line = br.readLine()) != null) {
-					String tid = line.substring(0,line.indexOf(' ')); 
-					//we subtract 1 because we want to flip the n-th branch, meaning we allow n-1 branches to proceed according to the BB trace 
-					Integer branch = Integer.valueOf(line.substring(line.indexOf(' ')+1)) - 1;
-					flipBranchMap.put(tid, branch); 
-					System.out.println("[SymbiosisListener] Flip branch #"+(branch)+" of thread "+tid+"\n");	   
+					addFlipBranch(line);
 				}
-				//if we are running with branches flipped, store traces into a particular folder
-				symbTraceFolder += (System.getProperty("file.separator")+"sts");
-				File tempFile = new File(symbTraceFolder);
-				if(!(tempFile.exists()))
-					tempFile.mkdir();
-				
 				br.close();
 			} 
 			catch (IOException e) {
 				e.printStackTrace();
+				return;
 			}
 		}
+		else
+			return;
+
+		//if we are running with branches flipped, store traces into a particular folder
+		symbTraceFolder += (System.getProperty("file.separator")+"sts");
+		File tempFile = new File(symbTraceFolder);
+		if(!(tempFile.exists()))
+			tempFile.mkdir();
+	}
+
+	/**
+	 * Adds a branch to flip, given as "tid branch".
+	 * @param line
+	 */
+	private void addFlipBranch(String line)
+	{
+		String tid = line.substring(0,line.indexOf(' ')); 
+		//we subtract 1 because we want to flip the n-th branch, meaning we allow n-1 branches to proceed according to the BB trace 
+		Integer branch = Integer.valueOf(line.substring(line.indexOf(' ')+1).trim()) - 1;
+		flipBranchMap.put(tid, branch); 
+		System.out.println("[SymbiosisListener] Flip branch #"+(branch)+" of thread "+tid+"\n");	   
+	}
+
+
+	/**
+	 * Sets a new branch to flip and restores the listener data of the latest snapshot taken before that branch.
+	 * @param tid
+	 * @param branch branch to flip, as in the flip file
+	 * @return the VM state from which the search can be resumed, or null if it has to start from scratch
+	 */
+	public RestorableVMState resumeFlip(String tid, int branch)
+	{
+		flipBranchMap.clear();
+		addFlipBranch(tid+" "+branch);
+		if(snapshots == null)
+			return null;
+
+		BranchSnapshots.Snapshot s = snapshots.getLatest(tid, flipBranchMap.get(tid));
+		if(s == null)
+			return null;
+
+		s.restore(this);
+		int slot = states.slot(tid);
+		states.setPrevState(slot, s.key);
+		states.setBranchChoice(slot, -1);
+		resumedKey = s.key;
+		startTime = System.nanoTime();
+		System.out.println("[SymbiosisListener] Resume from state "+states.keyToString(s.key)+" ("+s.infos.get(0).brchsReached+" branches reached)");
+		return s.vmState;
+	}
+
+	/**
+	 * Takes a snapshot of the current state, if the thread has followed the BB trace since its last branch.
+	 * @param tid
+	 * @param search
+	 */
+	private void takeSnapshot(String tid, Search search)
+	{
+		if(snapshots == null)
+			return;
+		int n = snapshots.takePending(tid);
+		if(n < 0 || getCurStateInfo(tid).brchsReached != n)
+			return;
+
+		long key = getCurStateKey(tid);
+		snapshots.put(tid, n, new BranchSnapshots.Snapshot(search.getVM().getRestorableState(), key, states.getStateInfos(key)));
+		System.out.println("["+getCurStateId(tid)+"] Snapshot at branch #"+n+" ("+snapshots.size()+" snapshots)");
 	}
 
+	/**
+	 * Loads the ids of the basic blocks that were not instrumented in the runtime version (if the program was instrumented with sparse probes).
+	 * These blocks are always entered from the same predecessor, so they don't need to be checked against the BB trace.
+	 */
+	private void loadSkippedBBs() {
+		String fname = config.getString("symbiosis.skippedbbs");
+		if(fname == null)
+			return;
+
+		System.out.println("[SymbiosisListener] Loading blocks without probe from "+fname);
+		try{
+			BufferedReader br = new BufferedReader(new FileReader(fname));
+			String line;
+			while ((line = br.readLine()) != null) {
+				skippedBBs.put(Long.parseLong(line.trim()), Boolean.TRUE);
+			}
+			br.close();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 
 	/**
 	 * Loads the file containing the references to the shared accesses identified by the static analysis
@@ -216,53 +314,146 @@ public class SymbiosisListener extends PropertyListenerAdapter{
             int end = fname.lastIndexOf('_');
             int init = fname.substring(0,end).lastIndexOf('_');
             executionId = fname.substring(init+1, end);
-            
-			BufferedReader br = new BufferedReader(new FileReader(fname));
-			String line;
-			while ((line = br.readLine()) != null) {
-				if(line.startsWith("[")){
-					line = line.substring(1, line.length()-1); //transforms "[tid bbid]" into "tid bbid"
-					assertThread = line.split(" ")[0];
-					
-					if(failedExec)
-						logSymbEvent(assertThread, "<assertThread_fail>");
-					else
-						logSymbEvent(assertThread, "<assertThread_ok>");
-				}
 
-				String[] vals = line.split(" "); 
-				String tid = vals[0];
-				String bbid = vals[1]; 
+			String pathProfile = config.getString("symbiosis.pathprofile");
+			String traceKey = fname+":"+new File(fname).lastModified()+":"+pathProfile;
+			if(batchMode && traceKey.equals(cachedTraceKey))
+			{
+				System.out.println("[SymbiosisListener] BB trace already loaded. Reuse it.");
+				bbtrace = cachedTrace;
+				partialTrace = cachedPartial;
+				for(String tid : bbtrace.getThreads())
+					states.slot(tid); //the threads get the same slots as when the trace was loaded
+				assertThread = cachedAssertThread;
+				if(assertThread != null)
+					logAssertEvent();
+				return;
+			}
 
-				if(bbtrace.containsKey(tid)){
-					bbtrace.get(tid).add(bbid);
-				}
-				else{
-					Vector<String> tmp = new Vector<String>();
-					tmp.add(bbid);
-					bbtrace.put(tid, tmp);
+			if(BinaryTraceReader.isBinaryTrace(fname))
+				loadBinaryBBTrace(fname);
+			else
+				loadTextBBTrace(fname);
+
+			if(partialTrace)
+				System.out.println("[SymbiosisListener] WARNING: BB trace is partial; unrecorded blocks are not checked against the trace (threads with unrecorded blocks: "+getBBPrefixes()+")");
+
+			//traces recorded in path profiling mode are decoded into basic block ids
+			if(pathProfile != null)
+			{
+				System.out.println("[SymbiosisListener] Decoding BB trace with path profile "+pathProfile);
+				if(partialTrace)
+					System.out.println("[SymbiosisListener] WARNING: partial traces are not supported in path profiling mode");
+				PathProfileDecoder decoder = new PathProfileDecoder(pathProfile);
+				for(String tid : bbtrace.getThreads())
+				{
+					int slot = states.slot(tid);
+					ArrayList<Long> bbs = decoder.decode(bbtrace.getPath(slot), bbtrace.size(slot));
+					long[] path = new long[bbs.size()];
+					for(int i = 0; i < path.length; i++)
+						path[i] = bbs.get(i);
+					bbtrace.setPath(slot, tid, path);
 				}
 			}
-			br.close();
 
 			if(DEBUG)
 			{
-				for(Entry<String, Vector<String>> entry : bbtrace.entrySet())
+				for(String tid : bbtrace.getThreads())
 				{
-					System.out.print("\tT"+entry.getKey()+": ");
-					for(String bbid : entry.getValue())
+					System.out.print("\tT"+tid+": ");
+					for(long bbid : bbtrace.getPath(states.slot(tid)))
 					{
 						System.out.print(bbid+" ");
 					}
 					System.out.println("");
 				}
 			}
+
+			if(batchMode)
+			{
+				cachedTrace = bbtrace;
+				cachedTraceKey = traceKey;
+				cachedPartial = partialTrace;
+				cachedAssertThread = assertThread;
+			}
 		} 
 		catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Loads a BB trace in the text format, i.e. one "tid bbid" line per basic block.
+	 * @param fname
+	 * @throws IOException
+	 */
+	private void loadTextBBTrace(String fname) throws IOException
+	{
+		BufferedReader br = new BufferedReader(new FileReader(fname));
+		String line;
+		while ((line = br.readLine()) != null) {
+			if(line.equals("#partial")){
+				partialTrace = true;
+				continue;
+			}
+			else if(line.startsWith("#skipped ")){
+				//"#skipped tid before after": number of blocks that were not recorded
+				String[] vals = line.split(" ");
+				setBBPrefix(vals[1], Long.parseLong(vals[2]));
+				continue;
+			}
+
+			if(line.startsWith("[")){
+				line = line.substring(1, line.length()-1); //transforms "[tid bbid]" into "tid bbid"
+				assertThread = line.split(" ")[0];
+				logAssertEvent();
+			}
+
+			String[] vals = line.split(" "); 
+			String tid = vals[0];
+			bbtrace.add(states.slot(tid), tid, Long.parseLong(vals[1]));
+		}
+		br.close();
+	}
+
+	/**
+	 * Loads a BB trace in the binary format (see BinaryTraceReader).
+	 * @param fname
+	 * @throws IOException
+	 */
+	private void loadBinaryBBTrace(String fname) throws IOException
+	{
+		BinaryTraceReader reader = new BinaryTraceReader(fname);
+		if(!reader.isComplete())
+			System.out.println("[SymbiosisListener] WARNING: BB trace has no trailer (the production run may have crashed); using its first "+reader.getLength()+" bytes, up to the last complete record");
+		partialTrace = reader.isPartial();
+
+		List<String> threads = reader.getThreads();
+		for(int slot = 0; slot < threads.size(); slot++)
+		{
+			String tid = threads.get(slot);
+			bbtrace.setPath(states.slot(tid), tid, reader.getPath(slot));
+			if(reader.getSkippedBefore(slot) > 0 || reader.getSkippedAfter(slot) > 0)
+				setBBPrefix(threads.get(slot), reader.getSkippedBefore(slot));
+		}
+
+		if(reader.getAssertThread() != null){
+			assertThread = reader.getAssertThread();
+			logAssertEvent();
+		}
+	}
+
+	/**
+	 * Logs whether the assertion holds in the BB trace (successful or failing execution) as the first event of the assertion thread.
+	 */
+	private void logAssertEvent()
+	{
+		if(failedExec)
+			logSymbEvent(assertThread, SymbEvent.ASSERT_FAIL_EVENT);
+		else
+			logSymbEvent(assertThread, SymbEvent.ASSERT_OK_EVENT);
+	}
+
 	
 	public void stateAdvanced(Search search) 
 	{
@@ -274,13 +465,16 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 		if(tid.equals("main"))
 			tid = "0";
 
-		if(!stateOkToLog.containsKey(getCurStateId(tid)))
-			stateOkToLog.put(getCurStateId(tid),true);
+		long key = getCurStateKey(tid);
+		if(states.getOkToLog(key) == null)
+			states.setOkToLog(key, true);
 	}
 
 	public void stateBacktracked (Search search)
 	{
 		String tid = search.getVM().getCurrentThread().getName();
+		if(snapshots != null)
+			snapshots.clearPending(); //the state of the pending snapshot was not stored
 		
 		//store symbolic trace if this state is backtracking because it is an end state
 		String file = search.getVM().getLastInstruction().getFileLocation();
@@ -291,12 +485,12 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 			//save path conditions
 			String cond = "";
 			PCChoiceGenerator pccg = search.getVM().getLastChoiceGeneratorOfType(PCChoiceGenerator.class);
-			String pathkey =  tid+"_"+getPathId(tid); //get the map key corresponding to the path id of the last state
+			List<String> pathConds = states.getPathConditions(states.slot(tid), getPathId(tid)); //get the path conditions of the path id of the last state
 			if (pccg != null 
 					&& pccg.getThreadInfo().getName()==tid 
-					&& pathPerThread.containsKey(pathkey)){
+					&& pathConds != null){
 				cond = "<pathjpf>";
-				for(String cnst : pathPerThread.get(pathkey)){
+				for(String cnst : pathConds){
 					cond += "\nT"+tid+":("+cnst+")";
 				}
 				cond += "\npathid"+getPathId(tid);
@@ -306,23 +500,24 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 			//save the complete thread log into file
 			if(isCorrectTrace(tid, curState)){
 				System.out.println("["+getStatePathId(tid,search.getVM().getLastInstruction().getFileLocation())+"] No more states to explore! Store symbolic trace.");
-				Utilities.storeSymbLog(symbTraceFolder, tid, curState.symbTrace+cond, curState.pathid);
+				Utilities.storeSymbLog(symbTraceFolder, tid, curState.symbTrace, cond, curState.pathid);
 			}
 		}
 		
 		//backtrack state info if this state has logged any branch
-		String parentState = stateTree.get(tid+"_"+pointerToSS.getId());
+		long curKey = getCurStateKey(tid);
+		long parentState = states.getParent(curKey);
 		if(//canRunFree(tid) &&    //Nuno: this needs to be commented, otherwise JPF may not copy the parent information in some necessary cases
-			mapStateInfo.containsKey(getCurStateId(tid)) 
-			&& mapStateInfo.containsKey(parentState) 
-			&& getCurStateInfo(tid).pathid.length() > mapStateInfo.get(parentState).get(0).pathid.length()){
-				System.out.println("["+getStatePathId(tid,file)+"] state backtracked (copy state information from parent "+parentState+") prevState: "+getPrevStateId(tid));
+			states.hasStateInfo(curKey) 
+			&& states.hasStateInfo(parentState) 
+			&& getCurStateInfo(tid).pathid.length() > states.getStateInfos(parentState).get(0).pathid.length()){
+				System.out.println("["+getStatePathId(tid,file)+"] state backtracked (copy state information from parent "+states.keyToString(parentState)+") prevState: "+getPrevStateId(tid));
 				backtrackStateInfo(tid);
 		}
 		else{
 			System.out.println("["+getStatePathId(tid,search.getVM().getLastInstruction().getFileLocation())+"] state backtracked (don't copy parent state)");
-			if(mapStateInfo.containsKey(getCurStateId(tid)) && mapStateInfo.containsKey(parentState)){
-				System.out.println("-- curPath: "+getCurStateInfo(tid).pathid+" > parentPath: "+mapStateInfo.get(parentState).get(0).pathid);
+			if(states.hasStateInfo(curKey) && states.hasStateInfo(parentState)){
+				System.out.println("-- curPath: "+getCurStateInfo(tid).pathid+" > parentPath: "+states.getStateInfos(parentState).get(0).pathid);
 			}
 		}
 	}
@@ -339,19 +534,23 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 		String tid = search.getVM().getCurrentThread().getName();
 		System.out.println("["+getStatePathId(tid,search.getVM().getLastInstruction().getFileLocation())+"]  Store state "+getCurStateId(tid)+" (parent state: "+getPrevStateId(tid)+")");
 		
-		//copy parent state to the new state
-		copyParentStateInfo(tid);
+		//copy parent state to the new state (unless the search was resumed from this state)
+		if(getCurStateKey(tid) == resumedKey)
+			resumedKey = StateTable.NO_STATE;
+		else
+			copyParentStateInfo(tid);
+		takeSnapshot(tid, search);
 		
 		//store trace if there are no more BBs to visit 
 		if(!hasBBsToVisit(tid) && !threadsFinished.contains(tid)){
 			StateInfo curState = getCurStateInfo(tid);
 			
-			String pathkey =  tid+"_"+curState.pathid; //get the map key corresponding to the path id of the current state
+			List<String> pathConds = states.getPathConditions(states.slot(tid), curState.pathid); //get the path conditions of the path id of the current state
 			String cond = "";
-			if(pathPerThread.containsKey(pathkey)){
+			if(pathConds != null){
 				cond = "<pathjpf>";
-				System.out.println("PATHKEY: "+pathkey);//+"  ;  "+pathPerThread);
-				for(String cnst : pathPerThread.get(pathkey)){
+				System.out.println("PATHKEY: "+tid+"_"+curState.pathid);
+				for(String cnst : pathConds){
 					cond += "\nT"+tid+":("+cnst+")";
 				}
 				cond += "\npathid"+getPathId(tid);
@@ -359,18 +558,21 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 			//save the complete thread log into file
 			if(isCorrectTrace(tid, curState)){
 				System.out.println("["+getStatePathId(tid,search.getVM().getLastInstruction().getFileLocation())+"] Thread finished execution. Store symbolic trace.\n");
-				Utilities.storeSymbLog(symbTraceFolder, tid, curState.symbTrace+cond, curState.pathid);
+				Utilities.storeSymbLog(symbTraceFolder, tid, curState.symbTrace, cond, curState.pathid);
 			}
 			search.getVM().getCurrentThread().setTerminated();
 			threadsFinished.add(tid);
 
 			//if all threads have already finished, then exit
-			if(threadsFinished.size() == bbtrace.keySet().size()){
+			if(threadsFinished.size() == bbtrace.getNumThreads()){
 				System.out.println("[SymbiosisJPF] All thread have consumed their logs. Terminate execution.");
 				endTime = System.nanoTime();
 				double time = (((double)(endTime - startTime)/1000000000));
 				System.out.println("[SymbiosisJPF] EXECUTION TIME: "+time+"s\n");
-				System.exit(1);
+				if(batchMode)
+					search.terminate();
+				else
+					System.exit(1);
 			}
 		}
 	}
@@ -395,7 +597,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 
 			PCChoiceGenerator pccg = (PCChoiceGenerator) cg;
 			int choice = pccg.getNextChoice();
-			canLogBranch.put(pccg.getThreadInfo().getName(), choice);	
+			states.setBranchChoice(states.slot(pccg.getThreadInfo().getName()), choice);	
 			System.out.println("ADD CHOICE "+getCurStateId(tid)+": canLogBranch["+pccg.getThreadInfo().getName()+"] = "+choice);
 		}
 		else if (cg instanceof ThreadChoiceGenerator) {
@@ -459,7 +661,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 				if(tid.equals("main"))
 					tid = "0";
 				
-				String bbid = virtualIns.getArgumentValues(ti)[0].toString();
+				long bbid = ti.longPeek(); //argument of symbiosisBBEntry(long)
 				
 				handleSpecialRunFree(tid,vm); 
 				if(!canRunFree(tid))
@@ -471,7 +673,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 					//is free-run mode
 					System.out.println("["+getStatePathId(tid,file)+"] bbid: "+bbid+" -> has flipped a branch, so it is allowed to proceed freely.");
 					addNewBranch(tid, vm);
-					stateOkToLog.put(getCurStateId(tid), true);
+					states.setOkToLog(getCurStateKey(tid), true);
 					return;
 				}
 			}
@@ -496,7 +698,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 				{
 					//change tag <assertThread_ok> to <assertThread_fail> if necessary
 					try{ 
-						curState.symbTrace = curState.symbTrace.replace("<assertThread_ok>", "<assertThread_fail>");
+						curState.symbTrace = curState.symbTrace.replace(SymbEvent.Kind.ASSERT_OK, SymbEvent.ASSERT_FAIL_EVENT);
 					}catch(Exception e)
 					{
 						System.out.println("["+getStatePathId(tid,file)+"] ERROR replacing assert");
@@ -505,19 +707,19 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 					//save path conditions
 					String cond = "";
 					PCChoiceGenerator pccg = vm.getLastChoiceGeneratorOfType(PCChoiceGenerator.class);
-					String pathkey =  tid+"_"+getPathId(tid); //get the map key corresponding to the path id of the last state
+					List<String> pathConds = states.getPathConditions(states.slot(tid), getPathId(tid)); //get the path conditions of the path id of the last state
 					if (pccg != null 
 							&& pccg.getThreadInfo().getName()==tid 
-							&& pathPerThread.containsKey(pathkey)){
+							&& pathConds != null){
 						cond = "<pathjpf>";
-						for(String cnst : pathPerThread.get(pathkey)){
+						for(String cnst : pathConds){
 							cond += "\nT"+tid+":("+cnst+")";
 						}
 						cond += "\npathid"+getPathId(tid);
 					}
 					if(isCorrectTrace(tid, curState)){
 						System.out.println("["+getStatePathId(tid,file)+"] Assert error! Store symbolic trace.");
-						Utilities.storeSymbLog(symbTraceFolder, tid, curState.symbTrace+cond, curState.pathid);
+						Utilities.storeSymbLog(symbTraceFolder, tid, curState.symbTrace, cond, curState.pathid);
 					}
 				}
 				pointerToSearch.setIgnoredState(true); 
@@ -528,7 +730,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 		    vm.getCurrentThread().skipInstruction(nextIns);
 		    pointerToSearch.setIgnoredState(true); 
 		}*/
-		prevState.put(tid, getCurStateId(tid));
+		states.setPrevState(states.slot(tid), getCurStateKey(tid));
 		//System.out.println("PREVSTATE["+tid+"] = "+getCurStateId(tid));
 	}
 	
@@ -574,7 +776,6 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 			//Handle reads
 			if ((lastIns instanceof GETFIELD) || (lastIns instanceof GETSTATIC)) {
 				FieldInstruction getfieldIns = (FieldInstruction) lastIns;
-				String access = getAccessSig(getfieldIns, line);
 
 				if(getfieldIns.getLastElementInfo() == null){
 					System.out.println("["+getStatePathId(tid,file)+"] There might be a problem, field info is null!");
@@ -582,7 +783,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 				}
 
 				//log read event if it is a shared access
-				if(sharedAccesses.contains(access)){		
+				if(getSharedFieldInsn(lastIns, line) != null){		
 					//System.out.println("-- R_ACCESS "+access);
 					StateInfo curState = getCurStateInfo(tid);
 					String symbvar = curState.getRWSymbName(getfieldIns, false);
@@ -593,8 +794,6 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 			//Handle writes
 			else if ((lastIns instanceof PUTSTATIC)||(lastIns instanceof PUTFIELD)){
 				FieldInstruction putfieldIns = (FieldInstruction) lastIns;
-				
-				String access = getAccessSig(putfieldIns, line);
 
 				if(putfieldIns.getLastElementInfo() == null){
 					System.out.println("["+getStatePathId(tid,file)+"] There might be a problem, field info is null!");
@@ -602,7 +801,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 				}
 
 				//log write event if it is a shared access
-				if(sharedAccesses.contains(access)){
+				if(getSharedFieldInsn(lastIns, line) != null){
 					//System.out.println("-- W_ACCESS "+access);
 					StateInfo curState = getCurStateInfo(tid);
 					String symbvar = curState.getRWSymbName(putfieldIns, true);
@@ -612,60 +811,36 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 			}
 			//handle writes on arrays
 			else if(lastIns instanceof IASTORE || lastIns instanceof AASTORE){
-				String access = "";
 				try{
-					//get array field name
-					int fieldPointer = 1; //indicates the correct getfield/getstatic that we should point to; allows to handle cases where we write into an array the value of another array
-					Instruction fieldInst = lastIns;
-					while(fieldPointer > 0){
-						fieldInst = fieldInst.getPrev();
-						if(fieldInst instanceof IALOAD)
-							fieldPointer++;
-						
-						if(fieldInst instanceof GETFIELD || fieldInst instanceof GETSTATIC)
-							fieldPointer--;
-						/*System.out.println("=== fieldInst: "+fieldInst+", iaload? "+(fieldInst instanceof IALOAD)+
-								", getfield/getstatic? "+(fieldInst instanceof GETFIELD || fieldInst instanceof GETSTATIC)+
-								", fieldPointer: "+fieldPointer);*/
-					}
-					
-					access = getAccessSig((FieldInstruction)fieldInst, line); 
-					if(sharedAccesses.contains(access)){
-						//System.out.println("-- W_IASTORE_ACCESS "+access);
+					//get array field (resolved once per instruction)
+					FieldInstruction fieldInst = getSharedFieldInsn(lastIns, line);
+					if(fieldInst != null){
+						//System.out.println("-- W_IASTORE_ACCESS "+getAccessSig(fieldInst, line));
 						StateInfo curState = getCurStateInfo(tid);
-						String symbvar = curState.getRWArraySymbName(lastIns, (FieldInstruction)fieldInst, ti);
-						handleSharedArrayRW(tid, symbvar, (FieldInstruction)fieldInst, vm, true);
+						String symbvar = curState.getRWArraySymbName(lastIns, fieldInst, ti);
+						handleSharedArrayRW(tid, symbvar, fieldInst, vm, true);
 					}
-					//else System.out.println(" -- NO W_IASTORE_ACCESS "+access);
 				}
 				catch(Exception e)
 				{
-					//System.out.println("[EXCEPTION] IASTORE ("+access+"):"+e.getMessage());
+					//System.out.println("[EXCEPTION] IASTORE: "+e.getMessage());
 					//e.printStackTrace();
 				}
 			}
 			//handle reads on arrays
 			else if(lastIns instanceof IALOAD || lastIns instanceof AALOAD)
 			{
-				String access = "";
 				try{
-					//get array field name
-					Instruction fieldInst = lastIns.getPrev();
-					while(!(fieldInst instanceof GETFIELD)
-							&& !(fieldInst instanceof GETSTATIC)){
-						fieldInst = fieldInst.getPrev();
-					}
-					
-					access = getAccessSig((FieldInstruction)fieldInst, line); 
-					if(sharedAccesses.contains(access)){
+					//get array field (resolved once per instruction)
+					FieldInstruction fieldInst = getSharedFieldInsn(lastIns, line);
+					if(fieldInst != null){
 						StateInfo curState = getCurStateInfo(tid);
-						String symbvar = curState.getRWArraySymbName(lastIns, (FieldInstruction)fieldInst, ti);
-						handleSharedArrayRW(tid, symbvar, (FieldInstruction)fieldInst, vm, false);
+						String symbvar = curState.getRWArraySymbName(lastIns, fieldInst, ti);
+						handleSharedArrayRW(tid, symbvar, fieldInst, vm, false);
 					}
-					//else System.out.println(" -- NO RA_ACCESS (iaload) "+access);
 				}catch(Exception e)
 				{
-					//System.out.println("[EXCEPTION] IALOAD ("+access+"):"+e.getMessage());
+					//System.out.println("[EXCEPTION] IALOAD: "+e.getMessage());
 					//e.printStackTrace();
 				}
 			}
@@ -706,7 +881,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 				if (monEnterIns.getSourceLine()!=null){					
 					ElementInfo obj = vm.getElementInfo(monEnterIns.getLastLockRef()); 
 					String object = Integer.toHexString(obj.getObjectRef());
-					logLockSyncEvent(monEnterIns, line, ti, "lock",object);
+					logLockSyncEvent(monEnterIns, line, ti, SymbEvent.Kind.LOCK,object);
 				}
 			}
 			else if(lastIns instanceof MONITOREXIT){
@@ -715,7 +890,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 				if (monExitIns.getSourceLine()!=null){
 					ElementInfo obj = vm.getElementInfo(monExitIns.getLastLockRef()); 
 					String object = Integer.toHexString(obj.getObjectRef());
-					logLockSyncEvent(monExitIns, line, ti, "unlock",object);
+					logLockSyncEvent(monExitIns, line, ti, SymbEvent.Kind.UNLOCK,object);
 				}
 			}
 
@@ -732,20 +907,20 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 				if (methodName.equals("run()V") && !lastIns.getFileLocation().contains("synthetic"))
 				{
 					//make sure we only log one start event per thread
-					if(!threadsStarted.contains(getCurStateId(tid)))
+					if(!states.isStarted(getCurStateKey(tid)))
 					{
 						HashSet<String> vars = new HashSet<String>();
 						vars.add("start-"+tid);
-						threadsStarted.add(getCurStateId(tid));
+						states.setStarted(getCurStateKey(tid));
 
 						//log event
-						String event = Utilities.getFileShortName(lastIns.getFileLocation()).replace(':', '@')+":S-start-"+tid;
+						SymbEvent event = SymbEvent.start(SymbEvent.location(lastIns), tid);
 						
 						if(tid.equals(assertThread)){ //store success/failure if this is the thread with the assertion
 							if(failedExec)
-								logSymbEvent(tid, "<assertThread_fail>");
+								logSymbEvent(tid, SymbEvent.ASSERT_FAIL_EVENT);
 							else
-								logSymbEvent(tid, "<assertThread_ok>");
+								logSymbEvent(tid, SymbEvent.ASSERT_OK_EVENT);
 						}
 						logSymbEvent(tid, event);		
 
@@ -764,13 +939,13 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 				// Start method invocation
 				if ((method.equals("start")) && (virtualIns.getInvokedMethod().getClassInfo().getName().equals("java.lang.Thread")))
 				{
-					logPOSyncEvent(virtualIns, line, ti, "fork");
+					logPOSyncEvent(virtualIns, line, ti, SymbEvent.Kind.FORK);
 					hasForked = true;
 				}
 				//Join method invocation
 				else if ((method.equals("join")) && (virtualIns.getInvokedMethod().getClassInfo().getName().equals("java.lang.Thread")))
 				{
-					logPOSyncEvent(virtualIns, line, ti, "join");
+					logPOSyncEvent(virtualIns, line, ti, SymbEvent.Kind.JOIN);
 
 					System.out.println("["+ti.getName()+"] skip JOIN");
 					/*StackFrame sf = ti.popFrame();
@@ -782,7 +957,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 				{
 					ElementInfo obj = vm.getElementInfo(virtualIns.getCalleeThis(ti)); 
 					String object = Integer.toHexString(obj.getObjectRef());
-					logLockSyncEvent(virtualIns, line, ti, "wait",object);
+					logLockSyncEvent(virtualIns, line, ti, SymbEvent.Kind.WAIT,object);
 
 					System.out.println("["+ti.getName()+"] skip WAIT");
 					/*StackFrame sf = ti.popFrame();
@@ -796,23 +971,23 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 					String object = Integer.toHexString(obj.getObjectRef());
 
 					if(invokedMethod.equals("notify()V"))
-						logLockSyncEvent(virtualIns, line, ti, "signal",object);
+						logLockSyncEvent(virtualIns, line, ti, SymbEvent.Kind.SIGNAL,object);
 					else
-						logLockSyncEvent(virtualIns, line, ti, "signalall",object);
+						logLockSyncEvent(virtualIns, line, ti, SymbEvent.Kind.SIGNALALL,object);
 				}
 				//Lock method invocation
 				else if(invokedMethod.equals("lock()V"))
 				{
 					ElementInfo obj = vm.getElementInfo(virtualIns.getCalleeThis(ti)); 
 					String object = Integer.toHexString(obj.getObjectRef());
-					logLockSyncEvent(virtualIns, line, ti, "lock",object);
+					logLockSyncEvent(virtualIns, line, ti, SymbEvent.Kind.LOCK,object);
 				}
 				//Unlock method invocation
 				else if(invokedMethod.equals("unlock()V"))
 				{
 					ElementInfo obj = vm.getElementInfo(virtualIns.getCalleeThis(ti)); 
 					String object = Integer.toHexString(obj.getObjectRef());
-					logLockSyncEvent(virtualIns, line, ti, "unlock",object);
+					logLockSyncEvent(virtualIns, line, ti, SymbEvent.Kind.UNLOCK,object);
 				}
 				else if(!virtualIns.getInvokedMethod().getClassName().startsWith("java."))
 				{
@@ -822,7 +997,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 						//System.out.println("--> SYNC METHOD ENTER: "+lastIns);
 						ElementInfo obj = vm.getElementInfo(virtualIns.getCalleeThis(ti)); 
 						String object = Integer.toHexString(obj.getObjectRef());
-						logLockSyncEvent(virtualIns, line, ti, "lock",object);
+						logLockSyncEvent(virtualIns, line, ti, SymbEvent.Kind.LOCK,object);
 
 						//save monitor obj to store the unlock operation when returning from the sync method
 						if(methodMonitor.containsKey(tid)){
@@ -845,7 +1020,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 				{
 					ElementInfo obj = vm.getElementInfo(interfaceIns.getCalleeThis(ti)); 
 					String object = Integer.toHexString(obj.getObjectRef());
-					logLockSyncEvent(interfaceIns, line, ti, "wait",object);
+					logLockSyncEvent(interfaceIns, line, ti, SymbEvent.Kind.WAIT,object);
 				}
 				else if (invokedMethod.equals("signal()V")||invokedMethod.equals("signalAll()V"))
 				{
@@ -853,9 +1028,9 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 					String object = Integer.toHexString(obj.getObjectRef());
 
 					if(invokedMethod.equals("signal()V"))
-						logLockSyncEvent(interfaceIns, line, ti, "signal",object);
+						logLockSyncEvent(interfaceIns, line, ti, SymbEvent.Kind.SIGNAL,object);
 					else
-						logLockSyncEvent(interfaceIns, line, ti, "signalall",object);
+						logLockSyncEvent(interfaceIns, line, ti, SymbEvent.Kind.SIGNALALL,object);
 				}
 			}
 			//RETURN INSTRUCTION *** Used to detect the end of synchronized methods
@@ -866,7 +1041,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 					if (me.isSynchronized() && methodMonitor.containsKey(tid) && !methodMonitor.get(tid).isEmpty()){
 						//System.out.println("--> SYNC METHOD EXIT: "+lastIns);
 						String object = methodMonitor.get(tid).pop();
-						logLockSyncEvent(genReturnIns, line, ti, "unlock", object);
+						logLockSyncEvent(genReturnIns, line, ti, SymbEvent.Kind.UNLOCK, object);
 					}
 				}
 			}
@@ -880,7 +1055,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 						//System.out.println("--> SYNC METHOD ENTER: "+lastIns);
 						ElementInfo obj = vm.getElementInfo(specialIns.getCalleeThis(ti)); 
 						String object = Integer.toHexString(obj.getObjectRef());
-						logLockSyncEvent(specialIns, line, ti, "lock",object);
+						logLockSyncEvent(specialIns, line, ti, SymbEvent.Kind.LOCK,object);
 
 						//save monitor obj to store the unlock operation when returning from the sync method
 						if(methodMonitor.containsKey(tid)){
@@ -896,7 +1071,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 				//delay assertion error instruction if all threads haven't finished yet
 				/*if(((INVOKESPECIAL) lastIns).toString().contains("java.lang.AssertionError"))
 				{
-					logSymbEvent(tid, "<assertThread_fail>");
+					logSymbEvent(tid, SymbEvent.ASSERT_FAIL_EVENT);
 					System.out.println("["+getStatePathId(tid,file)+"] Assertion Error -> proceed");
 					//check if all threads have already finished
 					//if(threadsFinished.size()!=bbtrace.keySet().size())
@@ -909,6 +1084,71 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 	}
 	
 	
+	/**
+	 * Instruction attribute caching whether a field/array instruction is a shared access, i.e. its signature
+	 * is in the shared accesses log. It is computed the first time the instruction is executed, as the
+	 * instructions (and their attributes) are shared by all states.
+	 */
+	private static class SharedAccessAttr {
+		final FieldInstruction fieldInst; //field instruction of the access (the GETFIELD/GETSTATIC that loads the array, for array accesses); null if not shared
+
+		SharedAccessAttr(FieldInstruction fieldInst)
+		{
+			this.fieldInst = fieldInst;
+		}
+	}
+	private static final SharedAccessAttr NOT_SHARED = new SharedAccessAttr(null);
+
+	/**
+	 * Returns the field instruction of the shared access performed by ins, or null if ins does not access a shared variable.
+	 * @param ins field instruction, or array load/store
+	 * @param line
+	 * @return
+	 */
+	private FieldInstruction getSharedFieldInsn(Instruction ins, int line)
+	{
+		SharedAccessAttr attr = ins.getAttr(SharedAccessAttr.class);
+		if(attr == null){
+			attr = resolveSharedAccess(ins, line);
+			ins.addAttr(attr);
+		}
+		return attr.fieldInst;
+	}
+
+	private SharedAccessAttr resolveSharedAccess(Instruction ins, int line)
+	{
+		Instruction fieldInst = ins;
+		try{
+			if(ins instanceof IASTORE || ins instanceof AASTORE)
+			{
+				int fieldPointer = 1; //indicates the correct getfield/getstatic that we should point to; allows to handle cases where we write into an array the value of another array
+				while(fieldPointer > 0){
+					fieldInst = fieldInst.getPrev();
+					if(fieldInst instanceof IALOAD)
+						fieldPointer++;
+					
+					if(fieldInst instanceof GETFIELD || fieldInst instanceof GETSTATIC)
+						fieldPointer--;
+				}
+			}
+			else if(ins instanceof IALOAD || ins instanceof AALOAD)
+			{
+				fieldInst = ins.getPrev();
+				while(!(fieldInst instanceof GETFIELD)
+						&& !(fieldInst instanceof GETSTATIC)){
+					fieldInst = fieldInst.getPrev();
+				}
+			}
+
+			if(sharedAccesses.contains(getAccessSig((FieldInstruction)fieldInst, line)))
+				return new SharedAccessAttr((FieldInstruction)fieldInst);
+		}
+		catch(Exception e){
+			//no field instruction before the array access
+		}
+		return NOT_SHARED;
+	}
+
 	public String getAccessSig(FieldInstruction fieldInst, int line)
 	{
 		String sig = fieldInst.getFieldInfo().getFullName();
@@ -924,34 +1164,80 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 		return access;
 	}
 	
+	/**
+	 * Registers the number of blocks executed by a thread before the first block of its path (partial traces).
+	 * Threads whose path lacks a prefix are allowed to execute that number of blocks without following the trace.
+	 * @param tid
+	 * @param before
+	 */
+	private void setBBPrefix(String tid, long before)
+	{
+		int slot = states.slot(tid);
+		bbtrace.addThread(slot, tid); //the thread may have no block recorded
+		bbtrace.setPrefix(slot, (int) Math.min(before, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Returns the number of blocks executed by a thread before the first block of its path.
+	 * @param tid
+	 * @return
+	 */
+	private int getBBPrefix(String tid)
+	{
+		return bbtrace.getPrefix(states.slot(tid));
+	}
+
+	/**
+	 * Returns the threads with blocks executed before their path, as "{tid=blocks, ...}".
+	 * @return
+	 */
+	private String getBBPrefixes()
+	{
+		StringBuilder sb = new StringBuilder("{");
+		for(String tid : bbtrace.getThreads())
+		{
+			if(getBBPrefix(tid) > 0)
+				sb.append(sb.length() > 1 ? ", " : "").append(tid+"="+getBBPrefix(tid));
+		}
+		return sb.append("}").toString();
+	}
+
 	/**
 	 * Check whether the basic block conforms with the thread path profile.
 	 * @param tid
 	 * @param bbid
 	 * @param vm
 	 */
-	public void checkBBTrace(String tid, String bbid, JVM vm){
+	public void checkBBTrace(String tid, long bbid, JVM vm){
 	
 		//in case the thread is not in the logfile
-		if(!bbtrace.containsKey(tid)){
+		int slot = states.slot(tid);
+		if(!bbtrace.contains(slot)){
 			System.out.println(" --> checkBBTrace "+tid+" not in bbtrace -> ignore state");
 			pointerToSearch.setIgnoredState(true); 
-			stateOkToLog.put(getCurStateId(tid), false);
+			states.setOkToLog(getCurStateKey(tid), false);
 			return;
 		}
 		
+		//blocks without probe at runtime are implied by their predecessor
+		if(skippedBBs.containsKey(bbid))
+			return;
+
 		String file = vm.getNextInstruction().getFileLocation();
 		if(hasBBsToVisit(tid))
 		{
 			StateInfo curState = getCurStateInfo(tid); 
-			String nextbbid = bbtrace.get(tid).elementAt(curState.bbsReached);
-			if(bbid.equals(nextbbid))
+			int pos = curState.bbsReached - getBBPrefix(tid);	//blocks before the recorded path (partial traces) match any block
+			long nextbbid = (pos < 0 ? bbid : bbtrace.get(slot, pos));
+			if(bbid == nextbbid)
 			{
 				incBBsVisited(tid);
+				if(snapshots != null && flipBranchMap.containsKey(tid) && curState.brchsReached <= flipBranchMap.get(tid))
+					snapshots.setPending(tid, curState.brchsReached); //the thread followed the trace after its last branch
 				if(DEBUG)
-					System.out.println("["+getStatePathId(tid,file)+"] bbid: "+bbid+" == tracebbid: "+nextbbid+" -> OK ("+curState.bbsReached+" out of "+(bbtrace.get(tid).size())+")");
+					System.out.println("["+getStatePathId(tid,file)+"] bbid: "+bbid+" == tracebbid: "+nextbbid+" -> OK ("+curState.bbsReached+" out of "+(bbtrace.size(slot))+")");
 				pointerToSS.setInteresting(true);
-				stateOkToLog.put(getCurStateId(tid), true);
+				states.setOkToLog(getCurStateKey(tid), true);
 				
 				//log branch if necessary
 				addNewBranch(tid, vm);
@@ -959,19 +1245,19 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 			/*else if(getCurStateId(tid).equals("0_0")
 					|| getCurStateId(tid).equals("0_-1"))
 			{
-				System.out.println("["+getStatePathId(tid,file)+"] bbid: "+bbid+" != tracebbid: "+nextbbid+" -> DON'T STOP (init state, "+curState.bbsReached+" out of "+(bbtrace.get(tid).size())+")");
+				System.out.println("["+getStatePathId(tid,file)+"] bbid: "+bbid+" != tracebbid: "+nextbbid+" -> DON'T STOP (init state, "+curState.bbsReached+" out of "+(bbtrace.size(slot))+")");
 			}//*/
 			else
 			{
 				if(DEBUG)
-					System.out.println("["+getStatePathId(tid,file)+"] bbid: "+bbid+" != tracebbid: "+nextbbid+" -> STOP ("+curState.bbsReached+" out of "+(bbtrace.get(tid).size())+")");
+					System.out.println("["+getStatePathId(tid,file)+"] bbid: "+bbid+" != tracebbid: "+nextbbid+" -> STOP ("+curState.bbsReached+" out of "+(bbtrace.size(slot))+")");
 				
 				//make sure that we don't trace this path condition on another state
-				if(canLogBranch.containsKey(tid) && canLogBranch.get(tid) >= 0)
-					canLogBranch.put(tid,-1);
+				if(states.getBranchChoice(slot) >= 0)
+					states.setBranchChoice(slot, -1);
 				
 				pointerToSearch.setIgnoredState(true); 
-				stateOkToLog.put(getCurStateId(tid), false);
+				states.setOkToLog(getCurStateKey(tid), false);
 			}
 		}
 	}
@@ -983,7 +1269,8 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 	 */
 	public void addNewBranch(String tid, JVM vm){
 
-		if(canLogBranch.containsKey(tid) && canLogBranch.get(tid) >= 0){
+		int slot = states.slot(tid);
+		if(states.getBranchChoice(slot) >= 0){
 			
 			String constraint = getPathConditionConstraint(tid, vm);
 			if(!constraint.isEmpty()	//there might be cases where canLogBranch is positive due to state backtracking
@@ -991,26 +1278,24 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 			{ 
 				//save current state for future backtracks
 				StateInfo curState = getCurStateInfo(tid);
-				mapStateInfo.get(getCurStateId(tid)).add(new StateInfo(pointerToSS.getId(), curState));
+				states.getStateInfos(getCurStateKey(tid)).add(new StateInfo(pointerToSS.getId(), curState));
 				
-				int choice = canLogBranch.get(tid);
+				int choice = states.getBranchChoice(slot);
 				System.out.println("["+getStatePathId(tid,vm.getLastInstruction().getFileLocation())+"] Log branch (update state with "+choice+")");
 
 				updatePathId(tid,choice);	//update path id according to the choice taken 
 				logBranch(tid);
-				canLogBranch.put(tid, -1);
-
-				//add this branch condition to the corresponding thread's path in pathPerThread data structure
-				try{
-					System.out.println("PATH CONDITION: "+constraint);
-					pathPerThread.get(tid+"_"+getPathId(tid)).add(constraint);
-				}
-				catch(NullPointerException e){
-					ArrayList<String> pathT = new ArrayList<String>();
-					pathT.add(constraint);
-					pathPerThread.put(tid+"_"+getPathId(tid), pathT);
+				states.setBranchChoice(slot, -1);
+
+				//add this branch condition to the corresponding thread's path conditions
+				System.out.println("PATH CONDITION: "+constraint);
+				List<String> pathConds = states.getPathConditions(slot, getPathId(tid));
+				if(pathConds == null){
+					pathConds = new ArrayList<String>();
+					states.putPathConditions(slot, getPathId(tid), pathConds);
 				}
-				System.out.println("["+getCurStateId(tid)+"] PCs: "+pathPerThread.get(tid+"_"+getPathId(tid)));
+				pathConds.add(constraint);
+				System.out.println("["+getCurStateId(tid)+"] PCs: "+pathConds);
 				
 				//update number of branches reached, if necessary
 				if(flipBranchMap.containsKey(tid) && curState.brchsReached < flipBranchMap.get(tid)){
@@ -1031,12 +1316,10 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 	 */
 	private boolean hasBBsToVisit(String tid)
 	{
-		try{
-			return getCurStateInfo(tid).bbsReached < bbtrace.get(tid).size();
-		}
-		catch(NullPointerException e){
+		int slot = states.slot(tid);
+		if(!bbtrace.contains(slot))
 			return true; //necessary for the case where the data structures weren't initialized yet
-		}
+		return getCurStateInfo(tid).bbsReached < bbtrace.getPrefix(slot) + bbtrace.size(slot);
 	}
 	
 	/**
@@ -1356,7 +1639,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 		getCurStateInfo(tid).incrementSymbVarId(symbvar); 
 
 		//log event
-		String event = Utilities.getFileShortName(fieldInst.getFileLocation()).replace(':', '@')+":"+symbvar;
+		SymbEvent event;
 		if(isWrite){
 			Object valueObj = extractWrittenValue(fieldInst, ei, vm);
 			String value;
@@ -1389,8 +1672,10 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 				//System.out.println("\t-- "+symbvar+" -> "+value);
 				writtenValues.put(symbvar, value);
 			}
-			event += "\n$"+value+"$";
+			event = SymbEvent.write(SymbEvent.location(fieldInst), symbvar, value);
 		}
+		else
+			event = SymbEvent.read(SymbEvent.location(fieldInst), symbvar);
 		logSymbEvent(tid, event);	
 
 		if(DEBUG) 
@@ -1413,7 +1698,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 		getCurStateInfo(tid).incrementSymbVarId(symbvar); 
 		
 		//log event
-		String event = Utilities.getFileShortName(fieldInst.getFileLocation()).replace(':', '@')+":"+symbvar;
+		SymbEvent event;
 		if(isWrite){
 			Object valueObj = extractWrittenArrayValue(type, vm);
 			String value = valueObj.toString();
@@ -1441,8 +1726,10 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 				//System.out.println("\t-- "+symbvar+" -> "+value);
 				writtenValues.put(symbvar, value);
 			}
-			event += "\n$"+value+"$";	
+			event = SymbEvent.write(SymbEvent.location(fieldInst), symbvar, value);
 		}
+		else
+			event = SymbEvent.read(SymbEvent.location(fieldInst), symbvar);
 		//System.out.println(" > sharedArray attr: "+vm.getLastThreadInfo().getTopFrame().getOperandAttr());
 		logSymbEvent(tid, event);	
 
@@ -1459,7 +1746,7 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 	 * @param vm
 	 * @param synctype
 	 */
-	protected void logPOSyncEvent(INVOKEVIRTUAL virtualIns, int line, ThreadInfo ti, String synctype)
+	protected void logPOSyncEvent(INVOKEVIRTUAL virtualIns, int line, ThreadInfo ti, SymbEvent.Kind synctype)
 	{
 		String tid = ti.getName();
 		String child = pointerToVM.getThreadList().getThreadInfoForObjRef(virtualIns.getCalleeThis(ti)).getName();
@@ -1468,10 +1755,10 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 			return;
 
 		//lazy way of making sure that we don't log the fork operation when states backtrack
-		String symbvar = "S-"+synctype+"_"+child+"-"+tid;
+		//String symbvar = "S-"+synctype+"_"+child+"-"+tid;
 		//if(isNewSymbolicVar(virtualIns.getFileLocation(), (symbvar+"-"),tid)){
 			//log event
-			String event = Utilities.getFileShortName(virtualIns.getFileLocation()).replace(':', '@')+":S-"+synctype+"_"+child+"-"+tid;
+			SymbEvent event = SymbEvent.sync(synctype, SymbEvent.location(virtualIns), child, tid);
 			logSymbEvent(ti.getName(), event);		
 
 			if(DEBUG) 
@@ -1480,29 +1767,23 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 	}
 
 
-	protected void logLockSyncEvent(Instruction virtualIns, int line, ThreadInfo ti, String synctype, String lockobj)
+	protected void logLockSyncEvent(Instruction virtualIns, int line, ThreadInfo ti, SymbEvent.Kind synctype, String lockobj)
 	{
 		String tid = ti.getName();
-		String file = Utilities.getFileShortName(virtualIns.getFileLocation());
+		String file = SymbEvent.location(virtualIns);
 		if(threadsFinished.contains(tid)
 				|| file.startsWith("ReentrantLock.java"))
 			return;
 
-		String symbvar = "S-"+synctype+"_"+lockobj+"-"+tid;
-
-		try{
-			if(stateOkToLog.get(getCurStateId(tid))){
-				//log event
-				String event = file.replace(':', '@')+":"+symbvar;
-				logSymbEvent(ti.getName(), event);	
-
-				if(DEBUG) 
-					System.out.println("["+getStatePathId(tid,String.valueOf(line))+"] Log event "+event);
-			}
-		}catch(NullPointerException e){
-			stateOkToLog.put(getCurStateId(tid), true);
-			
-			String event = file.replace(':', '@')+":"+symbvar;
+		long key = getCurStateKey(tid);
+		Boolean okToLog = states.getOkToLog(key);
+		if(okToLog == null){
+			states.setOkToLog(key, true);
+			okToLog = true;
+		}
+		if(okToLog){
+			//log event
+			SymbEvent event = SymbEvent.sync(synctype, file, lockobj, tid);
 			logSymbEvent(ti.getName(), event);	
 
 			if(DEBUG) 
@@ -1515,17 +1796,18 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 		if(threadsFinished.contains(tid))
 			return;
 
-		String event = "branch-"+tid;
-		getCurStateInfo(tid).symbTrace += event+"\n";
+		StateInfo curState = getCurStateInfo(tid);
+		curState.symbTrace = curState.symbTrace.append(SymbEvent.branch(tid));
 
 	}
 
-	protected void logSymbEvent(String tid, String event)
+	protected void logSymbEvent(String tid, SymbEvent event)
 	{
 		if(threadsFinished.contains(tid))
 			return;
 		
-		getCurStateInfo(tid).symbTrace += event+"\n";
+		StateInfo curState = getCurStateInfo(tid);
+		curState.symbTrace = curState.symbTrace.append(event);
 	}
 
 	/**
@@ -1545,12 +1827,14 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 		if(curState.symbTrace.isEmpty()) //the log is empty
 			return true;
 		
-		int end = curState.symbTrace.indexOf("\n");
-		String firstLine = curState.symbTrace.substring(0, end);
-		if(firstLine.contains("<assertThread_")) //for the trace of the assertion thread, the start event is in the second line
+		SymbEvent[] events = curState.symbTrace.getEvents();
+		SymbEvent first = events[0];
+		if((first.kind == SymbEvent.Kind.ASSERT_OK || first.kind == SymbEvent.Kind.ASSERT_FAIL)
+				&& events.length > 1) //for the trace of the assertion thread, the start event is in the second line
 		{
-			firstLine = curState.symbTrace.substring(end+1, curState.symbTrace.indexOf("\n", end+1));
+			first = events[1];
 		}
+		String firstLine = first.toString();
 		if(tid.equals("0") || (!tid.equals("0") && firstLine.contains("start"))
 				|| firstLine.contains("R-val$pool_704-1-1") //for pool107 -> ugly!!! FIX THIS IN JPF
 				){
@@ -1588,41 +1872,35 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 		String oldpath = curState.pathid;
 		curState.pathid += decision;
 
-		try{
-			//copy the path conditions from the previous path id to the new one
-			ArrayList<String> pathT = new ArrayList<String>();
-			pathT.addAll(pathPerThread.get(tid+"_"+oldpath));
-			pathPerThread.put(tid+"_"+curState.pathid, pathT);
-		}
-		catch(NullPointerException e){
-			ArrayList<String> pathT = new ArrayList<String>();
-			pathPerThread.put(tid+"_"+curState.pathid, pathT);
-		}
-			
+		//copy the path conditions from the previous path id to the new one
+		int slot = states.slot(tid);
+		ArrayList<String> pathT = new ArrayList<String>();
+		List<String> oldConds = states.getPathConditions(slot, oldpath);
+		if(oldConds != null)
+			pathT.addAll(oldConds);
+		states.putPathConditions(slot, curState.pathid, pathT);
+
 	}
 
+	/**
+	 * Returns the "thread id_state id" string of the current state (only used for debug output; the state
+	 * information is indexed by getCurStateKey).
+	 */
 	public String getCurStateId(String tid){
 		String ret = tid+"_"+pointerToSS.getId();
 		return ret;
 	}
 	
+	public long getCurStateKey(String tid){
+		return states.key(tid, pointerToSS.getId());
+	}
+	
 	public String getPrevStateId(String tid){
-		return prevState.get(tid);
+		return states.keyToString(states.getPrevState(states.slot(tid)));
 	}
 	
 	public StateInfo getCurStateInfo(String tid){
-		try{
-			return mapStateInfo.get(getCurStateId(tid)).get(0);	
-		}
-		catch(NullPointerException e){
-			StateInfo s = new StateInfo();
-			s.tid = tid;
-			s.jpfid = pointerToSS.getId();
-			ArrayList<StateInfo> l = new ArrayList<StateInfo>();
-			l.add(s);
-			mapStateInfo.put(getCurStateId(tid), l);
-			return s;
-		}
+		return states.getOrCreateStateInfo(tid, pointerToSS.getId());
 	}
 
 	
@@ -1632,27 +1910,28 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 	 */
 	public void copyParentStateInfo(String tid){
 		
-		try{
-			String parKey = getPrevStateId(tid);
-			String curKey = getCurStateId(tid);
-			stateTree.put(curKey, parKey);
-			
+		long parKey = states.getPrevState(states.slot(tid));
+		long curKey = getCurStateKey(tid);
+		states.setParent(curKey, parKey);
+		
+		List<StateInfo> parInfos = states.getStateInfos(parKey);
+		if(parInfos != null){
 			//copy parent state to the new state
-			StateInfo parState = mapStateInfo.get(parKey).get(0);
+			StateInfo parState = parInfos.get(0);
 			ArrayList<StateInfo> l = new ArrayList<StateInfo>();
 			l.add(new StateInfo(pointerToSS.getId(), parState));
-			mapStateInfo.put(curKey, l); 	
+			states.putStateInfos(curKey, l); 	
 			System.out.println(" -- "+getCurStateInfo(tid).toString());
 			
-			threadsStarted.add(curKey); //to avoid tracing the start event more than once
+			states.setStarted(curKey); //to avoid tracing the start event more than once
 		}
-		catch(NullPointerException e){  //there is no parent state
+		else{  //there is no parent state
 			StateInfo s = new StateInfo();
 			s.tid = tid;
 			s.jpfid = pointerToSS.getId();
 			ArrayList<StateInfo> l = new ArrayList<StateInfo>();
 			l.add(s);
-			mapStateInfo.put(getCurStateId(tid), l);
+			states.putStateInfos(curKey, l);
 			System.out.println(" -- (no parent state) "+getCurStateInfo(tid).toString());
 		}
 	}
@@ -1660,20 +1939,21 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 	/**
 	 * Backtracks the state, which corresponds to copying the information (i.e. path id, symbolic trace, bbs reached) 
 	 * from the parent state to the current state. This method differs from "copyParentStateInfo" because it does not
-	 * update stateTree.
+	 * update the parent of the state.
 	 * @param tid
 	 */
 	public void backtrackStateInfo(String tid){
 		
-		String curKey = getCurStateId(tid);
+		long curKey = getCurStateKey(tid);
 		StateInfo curState = getCurStateInfo(tid);
+		List<StateInfo> infos = states.getStateInfos(curKey);
 
 		//make sure that we backtrack to the correct previous state
 		int i = 0;
-		if(mapStateInfo.get(curKey).size() > 1){  //if the current state has crossed any branches, backtrack to the original state
+		if(infos.size() > 1){  //if the current state has crossed any branches, backtrack to the original state
 			i = 1;
 		}
-		StateInfo prevState = mapStateInfo.get(curKey).get(i);
+		StateInfo prevState = infos.get(i);
 		//System.out.println("BACKTRACK to previous["+i+"]: "+prevState.toString());
 		
 		//if prevState and curState have the same number of BBs reached, but curState has a longer 
@@ -1690,8 +1970,8 @@ public class SymbiosisListener extends PropertyListenerAdapter{
 		if(curState.hitAssert)
 			prevState.hitAssert = true;
 		
-		mapStateInfo.get(curKey).set(0, new StateInfo(pointerToSS.getId(), prevState));
-		System.out.println(" -- "+getCurStateInfo(tid).toString()+"  mapStateInfo["+curKey+"].size = "+mapStateInfo.get(curKey).size());
+		infos.set(0, new StateInfo(pointerToSS.getId(), prevState));
+		System.out.println(" -- "+getCurStateInfo(tid).toString()+"  mapStateInfo["+states.keyToString(curKey)+"].size = "+infos.size());
 	}
 	
 	public String getPathConditionConstraint(String tid, JVM vm){
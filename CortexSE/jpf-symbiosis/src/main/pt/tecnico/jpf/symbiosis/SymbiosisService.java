@@ -0,0 +1,187 @@
+package pt.tecnico.jpf.symbiosis;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.JPFShell;
+import gov.nasa.jpf.jvm.RestorableVMState;
+import gov.nasa.jpf.search.heuristic.HeuristicSearch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import pt.tecnico.jpf.symbiosis.util.Utilities;
+
+/**
+ * JPF shell that keeps a JVM alive to serve the branch flip requests of the exploration mode (CortexSolver -e),
+ * instead of launching a new JVM (and waiting for a fixed timeout) per flip. The host classes stay loaded and the
+ * BB trace is only parsed once (see SymbiosisListener.loadBBTrace), while each request is run by a fresh JPF object.
+ * When the previous request flipped a later branch of the same thread and trace, the JPF object is kept instead,
+ * and the search resumes from the snapshot of the last branch before the flip (see BranchSnapshots), rather than
+ * replaying the whole guided prefix. "symbiosis.snapshots" (16 by default) bounds the number of snapshots kept.
+ *
+ * Protocol (one request per line on stdin):
+ *   flip [tid] [branch] [trace]  - symbolically executes the trace (by default, the "symbiosis.bbtrace" of the .jpf file)
+ *                                  with the given branch of thread tid flipped, as a "cortex.flipfile" with the line "tid branch"
+ *   quit                         - stops the service
+ * As JPF also writes to stdout, the replies are the lines starting with "[SymbiosisService]":
+ *   ready                        - the service is waiting for requests
+ *   trace [path]                 - a symbolic trace stored by the request (one line per trace)
+ *   done [status] [n] [time]s    - the request finished with status ok, error (JPF found an error), timeout
+ *                                  ("symbiosis.service.timeout" seconds, 0 = no timeout) or failed; n is the number of traces stored
+ * A request that times out is stopped at its next transition. If it does not stop within "symbiosis.service.grace" seconds
+ * (10 by default), the service replies and exits, as the next request cannot run while it is still running.
+ *
+ * Usage: RunJPF.jar +shell=pt.tecnico.jpf.symbiosis.SymbiosisService [+symbiosis.service.timeout=secs] [file.jpf]
+ * @author nunomachado
+ *
+ */
+public class SymbiosisService implements JPFShell {
+
+	public static final String REPLY = "[SymbiosisService]";
+
+	private final Config config;
+	private JPF jpf;				//JPF object of the last request
+	private String jpfTrace;		//BB trace of the last request
+	private long grace;				//time (in ms) a timed out request has to stop
+
+	public SymbiosisService(Config conf)
+	{
+		config = conf;
+	}
+
+	public void start(String[] args)
+	{
+		long timeout = config.getInt("symbiosis.service.timeout", 0) * 1000L;
+		grace = config.getInt("symbiosis.service.grace", 10) * 1000L;
+		SymbiosisListener.batchMode = true;
+		if(config.getString("symbiosis.snapshots") == null)
+			config.setProperty("symbiosis.snapshots", "16");
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		try{
+			reply("ready");
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				String[] vals = line.trim().split("\\s+");
+				if(vals[0].equals("quit"))
+					break;
+				else if(vals[0].equals("flip") && (vals.length == 3 || vals.length == 4))
+					flip(vals[1], vals[2], (vals.length == 4 ? vals[3] : null), timeout);
+				else if(!vals[0].isEmpty())
+					reply("done failed 0 0s (unknown request: "+line+")");
+			}
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Runs JPF with a branch of a thread flipped and replies with the stored symbolic traces.
+	 * @param tid
+	 * @param branch
+	 * @param trace BB trace (null to use the one of the configuration)
+	 * @param timeout in milliseconds (0 = no timeout)
+	 */
+	private void flip(String tid, String branch, String trace, long timeout)
+	{
+		long startTime = System.nanoTime();
+		config.setProperty("cortex.flip", tid+" "+branch);
+		if(trace != null)
+			config.setProperty("symbiosis.bbtrace", trace);
+		SymbiosisBatch.reset();
+
+		final RestorableVMState snapshot = getSnapshot(tid, branch);
+		if(snapshot == null)
+		{
+			try{
+				jpf = new JPF(config);
+				jpfTrace = config.getString("symbiosis.bbtrace");
+			}
+			catch(Exception e){
+				e.printStackTrace();
+				jpf = null;
+				reply("done failed 0 0s");
+				return;
+			}
+		}
+
+		final JPF jpf = this.jpf;
+		final Exception[] failure = new Exception[1];
+		Thread runner = new Thread(){
+			public void run(){
+				try{
+					if(snapshot != null)
+						((HeuristicSearch) jpf.getSearch()).searchFrom(snapshot);
+					else
+						jpf.run();
+				}
+				catch(Exception e){
+					failure[0] = e;
+				}
+			}
+		};
+		runner.start();
+
+		String status;
+		try{
+			runner.join(timeout);
+			if(runner.isAlive()){
+				//stop the search at the next transition, so that the next request does not run concurrently
+				status = "timeout";
+				jpf.getSearch().terminate();
+				runner.join(grace);
+				if(runner.isAlive()){
+					//stuck within a transition: the service cannot serve more requests
+					reply("done timeout "+Utilities.storedFiles.size()+" "+((double)(System.nanoTime() - startTime)/1000000000)+"s");
+					System.exit(1);
+				}
+			}
+			else if(failure[0] != null){
+				status = "failed";
+				failure[0].printStackTrace();
+			}
+			else
+				status = (jpf.foundErrors() ? "error" : "ok");
+		}
+		catch(InterruptedException e){
+			status = "failed";
+		}
+
+		for(String file : Utilities.storedFiles)
+			reply("trace "+file);
+		double time = (((double)(System.nanoTime() - startTime)/1000000000));
+		reply("done "+status+" "+Utilities.storedFiles.size()+" "+time+"s");
+	}
+
+	/**
+	 * Returns the snapshot from which the JPF object of the last request can resume a new flip, or null if there is none.
+	 * @param tid
+	 * @param branch
+	 * @return
+	 */
+	private RestorableVMState getSnapshot(String tid, String branch)
+	{
+		if(jpf == null || !(jpf.getSearch() instanceof HeuristicSearch)
+				|| !config.getString("symbiosis.bbtrace").equals(jpfTrace))
+			return null;
+
+		SymbiosisListener listener = jpf.getListenerOfType(SymbiosisListener.class);
+		if(listener == null)
+			return null;
+		try{
+			return listener.resumeFlip(tid, Integer.parseInt(branch));
+		}
+		catch(NumberFormatException e){
+			return null;
+		}
+	}
+
+	private static void reply(String msg)
+	{
+		System.out.println(REPLY+" "+msg);
+		System.out.flush();
+	}
+}
@@ -0,0 +1,66 @@
+package pt.tecnico.jpf.symbiosis.util;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Converts a production trace in the binary format into the text format ("tid bbid" per line).
+ * Usage: BinaryToTextTrace [binary-trace] [text-trace]
+ * (the inverse conversion is provided by pt.tecnico.symbiosis.runtime.TextToBinaryTrace, in CortexRuntime)
+ * @author nunomachado
+ *
+ */
+public class BinaryToTextTrace {
+
+	public static void main(String[] args)
+	{
+		if(args.length != 2)
+		{
+			System.out.println("usage: BinaryToTextTrace [binary-trace] [text-trace]");
+			return;
+		}
+
+		try{
+			convert(args[0], args[1]);
+			System.out.println("[SymbiosisJPF] Converted "+args[0]+" -> "+args[1]);
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Converts a binary trace into the text format.
+	 * @param binfile
+	 * @param textfile
+	 * @throws IOException
+	 */
+	public static void convert(String binfile, String textfile) throws IOException
+	{
+		BinaryTraceReader reader = new BinaryTraceReader(binfile);
+		BufferedWriter bw = new BufferedWriter(new FileWriter(textfile));
+
+		if(reader.isPartial())
+			bw.write("#partial\n");
+
+		List<String> threads = reader.getThreads();
+		for(int slot = 0; slot < threads.size(); slot++)
+		{
+			String tid = threads.get(slot);
+			long[] path = reader.getPath(slot);
+			boolean isAssertThread = tid.equals(reader.getAssertThread());
+			for(int i = 0; i < path.length; i++)
+			{
+				if(isAssertThread && i == reader.getAssertPosition())
+					bw.write("["+tid+" "+path[i]+"]\n"); //mark the basic block corresponding to the assertion with [ ]
+				else
+					bw.write(tid+" "+path[i]+"\n");
+			}
+			if(reader.getSkippedBefore(slot) > 0 || reader.getSkippedAfter(slot) > 0)
+				bw.write("#skipped "+tid+" "+reader.getSkippedBefore(slot)+" "+reader.getSkippedAfter(slot)+"\n");
+		}
+		bw.close();
+	}
+}
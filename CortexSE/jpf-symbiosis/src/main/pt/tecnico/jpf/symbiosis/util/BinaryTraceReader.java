@@ -0,0 +1,329 @@
+package pt.tecnico.jpf.symbiosis.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader for the binary production trace format written by
+ * pt.tecnico.symbiosis.runtime.BinaryTraceWriter (CortexRuntime).
+ * The whole file is memory-mapped and decoded in a single pass.
+ * @author nunomachado
+ *
+ */
+public class BinaryTraceReader {
+
+	public static final byte[] MAGIC = {'C','X','B','T'};
+	public static final byte VERSION = 1;
+
+	public static final byte TAG_END = 0;
+	public static final byte TAG_THREAD = 1;
+	public static final byte TAG_BLOCKS = 2;
+	public static final byte TAG_ASSERT = 3;
+	public static final byte TAG_SKIPPED = 4;
+
+	public static final int FLAG_PARTIAL = 1;
+
+	private static final long INITIAL_HASH = 0xcbf29ce484222325L;
+	private static final long HASH_PRIME = 0x100000001b3L;
+
+	private final ArrayList<String> threads;	//slot -> thread id
+	private final ArrayList<long[]> paths;		//slot -> basic block ids
+	private final ArrayList<Integer> sizes;		//slot -> number of basic block ids in the path
+	private final ArrayList<long[]> skipped;	//slot -> number of blocks not recorded before and after the path
+	private int flags;
+	private int assertSlot;
+	private int assertPos;
+	private long hash;
+	private boolean complete;					//false if the trailer is missing (e.g. the run crashed)
+	private int length;							//number of bytes decoded, i.e. up to the end of the last complete record
+
+	public BinaryTraceReader(String fname) throws IOException
+	{
+		threads = new ArrayList<String>();
+		paths = new ArrayList<long[]>();
+		sizes = new ArrayList<Integer>();
+		skipped = new ArrayList<long[]>();
+		assertSlot = -1;
+		assertPos = -1;
+		complete = false;
+
+		RandomAccessFile file = new RandomAccessFile(fname, "r");
+		try{
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			parse(buf);
+		}
+		finally{
+			file.close();
+		}
+	}
+
+	/**
+	 * Returns true if the file starts with the magic number of the binary trace format.
+	 * @param fname
+	 * @return
+	 */
+	public static boolean isBinaryTrace(String fname)
+	{
+		try{
+			FileInputStream in = new FileInputStream(fname);
+			byte[] header = new byte[MAGIC.length];
+			int n = in.read(header);
+			in.close();
+			if(n != MAGIC.length)
+				return false;
+			for(int i = 0; i < MAGIC.length; i++){
+				if(header[i] != MAGIC[i])
+					return false;
+			}
+			return true;
+		}
+		catch(IOException e){
+			return false;
+		}
+	}
+
+	/**
+	 * Decodes the records of the trace. Each record only takes effect once it was completely read,
+	 * so a truncated file (e.g. the production run crashed while writing it) is decoded up to its
+	 * last complete record and is reported as not complete.
+	 */
+	private void parse(MappedByteBuffer buf) throws IOException
+	{
+		try{
+			for(int i = 0; i < MAGIC.length; i++){
+				if(buf.get() != MAGIC[i])
+					throw new IOException("not a binary trace file");
+			}
+			byte version = buf.get();
+			if(version != VERSION)
+				throw new IOException("unsupported binary trace version "+version);
+			flags = buf.get();
+		}
+		catch(BufferUnderflowException e){
+			throw new IOException("not a binary trace file (truncated header)");
+		}
+		length = buf.position();
+
+		ArrayList<Long> lastBB = new ArrayList<Long>();
+		ArrayList<Long> hashes = new ArrayList<Long>();	//slot -> rolling hash of the thread's path
+		try{
+			while(buf.hasRemaining())
+			{
+				byte tag = buf.get();
+				if(tag == TAG_THREAD){
+					int slot = (int) getVarint(buf);
+					int len = (int) getVarint(buf);
+					if(slot < 0 || len < 0 || len > buf.remaining())
+						break; //truncated (or garbage) record
+					byte[] name = new byte[len];
+					buf.get(name);
+					while(threads.size() <= slot){
+						threads.add(null);
+						paths.add(new long[16]);
+						sizes.add(0);
+						skipped.add(new long[2]);
+						lastBB.add(0L);
+						hashes.add(0L);
+					}
+					String tid = new String(name, "UTF-8");
+					threads.set(slot, tid);
+					hashes.set(slot, (INITIAL_HASH ^ tid.hashCode()) * HASH_PRIME);
+				}
+				else if(tag == TAG_BLOCKS){
+					int slot = checkSlot(getVarint(buf));
+					int count = (int) getVarint(buf);
+					if(count < 0 || count > buf.remaining())
+						break; //each block takes at least one byte, so the record is truncated (or garbage)
+					long[] path = paths.get(slot);
+					int size = sizes.get(slot);
+					if(size + count > path.length){
+						long[] tmp = new long[Math.max(path.length*2, size+count)];
+						System.arraycopy(path, 0, tmp, 0, size);
+						path = tmp;
+						paths.set(slot, path);
+					}
+					long prev = lastBB.get(slot);
+					long rollingHash = hashes.get(slot);
+					for(int i = 0; i < count; i++){
+						long zz = getVarint(buf);
+						prev += (zz >>> 1) ^ -(zz & 1); //undo zigzag encoding
+						path[size++] = prev;
+						rollingHash = (rollingHash ^ prev) * HASH_PRIME;
+					}
+					sizes.set(slot, size);
+					lastBB.set(slot, prev);
+					hashes.set(slot, rollingHash);
+				}
+				else if(tag == TAG_ASSERT){
+					int slot = checkSlot(getVarint(buf));
+					int pos = (int) getVarint(buf);
+					assertSlot = slot;
+					assertPos = pos;
+				}
+				else if(tag == TAG_SKIPPED){
+					int slot = checkSlot(getVarint(buf));
+					long before = getVarint(buf);
+					long after = getVarint(buf);
+					skipped.get(slot)[0] = before;
+					skipped.get(slot)[1] = after;
+				}
+				else if(tag == TAG_END){
+					long rollingHash = sumHashes(hashes);
+					long storedHash = buf.getLong();
+					getVarint(buf); //total number of blocks
+					hash = storedHash;
+					complete = true;
+					length = buf.position();
+					if(hash != rollingHash)
+						System.out.println("[SymbiosisJPF] WARNING: binary trace hash mismatch (stored: "+hash+", computed: "+rollingHash+")");
+					break;
+				}
+				else{
+					throw new IOException("corrupted binary trace (unknown record "+tag+")");
+				}
+				length = buf.position();
+			}
+		}
+		catch(BufferUnderflowException e){
+			//the last record is incomplete: the trace ends with the previous one
+		}
+		if(!complete)
+			hash = sumHashes(hashes);
+	}
+
+	private int checkSlot(long slot) throws IOException
+	{
+		if(slot < 0 || slot >= threads.size() || threads.get((int) slot) == null)
+			throw new IOException("corrupted binary trace (unknown thread slot "+slot+")");
+		return (int) slot;
+	}
+
+	/**
+	 * The hash of the execution path is the sum of the threads' hashes (see pt.tecnico.symbiosis.runtime.TraceWriter).
+	 */
+	private static long sumHashes(List<Long> hashes)
+	{
+		long sum = 0;
+		for(long h : hashes)
+			sum += h;
+		return sum;
+	}
+
+	private static long getVarint(MappedByteBuffer buf)
+	{
+		long v = 0;
+		int shift = 0;
+		byte b;
+		do{
+			b = buf.get();
+			v |= ((long)(b & 0x7F)) << shift;
+			shift += 7;
+		}while((b & 0x80) != 0);
+		return v;
+	}
+
+	/**
+	 * Returns the thread ids in the order in which they appear in the trace.
+	 * @return
+	 */
+	public List<String> getThreads()
+	{
+		return threads;
+	}
+
+	/**
+	 * Returns the basic block ids of a given thread (by slot), trimmed to the path's length.
+	 * @param slot
+	 * @return
+	 */
+	public long[] getPath(int slot)
+	{
+		int size = sizes.get(slot);
+		long[] path = paths.get(slot);
+		if(path.length != size){
+			long[] tmp = new long[size];
+			System.arraycopy(path, 0, tmp, 0, size);
+			path = tmp;
+			paths.set(slot, path);
+		}
+		return path;
+	}
+
+	/**
+	 * Returns the thread id of the thread that executed the assertion, or null if there is none.
+	 * @return
+	 */
+	public String getAssertThread()
+	{
+		return (assertSlot < 0 ? null : threads.get(assertSlot));
+	}
+
+	/**
+	 * Returns the position of the assertion block in the assertion thread's path.
+	 * @return
+	 */
+	public int getAssertPosition()
+	{
+		return assertPos;
+	}
+
+	/**
+	 * Returns the number of blocks executed by a thread (by slot) before the first block of its path, which were not recorded.
+	 * @param slot
+	 * @return
+	 */
+	public long getSkippedBefore(int slot)
+	{
+		return skipped.get(slot)[0];
+	}
+
+	/**
+	 * Returns the number of blocks executed by a thread (by slot) after the last block of its path, which were not recorded.
+	 * @param slot
+	 * @return
+	 */
+	public long getSkippedAfter(int slot)
+	{
+		return skipped.get(slot)[1];
+	}
+
+	/**
+	 * Returns true if the threads' paths may be incomplete (sampled, budgeted or ring-buffer recording).
+	 * @return
+	 */
+	public boolean isPartial()
+	{
+		return (flags & FLAG_PARTIAL) != 0;
+	}
+
+	public int getFlags()
+	{
+		return flags;
+	}
+
+	public long getHash()
+	{
+		return hash;
+	}
+
+	public boolean isComplete()
+	{
+		return complete;
+	}
+
+	/**
+	 * Returns the number of bytes of the file that were decoded, i.e. up to the end of the last complete record.
+	 * @return
+	 */
+	public int getLength()
+	{
+		return length;
+	}
+}
@@ -0,0 +1,95 @@
+package pt.tecnico.jpf.symbiosis.util;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive longs to primitive longs, with open addressing (linear probing), so that lookups
+ * neither box the key nor allocate entries. Long.MIN_VALUE is reserved and cannot be used as a key.
+ * @author nunomachado
+ *
+ */
+public class LongLongMap {
+
+	private static final long FREE = Long.MIN_VALUE;
+
+	private long[] keys;
+	private long[] vals;
+	private int size;
+
+	public LongLongMap()
+	{
+		this(16);
+	}
+
+	public LongLongMap(int capacity)
+	{
+		int n = 16;
+		while(n < (capacity << 1))
+			n <<= 1;
+		keys = new long[n];
+		vals = new long[n];
+		Arrays.fill(keys, FREE);
+	}
+
+	private int indexOf(long key)
+	{
+		int mask = keys.length - 1;
+		int i = LongObjectMap.hash(key) & mask;
+		while(keys[i] != key && keys[i] != FREE)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * Returns the value of a key, or missing if the key is not in the map.
+	 */
+	public long get(long key, long missing)
+	{
+		if(key == FREE)
+			return missing;
+		int i = indexOf(key);
+		return (keys[i] == key ? vals[i] : missing);
+	}
+
+	public boolean containsKey(long key)
+	{
+		return key != FREE && keys[indexOf(key)] == key;
+	}
+
+	public void put(long key, long val)
+	{
+		if(key == FREE)
+			throw new IllegalArgumentException("reserved key");
+		int i = indexOf(key);
+		if(keys[i] == key){
+			vals[i] = val;
+			return;
+		}
+		keys[i] = key;
+		vals[i] = val;
+		if(++size << 1 > keys.length)
+			rehash();
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	private void rehash()
+	{
+		long[] oldKeys = keys;
+		long[] oldVals = vals;
+		keys = new long[oldKeys.length << 1];
+		vals = new long[oldKeys.length << 1];
+		Arrays.fill(keys, FREE);
+		for(int j = 0; j < oldKeys.length; j++)
+		{
+			if(oldKeys[j] != FREE){
+				int i = indexOf(oldKeys[j]);
+				keys[i] = oldKeys[j];
+				vals[i] = oldVals[j];
+			}
+		}
+	}
+}
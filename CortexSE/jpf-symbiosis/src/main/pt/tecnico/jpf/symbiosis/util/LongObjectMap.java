@@ -0,0 +1,102 @@
+package pt.tecnico.jpf.symbiosis.util;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive longs to objects, with open addressing (linear probing), so that lookups
+ * neither box the key nor allocate entries. Long.MIN_VALUE is reserved and cannot be used as a key.
+ * @author nunomachado
+ *
+ */
+public class LongObjectMap<V> {
+
+	private static final long FREE = Long.MIN_VALUE;
+
+	private long[] keys;
+	private Object[] vals;
+	private int size;
+
+	public LongObjectMap()
+	{
+		this(16);
+	}
+
+	public LongObjectMap(int capacity)
+	{
+		int n = 16;
+		while(n < (capacity << 1))
+			n <<= 1;
+		keys = new long[n];
+		vals = new Object[n];
+		Arrays.fill(keys, FREE);
+	}
+
+	static int hash(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private int indexOf(long key)
+	{
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while(keys[i] != key && keys[i] != FREE)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(long key)
+	{
+		if(key == FREE)
+			return null;
+		int i = indexOf(key);
+		return (keys[i] == key ? (V) vals[i] : null);
+	}
+
+	public boolean containsKey(long key)
+	{
+		return key != FREE && keys[indexOf(key)] == key;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V put(long key, V val)
+	{
+		if(key == FREE)
+			throw new IllegalArgumentException("reserved key");
+		int i = indexOf(key);
+		if(keys[i] == key){
+			V old = (V) vals[i];
+			vals[i] = val;
+			return old;
+		}
+		keys[i] = key;
+		vals[i] = val;
+		if(++size << 1 > keys.length)
+			rehash();
+		return null;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	private void rehash()
+	{
+		long[] oldKeys = keys;
+		Object[] oldVals = vals;
+		keys = new long[oldKeys.length << 1];
+		vals = new Object[oldKeys.length << 1];
+		Arrays.fill(keys, FREE);
+		for(int j = 0; j < oldKeys.length; j++)
+		{
+			if(oldKeys[j] != FREE){
+				int i = indexOf(oldKeys[j]);
+				keys[i] = oldKeys[j];
+				vals[i] = oldVals[j];
+			}
+		}
+	}
+}
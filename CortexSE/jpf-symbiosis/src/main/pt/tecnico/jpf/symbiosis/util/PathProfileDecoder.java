@@ -0,0 +1,239 @@
+package pt.tecnico.jpf.symbiosis.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Decodes production traces recorded in path profiling mode (CortexTransformer --path-profile),
+ * where each thread's path is a sequence of Ball-Larus paths: -(methodId+1) followed by the path id,
+ * into the corresponding sequence of basic block ids. Plain basic block ids (methods that the
+ * transformer instrumented with symbiosisBBEntry) are kept as they are.
+ *
+ * The path graphs are read from the [main-class].paths file written by the transformer
+ * (see pt.tecnico.symbiosis.transformer.PathProfiler). A path id is decoded by walking the graph from ENTRY,
+ * taking at each node the out-edge with the largest value that does not exceed the remaining id.
+ * A path ended by an exception takes the edge from the segment where it was thrown to EXIT, so it only
+ * contains the blocks entered before the exception.
+ *
+ * Usage: PathProfileDecoder [paths-file] [trace] [text-trace]
+ * @author nunomachado
+ *
+ */
+public class PathProfileDecoder {
+
+	private static final int ENTRY = 0;
+	private static final int EXIT = 1;
+
+	private static class MethodGraph {
+		long[] nodeBB;		//node -> basic block id (-1 if the node does not correspond to entering a block)
+		int[][] succs;		//node -> target nodes of the out-edges, in increasing order of value
+		long[][] vals;		//node -> values of the out-edges
+	}
+
+	private final HashMap<Long, MethodGraph> methods;
+
+	public PathProfileDecoder(String fname) throws IOException
+	{
+		methods = new HashMap<Long, MethodGraph>();
+
+		BufferedReader br = new BufferedReader(new FileReader(fname));
+		MethodGraph m = null;
+		ArrayList<List<long[]>> out = null;
+		String line;
+		while((line = br.readLine()) != null)
+		{
+			String[] vals = line.split(" ");
+			if(vals[0].equals("method")){
+				if(m != null)
+					buildEdges(m, out);
+				m = new MethodGraph();
+				int nnodes = Integer.parseInt(vals[2]);
+				m.nodeBB = new long[nnodes];
+				Arrays.fill(m.nodeBB, -1);
+				out = new ArrayList<List<long[]>>(nnodes);
+				for(int n = 0; n < nnodes; n++)
+					out.add(new ArrayList<long[]>());
+				methods.put(Long.parseLong(vals[1]), m);
+			}
+			else if(vals[0].equals("n")){
+				m.nodeBB[Integer.parseInt(vals[1])] = Long.parseLong(vals[2]);
+			}
+			else if(vals[0].equals("e")){
+				out.get(Integer.parseInt(vals[1])).add(new long[]{Long.parseLong(vals[2]), Long.parseLong(vals[3])});
+			}
+		}
+		if(m != null)
+			buildEdges(m, out);
+		br.close();
+	}
+
+	private static void buildEdges(MethodGraph m, List<List<long[]>> out)
+	{
+		m.succs = new int[out.size()][];
+		m.vals = new long[out.size()][];
+		for(int n = 0; n < out.size(); n++)
+		{
+			List<long[]> edges = out.get(n);
+			m.succs[n] = new int[edges.size()];
+			m.vals[n] = new long[edges.size()];
+			for(int i = 0; i < edges.size(); i++){
+				m.succs[n][i] = (int) edges.get(i)[0];
+				m.vals[n][i] = edges.get(i)[1];
+			}
+		}
+	}
+
+	/**
+	 * Appends the basic block ids of a path to bbs.
+	 * @param methodId
+	 * @param pathId
+	 * @param bbs
+	 */
+	public void decodePath(long methodId, long pathId, List<Long> bbs)
+	{
+		MethodGraph m = methods.get(methodId);
+		if(m == null)
+			throw new IllegalArgumentException("unknown method id "+methodId+" (path profile does not match the trace)");
+
+		int node = ENTRY;
+		long rem = pathId;
+		while(node != EXIT)
+		{
+			long[] vals = m.vals[node];
+			if(vals.length == 0 || rem < 0)
+				throw new IllegalArgumentException("invalid path id "+pathId+" for method "+methodId);
+
+			//out-edge with the largest value <= rem
+			int lo = 0, hi = vals.length-1;
+			while(lo < hi){
+				int mid = (lo + hi + 1) >>> 1;
+				if(vals[mid] <= rem)
+					lo = mid;
+				else
+					hi = mid - 1;
+			}
+			rem -= vals[lo];
+			node = m.succs[node][lo];
+			if(node != EXIT && m.nodeBB[node] >= 0)
+				bbs.add(m.nodeBB[node]);
+		}
+	}
+
+	/**
+	 * Decodes the first n entries of a thread's recorded path into basic block ids.
+	 * @param path
+	 * @param n
+	 * @return
+	 */
+	public ArrayList<Long> decode(long[] path, int n)
+	{
+		ArrayList<Long> bbs = new ArrayList<Long>(n);
+		for(int i = 0; i < n; i++)
+		{
+			if(path[i] >= 0)
+				bbs.add(path[i]);
+			else if(i+1 < n)
+				decodePath(-path[i]-1, path[++i], bbs);
+			//(a path marker without a path id means that the trace was truncated)
+		}
+		return bbs;
+	}
+
+	public static void main(String[] args)
+	{
+		if(args.length != 3)
+		{
+			System.out.println("usage: PathProfileDecoder [paths-file] [trace] [text-trace]");
+			return;
+		}
+
+		try{
+			PathProfileDecoder decoder = new PathProfileDecoder(args[0]);
+			decoder.convert(args[1], args[2]);
+			System.out.println("[SymbiosisJPF] Decoded "+args[1]+" -> "+args[2]);
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Decodes a path profiling trace (binary or text format) into a basic block trace in the text format.
+	 * @param tracefile
+	 * @param textfile
+	 * @throws IOException
+	 */
+	public void convert(String tracefile, String textfile) throws IOException
+	{
+		LinkedHashMap<String, long[]> paths = new LinkedHashMap<String, long[]>();
+		String assertThread = null;
+		int assertPos = -1;
+
+		if(BinaryTraceReader.isBinaryTrace(tracefile))
+		{
+			BinaryTraceReader reader = new BinaryTraceReader(tracefile);
+			List<String> threads = reader.getThreads();
+			for(int slot = 0; slot < threads.size(); slot++)
+				paths.put(threads.get(slot), reader.getPath(slot));
+			assertThread = reader.getAssertThread();
+			assertPos = reader.getAssertPosition();
+		}
+		else
+		{
+			LinkedHashMap<String, ArrayList<Long>> tmp = new LinkedHashMap<String, ArrayList<Long>>();
+			BufferedReader br = new BufferedReader(new FileReader(tracefile));
+			String line;
+			while((line = br.readLine()) != null)
+			{
+				if(line.startsWith("#"))
+					continue;
+				boolean isAssert = line.startsWith("[");
+				if(isAssert)
+					line = line.substring(1, line.length()-1);
+				String[] vals = line.split(" ");
+				if(!tmp.containsKey(vals[0]))
+					tmp.put(vals[0], new ArrayList<Long>());
+				tmp.get(vals[0]).add(Long.parseLong(vals[1]));
+				if(isAssert){
+					assertThread = vals[0];
+					assertPos = tmp.get(vals[0]).size()-1;
+				}
+			}
+			br.close();
+			for(Entry<String, ArrayList<Long>> entry : tmp.entrySet()){
+				long[] path = new long[entry.getValue().size()];
+				for(int i = 0; i < path.length; i++)
+					path[i] = entry.getValue().get(i);
+				paths.put(entry.getKey(), path);
+			}
+		}
+
+		BufferedWriter bw = new BufferedWriter(new FileWriter(textfile));
+		for(Entry<String, long[]> entry : paths.entrySet())
+		{
+			String tid = entry.getKey();
+			long[] path = entry.getValue();
+			ArrayList<Long> bbs = decode(path, path.length);
+			int mark = -1;
+			if(tid.equals(assertThread))
+				mark = decode(path, assertPos+1).size()-1; //last block of the assertion's path
+			for(int i = 0; i < bbs.size(); i++)
+			{
+				if(i == mark)
+					bw.write("["+tid+" "+bbs.get(i)+"]\n");
+				else
+					bw.write(tid+" "+bbs.get(i)+"\n");
+			}
+		}
+		bw.close();
+	}
+}
@@ -0,0 +1,58 @@
+package pt.tecnico.jpf.symbiosis.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Exports the symbolic trace store of a folder into the legacy layout, i.e. one "T[tid]_[execution id]_[path hash]"
+ * text file per thread path, as read by CortexSolver.
+ * Usage: SymbTraceExport [trace folder] [output folder]	(the output folder defaults to the trace folder)
+ * @author nunomachado
+ *
+ */
+public class SymbTraceExport {
+
+	public static void main(String[] args)
+	{
+		if(args.length != 1 && args.length != 2)
+		{
+			System.out.println("usage: SymbTraceExport [trace folder] [output folder]");
+			return;
+		}
+
+		try{
+			String out = (args.length == 2 ? args[1] : args[0]);
+			int n = export(args[0]+File.separator+SymbTraceStore.FILE_NAME, out);
+			System.out.println("[SymbiosisJPF] Exported "+n+" symbolic traces to "+out);
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes every trace of a store into its own file.
+	 * @param store
+	 * @param folder
+	 * @return number of traces exported
+	 * @throws IOException
+	 */
+	public static int export(String store, String folder) throws IOException
+	{
+		SymbTraceStoreReader reader = new SymbTraceStoreReader(store);
+		if(!reader.isComplete())
+			System.out.println("[SymbiosisJPF] WARNING: "+store+" ends with a truncated trace, which is not exported");
+
+		new File(folder).mkdirs();
+		for(SymbTraceStoreReader.Entry e : reader.getEntries())
+		{
+			BufferedWriter bw = new BufferedWriter(new FileWriter(folder+File.separator+SymbTraceStoreReader.getTraceFileName(e)));
+			bw.write(reader.getTrace(e));
+			bw.newLine();
+			bw.close();
+		}
+		return reader.getEntries().size();
+	}
+}
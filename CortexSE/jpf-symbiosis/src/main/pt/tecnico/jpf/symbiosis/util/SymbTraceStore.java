@@ -0,0 +1,251 @@
+package pt.tecnico.jpf.symbiosis.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.List;
+
+import pt.tecnico.jpf.symbiosis.SymbEvent;
+
+/**
+ * Writer of the symbolic trace store, a single append-only file per trace folder that replaces the
+ * "T[tid]_[execution id]_[path hash]" text files written by Utilities.storeSymbLog ("symbiosis.tracestore=true").
+ *
+ * Format (big endian):
+ *   header:  MAGIC, VERSION
+ *   records: TAG_STRING id string                               - interned part of the events, i.e. a location, variable, object,
+ *                                                                 thread id or written value (ids are sequential, starting at 0)
+ *            TAG_TRACE tid execid pathid n event_1 .. event_n cond - symbolic trace of a thread path (n events + path condition block)
+ *   where a string is an int length followed by the UTF-8 bytes, and an event (see SymbEvent) is a byte with the
+ *   ordinal of its kind (low 4 bits) and the parts it has (bits 4-7: location, name, thread id, value), followed by
+ *   the id of each of those parts as a varint.
+ * An event of a shared access thus takes 3 to 5 bytes, instead of the ~40 bytes of its text.
+ *
+ * Appends are done under a file lock, after reading the strings interned by the other writers (e.g. the batch
+ * workers) since the last append, so that all the writers share the same ids.
+ * The store is read by SymbTraceStoreReader and can be exported to the text files by SymbTraceExport.
+ * @author nunomachado
+ *
+ */
+public class SymbTraceStore {
+
+	public static final String FILE_NAME = ".symbtraces";	//hidden, so that it is not taken for a trace by the solver
+	public static final byte[] MAGIC = {'C','X','S','T'};
+	public static final byte VERSION = 2;
+
+	public static final byte TAG_STRING = 1;
+	public static final byte TAG_TRACE = 2;
+
+	public static final String COND_TAG = "<pathjpf>";	//first line of the path condition block of a trace
+
+	private final String fname;
+	private final HashMap<String, Integer> ids;		//map: event part -> id
+	private long offset;							//length of the store already read
+
+	public SymbTraceStore(String folder)
+	{
+		fname = folder+File.separator+FILE_NAME;
+		ids = new HashMap<String, Integer>();
+		offset = 0;
+	}
+
+	public String getFileName()
+	{
+		return fname;
+	}
+
+	/**
+	 * Appends the symbolic trace of a thread path.
+	 * @param tid
+	 * @param execId
+	 * @param pathid
+	 * @param events
+	 * @param cond path condition block (empty if the trace has no path conditions)
+	 * @throws IOException
+	 */
+	public synchronized void append(String tid, String execId, String pathid, SymbEvent[] events, String cond) throws IOException
+	{
+
+		RandomAccessFile file = new RandomAccessFile(fname, "rw");
+		FileLock lock = file.getChannel().lock();
+		try{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			if(file.length() == 0)
+			{
+				out.write(MAGIC);
+				out.writeByte(VERSION);
+				offset = MAGIC.length + 1;
+			}
+			else
+				refresh(file);
+
+			//the new parts are written before the trace that refers to them
+			ByteArrayOutputStream traceBytes = new ByteArrayOutputStream();
+			DataOutputStream traceOut = new DataOutputStream(traceBytes);
+			for(SymbEvent e : events)
+			{
+				int flags = (e.loc == null ? 0 : 0x10) | (e.name == null ? 0 : 0x20) | (e.tid == null ? 0 : 0x40) | (e.value == null ? 0 : 0x80);
+				traceOut.writeByte(e.kind.ordinal() | flags);
+				if(e.loc != null)
+					writeVarint(traceOut, intern(out, e.loc));
+				if(e.name != null)
+					writeVarint(traceOut, intern(out, e.name));
+				if(e.tid != null)
+					writeVarint(traceOut, intern(out, e.tid));
+				if(e.value != null)
+					writeVarint(traceOut, intern(out, e.value));
+			}
+			traceOut.flush();
+
+			out.writeByte(TAG_TRACE);
+			writeString(out, tid);
+			writeString(out, execId);
+			writeString(out, pathid);
+			out.writeInt(events.length);
+			out.write(traceBytes.toByteArray());
+			writeString(out, cond);
+			out.flush();
+
+			file.seek(file.length());
+			file.write(bytes.toByteArray());
+			offset = file.length();
+		}
+		finally{
+			lock.release();
+			file.close();
+		}
+	}
+
+	/**
+	 * Returns the id of an event part, writing it to out if it is new.
+	 * @param out
+	 * @param s
+	 * @return
+	 * @throws IOException
+	 */
+	private int intern(DataOutputStream out, String s) throws IOException
+	{
+		Integer id = ids.get(s);
+		if(id == null){
+			id = ids.size();
+			ids.put(s, id);
+			out.writeByte(TAG_STRING);
+			out.writeInt(id);
+			writeString(out, s);
+		}
+		return id;
+	}
+
+	/**
+	 * Reads the strings interned by the other writers since the last append.
+	 * @param file
+	 * @throws IOException
+	 */
+	private void refresh(RandomAccessFile file) throws IOException
+	{
+		if(offset == 0)
+			offset = MAGIC.length + 1;
+		if(file.length() <= offset)
+			return;
+
+		byte[] data = new byte[(int) (file.length() - offset)];
+		file.seek(offset);
+		file.readFully(data);
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		while(buf.hasRemaining())
+		{
+			byte tag = buf.get();
+			if(tag == TAG_STRING){
+				int id = buf.getInt();
+				ids.put(readString(buf), id);
+			}
+			else if(tag == TAG_TRACE){
+				skipString(buf);
+				skipString(buf);
+				skipString(buf);
+				skipEvents(buf, buf.getInt());
+				skipString(buf);
+			}
+			else
+				throw new IOException("Corrupted symbolic trace store "+fname+" (tag "+tag+" at "+(offset+buf.position()-1)+")");
+		}
+		offset = file.length();
+	}
+
+	static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		byte[] b = s.getBytes("UTF-8");
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	static String readString(ByteBuffer buf) throws IOException
+	{
+		byte[] b = new byte[buf.getInt()];
+		buf.get(b);
+		return new String(b, "UTF-8");
+	}
+
+	static void skipString(ByteBuffer buf)
+	{
+		int len = buf.getInt();
+		buf.position(buf.position() + len);
+	}
+
+	static void writeVarint(DataOutputStream out, int v) throws IOException
+	{
+		while((v & ~0x7F) != 0){
+			out.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	static int readVarint(ByteBuffer buf)
+	{
+		int v = 0;
+		for(int shift = 0; ; shift += 7)
+		{
+			byte b = buf.get();
+			v |= (b & 0x7F) << shift;
+			if(b >= 0)
+				return v;
+		}
+	}
+
+	/**
+	 * Decodes an event, given the interned parts of the store.
+	 * @param buf
+	 * @param strings
+	 * @return
+	 */
+	static SymbEvent readEvent(ByteBuffer buf, List<String> strings)
+	{
+		int header = buf.get() & 0xFF;
+		SymbEvent.Kind kind = SymbEvent.Kind.values()[header & 0x0F];
+		String loc = ((header & 0x10) == 0 ? null : strings.get(readVarint(buf)));
+		String name = ((header & 0x20) == 0 ? null : strings.get(readVarint(buf)));
+		String tid = ((header & 0x40) == 0 ? null : strings.get(readVarint(buf)));
+		String value = ((header & 0x80) == 0 ? null : strings.get(readVarint(buf)));
+		return new SymbEvent(kind, loc, name, tid, value);
+	}
+
+	static void skipEvents(ByteBuffer buf, int n)
+	{
+		for(int i = 0; i < n; i++)
+		{
+			int header = buf.get() & 0xFF;
+			for(int part = 0x10; part <= 0x80; part <<= 1)
+			{
+				if((header & part) != 0)
+					readVarint(buf);
+			}
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package pt.tecnico.jpf.symbiosis.util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import pt.tecnico.jpf.symbiosis.SymbEvent;
+
+/**
+ * Reader for the symbolic trace store written by SymbTraceStore.
+ * The file is memory-mapped and scanned once to decode the interned event parts and index the trace headers;
+ * the events and path conditions of a trace are only decoded when requested.
+ * @author nunomachado
+ *
+ */
+public class SymbTraceStoreReader {
+
+	public static class Entry {
+		public final String tid;
+		public final String execId;
+		public final String pathid;
+		final int pos;		//position of the number of events of the trace in the store
+		final int condPos;	//position of the path condition block
+
+		Entry(String tid, String execId, String pathid, int pos, int condPos)
+		{
+			this.tid = tid;
+			this.execId = execId;
+			this.pathid = pathid;
+			this.pos = pos;
+			this.condPos = condPos;
+		}
+	}
+
+	private final MappedByteBuffer buf;
+	private final ArrayList<String> strings;		//id -> event part
+	private final ArrayList<Entry> entries;			//traces, in the order in which they were stored
+	private final HashMap<String, Entry> index;		//map: "tid pathid" -> first trace stored for that thread path
+	private boolean complete;						//false if the store ends with a truncated record
+
+	public SymbTraceStoreReader(String fname) throws IOException
+	{
+		strings = new ArrayList<String>();
+		entries = new ArrayList<Entry>();
+		index = new HashMap<String, Entry>();
+
+		RandomAccessFile file = new RandomAccessFile(fname, "r");
+		try{
+			FileChannel channel = file.getChannel();
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally{
+			file.close();
+		}
+		parse(fname);
+	}
+
+	private void parse(String fname) throws IOException
+	{
+		for(int i = 0; i < SymbTraceStore.MAGIC.length; i++){
+			if(!buf.hasRemaining() || buf.get() != SymbTraceStore.MAGIC[i])
+				throw new IOException(fname+" is not a symbolic trace store");
+		}
+		byte version = buf.get();
+		if(version != SymbTraceStore.VERSION)
+			throw new IOException("Unsupported symbolic trace store version "+version+" in "+fname);
+
+		complete = true;
+		try{
+			while(buf.hasRemaining())
+			{
+				byte tag = buf.get();
+				if(tag == SymbTraceStore.TAG_STRING){
+					int id = buf.getInt();
+					String s = SymbTraceStore.readString(buf);
+					while(strings.size() <= id)
+						strings.add(null);
+					strings.set(id, s);
+				}
+				else if(tag == SymbTraceStore.TAG_TRACE){
+					String tid = SymbTraceStore.readString(buf);
+					String execId = SymbTraceStore.readString(buf);
+					String pathid = SymbTraceStore.readString(buf);
+					int pos = buf.position();
+					SymbTraceStore.skipEvents(buf, buf.getInt());
+					Entry e = new Entry(tid, execId, pathid, pos, buf.position());
+					SymbTraceStore.skipString(buf);
+					entries.add(e);
+					if(!index.containsKey(tid+" "+pathid))
+						index.put(tid+" "+pathid, e);
+				}
+				else
+					throw new IOException("Corrupted symbolic trace store "+fname+" (tag "+tag+" at "+(buf.position()-1)+")");
+			}
+		}
+		catch(BufferUnderflowException e){
+			complete = false; //a writer was interrupted while appending
+		}
+		catch(IllegalArgumentException e){
+			complete = false;
+		}
+	}
+
+	public boolean isComplete()
+	{
+		return complete;
+	}
+
+	public List<Entry> getEntries()
+	{
+		return entries;
+	}
+
+	/**
+	 * Returns the trace of a thread path, or null if the store has no trace for it.
+	 * @param tid
+	 * @param pathid
+	 * @return
+	 */
+	public Entry get(String tid, String pathid)
+	{
+		return index.get(tid+" "+pathid);
+	}
+
+	public SymbEvent[] getEvents(Entry e)
+	{
+		ByteBuffer b = buf.duplicate();
+		b.position(e.pos);
+		SymbEvent[] events = new SymbEvent[b.getInt()];
+		for(int i = 0; i < events.length; i++)
+			events[i] = SymbTraceStore.readEvent(b, strings);
+		return events;
+	}
+
+	public String getPathConditions(Entry e) throws IOException
+	{
+		ByteBuffer b = buf.duplicate();
+		b.position(e.condPos);
+		return SymbTraceStore.readString(b);
+	}
+
+	/**
+	 * Returns the trace in the text form of the legacy trace files (without the final new line).
+	 * @param e
+	 * @return
+	 * @throws IOException
+	 */
+	public String getTrace(Entry e) throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		for(SymbEvent event : getEvents(e))
+			sb.append(event).append('\n');
+		return sb.append(getPathConditions(e)).toString();
+	}
+
+	/**
+	 * Returns the name of the legacy trace file of a trace (see Utilities.storeSymbLog).
+	 * @param e
+	 * @return
+	 */
+	public static String getTraceFileName(Entry e)
+	{
+		return "T"+e.tid+"_"+e.execId+"_"+e.pathid.hashCode();
+	}
+}
@@ -0,0 +1,187 @@
+package pt.tecnico.jpf.symbiosis.util;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Persistent index of the (thread, path) pairs that were already symbolically executed, used by SymbiosisBatch
+ * to skip the production traces that do not contribute any new thread path.
+ *
+ * A thread's path is identified by a fingerprint of its basic block sequence (plus the outcome of the assertion, for
+ * the assertion thread). The index is a text file with one "tid fingerprint" line per pair, which is only appended to,
+ * under a file lock, so it can be shared by the batch workers.
+ * @author nunomachado
+ *
+ */
+public class SymbolizedPathIndex {
+
+	private static final long INITIAL_HASH = 0xcbf29ce484222325L;
+	private static final long HASH_PRIME = 0x100000001b3L;
+
+	private final String fname;
+	private final HashSet<String> pairs;
+	private long offset;	//length of the index file already read
+
+	public SymbolizedPathIndex(String fname)
+	{
+		this.fname = fname;
+		pairs = new HashSet<String>();
+		offset = 0;
+	}
+
+	/**
+	 * Computes the fingerprint of each thread's path in a production trace (text or binary format).
+	 * @param tracefile
+	 * @return map: thread id -> fingerprint, or null if the trace is partial (partial traces are never skipped)
+	 * @throws IOException
+	 */
+	public static LinkedHashMap<String, String> fingerprint(String tracefile) throws IOException
+	{
+		LinkedHashMap<String, long[]> hashes = new LinkedHashMap<String, long[]>(); //tid -> {hash, length}
+		String assertThread = null;
+		int assertPos = -1;
+
+		if(BinaryTraceReader.isBinaryTrace(tracefile))
+		{
+			BinaryTraceReader reader = new BinaryTraceReader(tracefile);
+			if(reader.isPartial() || !reader.isComplete())
+				return null;
+			List<String> threads = reader.getThreads();
+			for(int slot = 0; slot < threads.size(); slot++)
+			{
+				long[] h = {INITIAL_HASH, 0};
+				for(long bbid : reader.getPath(slot))
+					update(h, bbid);
+				hashes.put(threads.get(slot), h);
+			}
+			assertThread = reader.getAssertThread();
+			assertPos = reader.getAssertPosition();
+		}
+		else
+		{
+			BufferedReader br = new BufferedReader(new FileReader(tracefile));
+			String line;
+			while((line = br.readLine()) != null)
+			{
+				if(line.equals("#partial") || line.startsWith("#skipped ")){
+					br.close();
+					return null;
+				}
+				boolean isAssert = line.startsWith("[");
+				if(isAssert)
+					line = line.substring(1, line.length()-1);
+				String[] vals = line.split(" ");
+				long[] h = hashes.get(vals[0]);
+				if(h == null){
+					h = new long[]{INITIAL_HASH, 0};
+					hashes.put(vals[0], h);
+				}
+				if(isAssert){
+					assertThread = vals[0];
+					assertPos = (int) h[1];
+				}
+				update(h, Long.parseLong(vals[1]));
+			}
+			br.close();
+		}
+
+		String outcome = (tracefile.contains(".fail") ? "fail" : "ok");
+		LinkedHashMap<String, String> fps = new LinkedHashMap<String, String>();
+		for(Entry<String, long[]> e : hashes.entrySet())
+		{
+			String fp = Long.toHexString(e.getValue()[0])+"-"+e.getValue()[1];
+			if(e.getKey().equals(assertThread))
+				fp += "-"+outcome+assertPos;
+			fps.put(e.getKey(), fp);
+		}
+		return fps;
+	}
+
+	private static void update(long[] h, long bbid)
+	{
+		for(int i = 0; i < 8; i++){
+			h[0] ^= (bbid >>> (i << 3)) & 0xff;
+			h[0] *= HASH_PRIME;
+		}
+		h[1]++;
+	}
+
+	/**
+	 * Returns true if all the (thread, path) pairs of a trace were already symbolized.
+	 * @param fps map: thread id -> fingerprint
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean containsAll(LinkedHashMap<String, String> fps) throws IOException
+	{
+		refresh();
+		for(Entry<String, String> e : fps.entrySet())
+		{
+			if(!pairs.contains(e.getKey()+" "+e.getValue()))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the (thread, path) pairs of a trace to the index.
+	 * @param fps map: thread id -> fingerprint
+	 * @throws IOException
+	 */
+	public void addAll(LinkedHashMap<String, String> fps) throws IOException
+	{
+		StringBuilder lines = new StringBuilder();
+		for(Entry<String, String> e : fps.entrySet())
+		{
+			String pair = e.getKey()+" "+e.getValue();
+			if(pairs.add(pair))
+				lines.append(pair+"\n");
+		}
+		if(lines.length() == 0)
+			return;
+
+		RandomAccessFile file = new RandomAccessFile(fname, "rw");
+		FileLock lock = file.getChannel().lock();
+		try{
+			file.seek(file.length());
+			file.write(lines.toString().getBytes("UTF-8"));
+		}
+		finally{
+			lock.release();
+			file.close();
+		}
+	}
+
+	/**
+	 * Reads the pairs appended to the index file (possibly by other workers) since the last read.
+	 * @throws IOException
+	 */
+	private void refresh() throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(fname, "rw");
+		FileLock lock = file.getChannel().lock();
+		try{
+			if(file.length() <= offset)
+				return;
+			byte[] buf = new byte[(int) (file.length() - offset)];
+			file.seek(offset);
+			file.readFully(buf);
+			offset = file.length();
+			for(String pair : new String(buf, "UTF-8").split("\n")){
+				if(!pair.isEmpty())
+					pairs.add(pair);
+			}
+		}
+		finally{
+			lock.release();
+			file.close();
+		}
+	}
+}
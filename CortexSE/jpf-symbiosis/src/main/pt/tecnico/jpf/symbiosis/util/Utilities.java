@@ -1,11 +1,14 @@
 package pt.tecnico.jpf.symbiosis.util;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Random;
 
+import pt.tecnico.jpf.symbiosis.SymbEventChain;
 import pt.tecnico.jpf.symbiosis.SymbiosisListener;
 import gov.nasa.jpf.jvm.ElementInfo;
 import gov.nasa.jpf.jvm.JVM;
@@ -14,6 +17,10 @@ import gov.nasa.jpf.jvm.Types;
 public class Utilities {
 	
 	public static HashSet<String> storedLogs = new HashSet<String>();
+	public static ArrayList<String> storedFiles = new ArrayList<String>();	//paths of the symbolic traces stored since the last clear (reported by SymbiosisService)
+	public static HashSet<String> storedThreads = new HashSet<String>();	//ids of the threads whose symbolic trace was stored (here or by another worker) since the last clear
+	public static SymbTraceStore traceStore = null;	//"symbiosis.tracestore" - store where the symbolic traces are appended (null to write one file per trace)
+	public static File sharedIndex = null;	//folder of the dedup index shared by the batch workers (null if the symbolic traces are not generated in parallel)
 	
 	/**
 	 * Logs a symbolic event into the corresponding thread's trace file
@@ -40,9 +47,11 @@ public class Utilities {
 	 * Stores a thread's symbolic trace into a file.
 	 * @param path
 	 * @param tid
-	 * @param event
+	 * @param trace
+	 * @param cond path condition block of the trace
+	 * @param pathid
 	 */
-	public static void storeSymbLog(String folder, String tid, String trace, String pathid) {
+	public static void storeSymbLog(String folder, String tid, SymbEventChain trace, String cond, String pathid) {
 		try {
 			//only store if is a new path
 			if(storedLogs.contains(tid+pathid.hashCode())){
@@ -50,20 +59,52 @@ public class Utilities {
 				return;
 			}
 			
-			String file = folder+System.getProperty("file.separator")+"T"+tid+"_"+SymbiosisListener.executionId+"_"+pathid.hashCode();
-			FileWriter fw = new FileWriter(file);
-			BufferedWriter bw = new BufferedWriter(fw);
-			bw.write(trace);
-			bw.newLine();
-			bw.close();
+			String fname = "T"+tid+"_"+SymbiosisListener.executionId+"_"+pathid.hashCode();
+			String file = folder+System.getProperty("file.separator")+fname;
+
+			//claim the trace file in the shared index, so that no other worker writes it
+			if(sharedIndex != null && !new File(sharedIndex, fname).createNewFile()){
+				System.out.println("[CortexJPF] Trace file already stored by another worker. Don't store!");
+				storedLogs.add(tid+pathid.hashCode());
+				storedThreads.add(tid);
+				return;
+			}
+
+			if(traceStore != null)
+			{
+				traceStore.append(tid, SymbiosisListener.executionId, pathid, trace.getEvents(), cond);
+				file = traceStore.getFileName()+"#"+fname;
+			}
+			else
+			{
+				FileWriter fw = new FileWriter(file);
+				BufferedWriter bw = new BufferedWriter(fw);
+				bw.write(trace.toString()+cond);
+				bw.newLine();
+				bw.close();
+			}
 			
 			storedLogs.add(tid+pathid.hashCode());
+			storedFiles.add(file);
+			storedThreads.add(tid);
 			
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 	
+	/**
+	 * Makes storeSymbLog append the traces of a folder to its symbolic trace store (the store is kept open across
+	 * the JPF runs of a batch, as long as the folder is the same).
+	 * @param folder
+	 */
+	public static void openTraceStore(String folder)
+	{
+		SymbTraceStore store = new SymbTraceStore(folder);
+		if(traceStore == null || !traceStore.getFileName().equals(store.getFileName()))
+			traceStore = store;
+	}
+
 	/**
 	 * From a file name with the full path, returns only the name of the file.
 	 * @param path
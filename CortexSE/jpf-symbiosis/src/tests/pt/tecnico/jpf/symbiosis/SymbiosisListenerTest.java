@@ -0,0 +1,103 @@
+package pt.tecnico.jpf.symbiosis;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.util.test.TestJPF;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Starts JPF with the same BB trace several times, as SymbiosisService does for the flips that do not resume from a snapshot.
+ * The jpf-core project is located with the "jpf-core" system property (../jpf-core by default, as in build.xml).
+ * @author nunomachado
+ *
+ */
+public class SymbiosisListenerTest extends TestJPF {
+
+	public static void main(String[] args)
+	{
+		runTestsOfThisClass(args);
+	}
+
+	static void writeFile(File f, String content) throws IOException
+	{
+		FileWriter out = new FileWriter(f);
+		out.write(content);
+		out.close();
+	}
+
+	static void delete(File f)
+	{
+		File[] files = f.listFiles();
+		if(files != null){
+			for(File c : files)
+				delete(c);
+		}
+		f.delete();
+	}
+
+	/**
+	 * Starts JPF with the current configuration and returns its listener (the search is not run).
+	 */
+	static SymbiosisListener startFlip(Config config, String flip)
+	{
+		config.setProperty("cortex.flip", flip);
+		JPF jpf = new JPF(config);
+		SymbiosisListener listener = jpf.getListenerOfType(SymbiosisListener.class);
+		assert listener != null;
+		return listener;
+	}
+
+	static void checkAssertThread(SymbiosisListener listener)
+	{
+		assert "1".equals(SymbiosisListener.assertThread);
+		SymbEvent[] events = listener.getCurStateInfo("1").symbTrace.getEvents();
+		assert events.length == 1;
+		assert events[0].kind == SymbEvent.Kind.ASSERT_FAIL;
+		assert listener.getCurStateInfo("0").symbTrace.isEmpty();
+
+		//the trace of the assertion thread is checked (not stored, as the search did not run)
+		assert !listener.isCorrectTrace("1", listener.getCurStateInfo("1"));
+	}
+
+	@Test
+	public void testFlipsOfSameTrace() throws IOException
+	{
+		File dir = File.createTempFile("symbiosis", "");
+		dir.delete();
+		dir.mkdir();
+		boolean batchMode = SymbiosisListener.batchMode;
+		try{
+			File site = new File(dir, "site.properties");
+			writeFile(site, "jpf-core = "+new File(System.getProperty("jpf-core", "../jpf-core")).getCanonicalPath()+"\n"
+					+"extensions = ${jpf-core}\n");
+			File trace = new File(dir, "Test_1_0.fail");
+			writeFile(trace, "0 1\n0 2\n1 3\n0 4\n[1 5]\n");
+			File shared = new File(dir, "Test.accesses");
+			writeFile(shared, "");
+
+			Config config = new Config(new String[]{"+site="+site.getPath(), "+target=Test",
+					"+listener=pt.tecnico.jpf.symbiosis.SymbiosisListener",
+					"+symbiosis.bbtrace="+trace.getPath(),
+					"+symbiosis.sharedAccesses="+shared.getPath(),
+					"+symbiosis.tracefolder="+new File(dir, "traces").getPath()});
+			SymbiosisListener.batchMode = true;
+
+			SymbiosisListener first = startFlip(config, "1 1");
+			checkAssertThread(first);
+
+			//the second flip reuses the BB trace loaded by the first one
+			SymbiosisListener second = startFlip(config, "1 2");
+			assert second.bbtrace == first.bbtrace;
+			checkAssertThread(second);
+		}
+		finally{
+			SymbiosisListener.batchMode = batchMode;
+			delete(dir);
+		}
+	}
+}
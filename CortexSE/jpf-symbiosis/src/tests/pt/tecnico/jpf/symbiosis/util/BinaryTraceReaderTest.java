@@ -0,0 +1,172 @@
+package pt.tecnico.jpf.symbiosis.util;
+
+import gov.nasa.jpf.util.test.TestJPF;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import pt.tecnico.symbiosis.runtime.BinaryTraceWriter;
+import pt.tecnico.symbiosis.runtime.TraceWriter;
+
+/**
+ * Writes traces with pt.tecnico.symbiosis.runtime.BinaryTraceWriter (CortexRuntime) and reads them back,
+ * also after truncating them (as left by a production run that crashed while writing the trace).
+ * @author nunomachado
+ *
+ */
+public class BinaryTraceReaderTest extends TestJPF {
+
+	static final long[] PATH1 = {5, 3, 1000000, 1000001, -7, 0};
+	static final long[] PATH2 = {42, 43, 44, 10};
+
+	public static void main(String[] args)
+	{
+		runTestsOfThisClass(args);
+	}
+
+	/**
+	 * Writes a partial trace with two threads, the second of which hits the assertion.
+	 * The first thread's path is split into two records.
+	 * @return the hash of the execution path
+	 */
+	static long writeTrace(File f) throws IOException
+	{
+		TraceWriter w = new BinaryTraceWriter(f.getPath(), TraceWriter.FLAG_PARTIAL);
+		w.addThread("1");
+		w.addThread("1:2");
+		w.writeBlocks(0, PATH1, 0, 2);
+		w.writeBlocks(1, PATH2, 0, PATH2.length-1);
+		w.writeBlocks(0, PATH1, 2, PATH1.length);
+		w.writeSkipped(0, 17, 0);
+		w.writeAssertBlock(1, PATH2[PATH2.length-1]);
+		return w.close();
+	}
+
+	static byte[] readBytes(File f) throws IOException
+	{
+		RandomAccessFile in = new RandomAccessFile(f, "r");
+		byte[] data = new byte[(int) in.length()];
+		in.readFully(data);
+		in.close();
+		return data;
+	}
+
+	static void writeBytes(File f, byte[] data, int len) throws IOException
+	{
+		FileOutputStream out = new FileOutputStream(f);
+		out.write(data, 0, len);
+		out.close();
+	}
+
+	static void assertPrefix(long[] path, long[] full)
+	{
+		assert path.length <= full.length;
+		for(int i = 0; i < path.length; i++)
+			assert path[i] == full[i];
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		File f = File.createTempFile("trace", ".bin");
+		try{
+			long hash = writeTrace(f);
+			assert BinaryTraceReader.isBinaryTrace(f.getPath());
+
+			BinaryTraceReader reader = new BinaryTraceReader(f.getPath());
+			assert reader.isComplete();
+			assert reader.isPartial();
+			assert reader.getLength() == f.length();
+			assert reader.getHash() == hash;
+
+			assert reader.getThreads().size() == 2;
+			assert reader.getThreads().get(0).equals("1");
+			assert reader.getThreads().get(1).equals("1:2");
+			assert Arrays.equals(reader.getPath(0), PATH1);
+			assert Arrays.equals(reader.getPath(1), PATH2);
+
+			assert "1:2".equals(reader.getAssertThread());
+			assert reader.getAssertPosition() == PATH2.length-1;
+			assert reader.getSkippedBefore(0) == 17;
+			assert reader.getSkippedAfter(0) == 0;
+			assert reader.getSkippedBefore(1) == 0;
+		}
+		finally{
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testTruncated() throws IOException
+	{
+		File f = File.createTempFile("trace", ".bin");
+		File cut = File.createTempFile("trace", ".bin");
+		try{
+			writeTrace(f);
+			byte[] data = readBytes(f);
+			int header = BinaryTraceReader.MAGIC.length + 2;
+
+			//** every truncation is decoded up to its last complete record
+			for(int len = header; len < data.length; len++)
+			{
+				writeBytes(cut, data, len);
+				BinaryTraceReader reader = new BinaryTraceReader(cut.getPath());
+				assert !reader.isComplete();
+				assert reader.getLength() <= len;
+				assert reader.getThreads().size() <= 2;
+				if(reader.getThreads().size() > 0)
+					assertPrefix(reader.getPath(0), PATH1);
+				if(reader.getThreads().size() > 1)
+					assertPrefix(reader.getPath(1), PATH2);
+			}
+
+			//** the trailer is the last record, so only it is missing when the last byte is cut
+			writeBytes(cut, data, data.length-1);
+			BinaryTraceReader reader = new BinaryTraceReader(cut.getPath());
+			assert Arrays.equals(reader.getPath(0), PATH1);
+			assert Arrays.equals(reader.getPath(1), PATH2);
+			assert "1:2".equals(reader.getAssertThread());
+
+			//** a truncated header is not a trace
+			writeBytes(cut, data, header-1);
+			try{
+				new BinaryTraceReader(cut.getPath());
+				assert false : "truncated header not detected";
+			}
+			catch(IOException e){
+				//expected
+			}
+		}
+		finally{
+			f.delete();
+			cut.delete();
+		}
+	}
+
+	@Test
+	public void testGarbageCount() throws IOException
+	{
+		File f = File.createTempFile("trace", ".bin");
+		try{
+			byte[] data = {'C','X','B','T', BinaryTraceReader.VERSION, 0,
+					BinaryTraceReader.TAG_THREAD, 0, 1, '1',
+					BinaryTraceReader.TAG_BLOCKS, 0, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 0x07, 2, 4};
+			writeBytes(f, data, data.length);
+
+			//** the count is not trusted: the record is discarded instead of allocating the path
+			BinaryTraceReader reader = new BinaryTraceReader(f.getPath());
+			assert !reader.isComplete();
+			assert reader.getLength() == 10;
+			assert reader.getThreads().size() == 1;
+			assert reader.getPath(0).length == 0;
+		}
+		finally{
+			f.delete();
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package pt.tecnico.jpf.symbiosis.util;
+
+import gov.nasa.jpf.util.test.TestJPF;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for LongLongMap.
+ * @author nunomachado
+ *
+ */
+public class LongLongMapTest extends TestJPF {
+
+	static final long MISSING = -1;
+
+	public static void main(String[] args)
+	{
+		runTestsOfThisClass(args);
+	}
+
+	@Test
+	public void testCollisions()
+	{
+		List<Long> keys = LongObjectMapTest.collidingKeys(6, 16, 15);
+		LongLongMap map = new LongLongMap();
+		for(long k : keys)
+			map.put(k, k+1);
+		assert map.size() == keys.size();
+		for(long k : keys)
+			assert map.get(k, MISSING) == k+1;
+
+		map.put(keys.get(0), 7);
+		assert map.get(keys.get(0), MISSING) == 7;
+		assert map.size() == keys.size();
+		assert map.get(-1, MISSING) == MISSING;
+	}
+
+	@Test
+	public void testResize()
+	{
+		LongLongMap map = new LongLongMap(4);
+		int n = 100000;
+		for(long k = 0; k < n; k++)
+			map.put(k << 32 | (k*7), k);
+		assert map.size() == n;
+		for(long k = 0; k < n; k++)
+			assert map.get(k << 32 | (k*7), MISSING) == k;
+		assert map.get(n, MISSING) == MISSING;
+	}
+
+	@Test
+	public void testCompareWithHashMap()
+	{
+		LongLongMap map = new LongLongMap();
+		HashMap<Long, Long> expected = new HashMap<Long, Long>();
+		Random random = new Random(42);
+
+		for(int i = 0; i < 200000; i++)
+		{
+			long key = random.nextInt(40000) - 20000;
+			expected.put(key, (long) i);
+			map.put(key, i);
+			assert map.size() == expected.size();
+		}
+		for(long key = -20000; key < 20000; key++){
+			Long val = expected.get(key);
+			assert map.get(key, MISSING) == (val == null ? MISSING : val);
+			assert map.containsKey(key) == (val != null);
+		}
+	}
+}
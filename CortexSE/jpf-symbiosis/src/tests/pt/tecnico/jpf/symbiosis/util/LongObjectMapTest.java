@@ -0,0 +1,107 @@
+package pt.tecnico.jpf.symbiosis.util;
+
+import gov.nasa.jpf.util.test.TestJPF;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for LongObjectMap.
+ * @author nunomachado
+ *
+ */
+public class LongObjectMapTest extends TestJPF {
+
+	public static void main(String[] args)
+	{
+		runTestsOfThisClass(args);
+	}
+
+	/**
+	 * Returns n keys whose home slot in a table of the given size is slot.
+	 */
+	static List<Long> collidingKeys(int n, int tableSize, int slot)
+	{
+		List<Long> keys = new ArrayList<Long>();
+		for(long k = 0; keys.size() < n; k++)
+		{
+			if((LongObjectMap.hash(k) & (tableSize-1)) == slot)
+				keys.add(k);
+		}
+		return keys;
+	}
+
+	@Test
+	public void testCollisions()
+	{
+		//the last slot of the initial table, so that the probe sequence wraps around
+		List<Long> keys = collidingKeys(6, 16, 15);
+		LongObjectMap<String> map = new LongObjectMap<String>();
+		for(long k : keys)
+			assert map.put(k, "v"+k) == null;
+		assert map.size() == keys.size();
+
+		for(long k : keys){
+			assert map.containsKey(k);
+			assert map.get(k).equals("v"+k);
+		}
+		assert map.put(keys.get(3), "new").equals("v"+keys.get(3));
+		assert map.get(keys.get(3)).equals("new");
+		assert map.size() == keys.size();
+		assert map.get(-1) == null;
+	}
+
+	@Test
+	public void testResize()
+	{
+		LongObjectMap<Long> map = new LongObjectMap<Long>();
+		int n = 100000;
+		for(long k = 0; k < n; k++)
+			map.put(k << 32 | k, k);	//the keys of StateTable are (thread slot, state id) pairs
+		assert map.size() == n;
+		for(long k = 0; k < n; k++)
+			assert map.get(k << 32 | k) == k;
+	}
+
+	@Test
+	public void testReservedKey()
+	{
+		LongObjectMap<String> map = new LongObjectMap<String>();
+		assert map.get(Long.MIN_VALUE) == null;
+		assert !map.containsKey(Long.MIN_VALUE);
+		try{
+			map.put(Long.MIN_VALUE, "x");
+			assert false : "reserved key accepted";
+		}
+		catch(IllegalArgumentException e){
+			//expected
+		}
+	}
+
+	@Test
+	public void testCompareWithHashMap()
+	{
+		LongObjectMap<Integer> map = new LongObjectMap<Integer>();
+		HashMap<Long, Integer> expected = new HashMap<Long, Integer>();
+		Random random = new Random(42);
+
+		//keys from a small range, so that new keys and overwrites of the same keys are interleaved (with resizes)
+		for(int i = 0; i < 200000; i++)
+		{
+			long key = random.nextInt(40000) - 20000;
+			assert same(map.put(key, i), expected.put(key, i));
+			assert map.size() == expected.size();
+		}
+		for(long key = -20000; key < 20000; key++)
+			assert same(map.get(key), expected.get(key));
+	}
+
+	static boolean same(Object a, Object b)
+	{
+		return (a == null ? b == null : a.equals(b));
+	}
+}
@@ -0,0 +1,150 @@
+package pt.tecnico.jpf.symbiosis.util;
+
+import gov.nasa.jpf.util.test.TestJPF;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Encodes every path of a path graph, as logged by pt.tecnico.symbiosis.transformer.PathProfiler (CortexTransformer),
+ * and decodes it back, including the paths ended by an exception (THROW edges to EXIT).
+ * @author nunomachado
+ *
+ */
+public class PathProfileDecoderTest extends TestJPF {
+
+	/*
+	 * method 3, with the blocks:
+	 *   10: x = o.f; if(x) goto 12		(may throw)
+	 *   11: o.g = 1					(may throw)
+	 *   12: (empty branch)
+	 *   13: return
+	 * and a catch block (no block id) for the exceptions of 10 and 11 that goes to 13
+	 */
+	static final long METHOD = 3;
+	static final String GRAPH = "method 3 7 void m()\n"
+			+"n 2 10\nn 3 11\nn 4 12\nn 5 13\n"
+			+"e 0 2 0\ne 0 6 4\n"
+			+"e 2 3 0\ne 2 4 2\ne 2 1 3\n"
+			+"e 3 5 0\ne 3 1 1\n"
+			+"e 4 5 0\n"
+			+"e 5 1 0\n"
+			+"e 6 5 0\n";
+	static final int[][] EDGES = {{0, 2, 0}, {0, 6, 4}, {2, 3, 0}, {2, 4, 2}, {2, 1, 3}, {3, 5, 0}, {3, 1, 1}, {4, 5, 0}, {5, 1, 0}, {6, 5, 0}};
+	static final long[] NODE_BB = {-1, -1, 10, 11, 12, 13, -1};
+
+	public static void main(String[] args)
+	{
+		runTestsOfThisClass(args);
+	}
+
+	static void writeFile(File f, String content) throws IOException
+	{
+		FileWriter out = new FileWriter(f);
+		out.write(content);
+		out.close();
+	}
+
+	/**
+	 * Enumerates the paths from node to EXIT, as sequences of edges.
+	 */
+	static void enumerate(int node, ArrayList<int[]> prefix, List<List<int[]>> paths)
+	{
+		if(node == 1){
+			paths.add(new ArrayList<int[]>(prefix));
+			return;
+		}
+		for(int[] e : EDGES)
+		{
+			if(e[0] != node)
+				continue;
+			prefix.add(e);
+			enumerate(e[1], prefix, paths);
+			prefix.remove(prefix.size()-1);
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		File f = File.createTempFile("symbiosis", ".paths");
+		try{
+			writeFile(f, GRAPH);
+			PathProfileDecoder decoder = new PathProfileDecoder(f.getPath());
+
+			ArrayList<List<int[]>> paths = new ArrayList<List<int[]>>();
+			enumerate(0, new ArrayList<int[]>(), paths);
+			assert paths.size() == 5;
+
+			//** every path id is the sum of its edge values, and is decoded to the blocks of its nodes
+			HashSet<Long> pathIds = new HashSet<Long>();
+			int nthrown = 0;
+			for(List<int[]> path : paths)
+			{
+				long pathId = 0;
+				ArrayList<Long> expected = new ArrayList<Long>();
+				for(int[] e : path){
+					pathId += e[2];
+					if(NODE_BB[e[1]] >= 0)
+						expected.add(NODE_BB[e[1]]);
+				}
+				assert pathIds.add(pathId);
+				if(path.get(path.size()-1)[0] != 5)
+					nthrown++;	//ends with a THROW edge
+
+				ArrayList<Long> bbs = new ArrayList<Long>();
+				decoder.decodePath(METHOD, pathId, bbs);
+				assert bbs.equals(expected) : "path "+pathId+": "+bbs+" instead of "+expected;
+			}
+			assert nthrown == 2;
+		}
+		finally{
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testException() throws IOException
+	{
+		File f = File.createTempFile("symbiosis", ".paths");
+		File trace = File.createTempFile("symbiosis", ".trace");
+		File text = File.createTempFile("symbiosis", ".txt");
+		try{
+			writeFile(f, GRAPH);
+			PathProfileDecoder decoder = new PathProfileDecoder(f.getPath());
+
+			//** thrown at 11 and caught: the path up to 11 (reported by the catch block), then the catch block's path
+			long[] path = {7, -METHOD-1, 1, -METHOD-1, 4, 8};
+			assert decoder.decode(path, path.length).equals(Arrays.asList(7L, 10L, 11L, 13L, 8L));
+
+			//** thrown at 10 and not caught: the path up to 10 (reported by the catch-all handler)
+			path = new long[]{7, -METHOD-1, 3, 9};
+			assert decoder.decode(path, path.length).equals(Arrays.asList(7L, 10L, 9L));
+
+			//** text traces keep the assertion in the block where it fails
+			writeFile(trace, "0 7\n0 -4\n0 1\n0 -4\n[0 4]\n1 -4\n1 0\n");
+			decoder.convert(trace.getPath(), text.getPath());
+			BufferedReader br = new BufferedReader(new FileReader(text));
+			ArrayList<String> lines = new ArrayList<String>();
+			String line;
+			while((line = br.readLine()) != null)
+				lines.add(line);
+			br.close();
+			assert lines.equals(Arrays.asList("0 7", "0 10", "0 11", "[0 13]", "1 10", "1 11", "1 13")) : lines;
+		}
+		finally{
+			f.delete();
+			trace.delete();
+			text.delete();
+		}
+	}
+}
@@ -50,6 +50,8 @@ const std::string usageOpts = "#FIND FAILING SCHEDULE:"
 "\n--jpf-file=/path/to/JPF/config/file"
 "\n--jpf-timeout=maxtime"
 "\n\tRun symbolic execution (i.e. JPF) for 'maxtime' seconds."
+"\n--jpf-service"
+"\n\tKeep a single JPF process running to serve all branch flips (each flip ends as soon as JPF does, up to 'maxtime' seconds)."
 "\n--cortex-d=D"
 "\n\tExplore up to 'D' branches apart from the assertion during the search for failing schedules."
 "\n--cortex-n=N"
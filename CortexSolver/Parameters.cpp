@@ -24,6 +24,7 @@ std::string sourceFilePath = "";
 std::string dspFlag = "";
 std::string jpfFile = "";
 std::string jpftimeout = "";
+bool jpfService = false;
 int cortex_N = -2;
 int cortex_D = -1;
 bool useCSR = false;
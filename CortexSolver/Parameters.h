@@ -27,6 +27,7 @@ extern std::string assertThread;    //id of the thread that contains the asserti
 extern std::string dspFlag;         //define which view the user wants in the result: "extended" "short" or default
 extern std::string jpfFile;         //path to JPF file to run symbolically
 extern std::string jpftimeout;      //timeout for symbolic execution in JPF 
+extern bool jpfService;             //generate the traces of the branch flips with a resident JPF process (SymbiosisService) instead of one JPF run per flip
 extern bool failedExec;             //indicates whether the traces correspond to a failing or successful execution
 extern bool useCSR;                 //apply context switch reduction to the full failing schedule  
 extern int cortex_D;    //Cortex: maximum number of branches away from the assertion that are allowed to be flipped for exploration purposes
@@ -13,6 +13,8 @@
 #include <algorithm>    // std::max
 #include <unistd.h>
 #include <signal.h>
+#include <sys/wait.h>
+#include <time.h>
 #include <cstring>
 #include <thread>         // std::this_thread::sleep_for
 #include <chrono>         // std::chrono::seconds
@@ -45,6 +47,17 @@ TraceAnalyzer::TraceAnalyzer()
 
 }
 
+TraceAnalyzer::~TraceAnalyzer()
+{
+    //stop the resident JPF process, if any
+    if(sePid){
+        string quit = "quit\n";
+        write(seProcW, quit.c_str(), quit.size());
+        close(seProcW);
+        close(seProcR);
+    }
+}
+
 
 void TraceAnalyzer::loadTraces()
 {
@@ -573,6 +586,7 @@ void TraceAnalyzer::generateFlipBranchFile(string tid, int flipPos)
     }
     flipFile << tid << " " << flipPos << endl;
     flipFile.close();
+    flipRequest = tid + " " + util::stringValueOf(flipPos);
 }
 
 /*
@@ -588,6 +602,14 @@ void TraceAnalyzer::synthesizeNewSymbolicTraces()
         return;
     }*/
     
+    if(jpfService){
+        requestSymbolicTraces();
+        if(symbFolderPath.find("/sts") == string::npos)
+            symbFolderPath = symbFolderPath+"/sts";
+        loadTraces();
+        return;
+    }
+    
     int procR, procW;
     string seExePath = "cd /Users/nunomachado/Dropbox/workspace/jpf-symbiosis/bin; /usr/local/bin/java6 -Xmx1500m -jar /Users/nunomachado/Dropbox/workspace/jpf-core/build/RunJPF.jar +shell.port=4242 "+jpfFile+" 2>&1 & sleep "+jpftimeout+"; kill $!; echo \"endSE\"";
     char *command = (char *)seExePath.c_str();
@@ -618,7 +640,10 @@ void TraceAnalyzer::synthesizeNewSymbolicTraces()
     string line = "";
     while(line.find("endSE")==string::npos)
     {
-        line = util::readLinePipe(procR);
+        if(util::readLinePipe(procR, &line, 0) == 0){
+            cout << "[SE Engine] SE process ended unexpectedly." << endl;
+            break;
+        }
         logFile << line << endl;
         
         if(line.find("=== error")!=string::npos){
@@ -647,6 +672,110 @@ void TraceAnalyzer::synthesizeNewSymbolicTraces()
 }
 
 
+/*
+ * Launches a JPF process running SymbiosisService, which stays alive to serve all branch flips.
+ */
+void TraceAnalyzer::startSymbolicService()
+{
+    string timeout = jpftimeout.empty() ? "0" : jpftimeout;
+    string seExePath = "cd /Users/nunomachado/Dropbox/workspace/jpf-symbiosis/bin; exec /usr/local/bin/java6 -Xmx1500m -jar /Users/nunomachado/Dropbox/workspace/jpf-core/build/RunJPF.jar +shell=pt.tecnico.jpf.symbiosis.SymbiosisService +symbiosis.service.timeout="+timeout+" "+jpfFile+" 2>&1";
+    char *command = (char *)seExePath.c_str();
+    
+    signal(SIGPIPE, SIG_IGN); //a dead service is detected by the failed write, instead of killing the solver
+    sePid = util::popen2(command, &seProcW, &seProcR);
+    cout << "[SE Engine] Created resident SE process " << sePid << endl;
+    if (sePid <= 0)
+    {
+        perror("Problems with pipe");
+        exit(1);
+    }
+    
+    //wait for the service to be ready
+    string line = "";
+    while(line.find("[SymbiosisService] ready")==string::npos)
+    {
+        if(util::readLinePipe(seProcR, &line, 0) == 0){
+            cerr << " -> Error: resident SE process "<< sePid <<" ended before being ready.\n";
+            exit(EXIT_FAILURE);
+        }
+    }
+}
+
+/*
+ * Kills the resident JPF process, e.g. when it does not reply to a request in time.
+ * The next request launches a new one.
+ */
+void TraceAnalyzer::stopSymbolicService()
+{
+    cerr << ">> Killing SE process "<< sePid << endl;
+    kill(sePid, SIGKILL);
+    waitpid(sePid, NULL, 0);
+    close(seProcR);
+    close(seProcW);
+    sePid = 0;
+}
+
+/*
+ * Sends the last branch flip to the resident JPF process and waits for it to finish.
+ * The new symbolic traces are stored in the "sts" folder, as with a JPF run per flip.
+ */
+void TraceAnalyzer::requestSymbolicTraces()
+{
+    if(!sePid)
+        startSymbolicService();
+    
+    cout << "[SE Engine] Request symbolic execution with branch flip " << flipRequest << "...\n";
+    string request = "flip "+flipRequest+"\n";
+    if(write(seProcW, request.c_str(), request.size()) < 0){
+        //the service died since the last request: launch a new one
+        stopSymbolicService();
+        startSymbolicService();
+        write(seProcW, request.c_str(), request.size());
+    }
+    
+    //Create log file
+    std::ofstream logFile;
+    string filename = "/Users/nunomachado/Desktop/SE_LOGFILE.txt";
+    logFile.open(filename, ios::trunc);
+    
+    //the service stops the request after jpftimeout seconds; if it does not reply within the grace period
+    //after that (or if it dies), it is killed and the flip is considered failed
+    int timeout = jpftimeout.empty() ? 0 : util::intValueOf(jpftimeout);
+    time_t deadline = time(NULL) + timeout + SERVICE_GRACE;
+    string line = "";
+    string status = "";
+    while(status.empty())
+    {
+        int left = (int)(deadline - time(NULL));
+        int res = (timeout > 0 && left <= 0) ? -1 : util::readLinePipe(seProcR, &line, (timeout > 0 ? left : 0));
+        logFile << line << endl;
+        if(res <= 0){
+            cerr << ">> SE process " << sePid << (res == 0 ? " ended unexpectedly" : " did not reply in time") << endl;
+            stopSymbolicService();
+            status = "failed";
+        }
+        else if(line.find("[SymbiosisService] done")!=string::npos){
+            //"[SymbiosisService] done status ntraces time"
+            status = line.substr(line.find("done")+5);
+            status = status.substr(0, status.find(" "));
+        }
+    }
+    logFile.close();
+    
+    if(status == "error"){
+        cout << "[SE Engine] No feasible execution found for this branch flip." << endl;
+        bfs = MAXBFS; //indicates that there is no need to test this branch flip anymore
+    }
+    else if(status == "failed"){
+        cout << "[SE Engine] Symbolic execution of this branch flip failed." << endl;
+        bfs = MAXBFS; //do not retry a flip that crashed or hung the symbolic execution
+    }
+    else{
+        cout << "[SE Engine] Symbolic execution ended (" << status << ")." << endl;
+    }
+}
+
+
 /*
  * Returns the next combination of thread execution paths to test, if there exists one
  */
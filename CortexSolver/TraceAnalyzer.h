@@ -12,6 +12,7 @@
 #include <stdio.h>
 #include <map>
 #include <set>
+#include <sys/types.h>
 #include "Trie.h"
 #include "Operations.h"
 
@@ -37,7 +38,7 @@ public:
     int MAXBFS = 0;  //maximum number of shortest paths (according to BFS) to be tested with a prefix corresponding to the flipped branch
     
     TraceAnalyzer();
-    ~TraceAnalyzer() {}
+    ~TraceAnalyzer();
     void loadTraces();
     void loadClockTraces(); //loads the traces with basic block clocks 
     bool hasNext();   //indicates whether there are non-attempted combinations of per-thread left to test
@@ -49,5 +50,13 @@ private:
     void flipBranch(std::map<std::string, std::string> *traceComb);
     void synthesizeNewSymbolicTraces();
     void generateFlipBranchFile(std::string tid, int flipPos);
+    void startSymbolicService();     //launches the resident JPF process that serves the branch flips (--jpf-service)
+    void requestSymbolicTraces();    //asks the resident JPF process to generate the traces of the last branch flip
+    void stopSymbolicService();      //kills the resident JPF process (it is launched again by the next request)
+    
+    std::string flipRequest;  //"tid flipPos" of the last branch flip
+    pid_t sePid = 0;          //pid of the resident JPF process (0 if it was not launched)
+    int seProcR, seProcW;     //pipes to read from/write to the resident JPF process
+    int SERVICE_GRACE = 30;   //seconds the resident JPF process gets, on top of jpftimeout, to reply to a request before it is killed
 };
 #endif /* defined(__cortexsolver__Analyzer__) */
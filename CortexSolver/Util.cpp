@@ -17,6 +17,9 @@
 #include <stdio.h>
 #include <stdlib.h>
 #include <unistd.h>
+#include <poll.h>
+#include <errno.h>
+#include <time.h>
 #include <fstream>
 #include <limits.h>
 
@@ -344,15 +347,38 @@ bool util::clockOperationComparator(ClockOperation cop1, ClockOperation cop2)
 string util::readLinePipe(int procR)
 {
     string ret;
-    char c[LINEMAX];
-    read(procR,c,1);
-    while(c[0]!='\n')
+    readLinePipe(procR, &ret, 0);
+    return ret;
+}
+
+/**
+ * Read line from pipe, without blocking for more than timeout seconds (0 = no timeout).
+ * Returns 1 if a whole line was read, 0 if the pipe was closed (or failed) and -1 if the timeout expired;
+ * in the last two cases, line holds the characters read so far.
+ */
+int util::readLinePipe(int procR, string *line, int timeout)
+{
+    time_t deadline = time(NULL) + timeout;
+    char c;
+    line->clear();
+    while(true)
     {
-        ret = ret + c[0];
-        read(procR,c,1);
+        if(timeout > 0)
+        {
+            int left = (int)(deadline - time(NULL));
+            struct pollfd pfd = {procR, POLLIN, 0};
+            if(left <= 0 || poll(&pfd, 1, left*1000) == 0)
+                return -1;
+        }
+        ssize_t n = read(procR, &c, 1);
+        if(n < 0 && errno == EINTR)
+            continue;
+        if(n <= 0)
+            return 0;
+        if(c == '\n')
+            return 1;
+        *line += c;
     }
-    
-    return ret;
 }
 
 //get configuration file
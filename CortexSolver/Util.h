@@ -35,6 +35,7 @@ namespace util{
     std::string parseVar(std::string operation);       //parses the variable of an operation
     bool filenameComparator(std::string a, std::string b);   //comparator to sort filenames in ascending order of their length
     std::string readLinePipe(int procR);                //read line from pipe
+    int readLinePipe(int procR, std::string *line, int timeout); //read line from pipe, waiting at most timeout seconds (0 = no timeout); returns 1 if a line was read, 0 at EOF and -1 on timeout
     bool subsetComparator(std::vector<int> a, std::vector<int> b); //comparator to sort subsets of values in ascending order of their size
     bool clockOperationComparator(ClockOperation cop1, ClockOperation cop2); //comparator to sort sets of ClockOperations in ascending order of their clock values
     std::string getConfigFile();     //get path to configuration file
@@ -75,6 +75,9 @@ void parse_configFile()
             else if(key == "jpf-file" && !value.empty()){
                 jpfFile = value;
             }
+            else if(key == "jpf-service" && value == "true"){
+                jpfService = true;
+            }
             else if(key == "model" && !value.empty()){
                 formulaFile = value;
             }
@@ -141,6 +144,7 @@ void parse_args(int argc, char *const* argv)
             {"dsp", required_argument, 0, 'u'},
             {"jpf-file", required_argument, 0, 'j'},
             {"jpf-timeout", required_argument, 0, 't'},
+            {"jpf-service", no_argument, 0, 'w'},
             {"cortex-n", required_argument, 0, 'n'},
             {"cortex-d", required_argument, 0, 'x'},
             {"csr", no_argument, 0, 'c'},
@@ -214,6 +218,9 @@ void parse_args(int argc, char *const* argv)
             case 't':
                 jpftimeout = optarg;
                 break;
+            case 'w':
+                jpfService = true;
+                break;
             case 'n':
                 cortex_N = util::intValueOf(optarg) - 1; //accounting for case 0
                 break;
@@ -9,6 +9,7 @@ public abstract class SymbiosisRuntime {
 	 *
 	 */
 	public static void symbiosisBBEntry(long bbid){}
+	public static void symbiosisPathEntry(long methodId, long pathId){}
 	public static void mainThreadStartRun(){}
 	public static void threadStartRunBefore(Thread t){}
 	public static void threadStartRun()	{}
@@ -0,0 +1,165 @@
+package pt.tecnico.symbiosis.transformer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * On-disk cache for the results of the whole-program analysis (Spark, thread-local objects and
+ * escape analysis), i.e. the set of shared variables computed by SymbScenePass.
+ *
+ * Entries are keyed by a hash of the analysis options and of the class files and jars in the
+ * classpath (which includes both the program and the transformer), so any change to the program
+ * or to the analysis invalidates the entry. Entries are stored in SymbiosisCache/[key].sharedvars.
+ * @author nunomachado
+ *
+ */
+public class AnalysisCache {
+
+	public static final String CACHE_DIR = "SymbiosisCache";
+
+	//output folders of the transformer, which may be in the classpath but must not be hashed
+	private static final String[] IGNORED_DIRS = {"SymbiosisRuntime", "SymbiosisJPF", CACHE_DIR};
+
+	/**
+	 * Computes the cache key for the current classpath and the given analysis options.
+	 * @param options
+	 * @return the key (hex string), or null if it could not be computed
+	 */
+	public static String computeKey(String options)
+	{
+		try{
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			md.update(options.getBytes("UTF-8"));
+			for(String entry : System.getProperty("java.class.path").split(File.pathSeparator))
+			{
+				File f = new File(entry);
+				if(f.isDirectory())
+					hashDir(md, f, "");
+				else if(f.isFile())
+					hashFile(md, f, entry);
+			}
+
+			StringBuilder key = new StringBuilder();
+			for(byte b : md.digest())
+				key.append(String.format("%02x", b));
+			return key.toString();
+		}
+		catch(NoSuchAlgorithmException e){
+			e.printStackTrace();
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	private static void hashDir(MessageDigest md, File dir, String prefix) throws IOException
+	{
+		File[] files = dir.listFiles();
+		if(files == null)
+			return;
+		Arrays.sort(files);
+		for(File f : files)
+		{
+			String name = prefix + f.getName();
+			if(f.isDirectory()){
+				if(!Arrays.asList(IGNORED_DIRS).contains(f.getName()))
+					hashDir(md, f, name + "/");
+			}
+			else if(name.endsWith(".class") || name.endsWith(".jar"))
+				hashFile(md, f, name);
+		}
+	}
+
+	private static void hashFile(MessageDigest md, File f, String name) throws IOException
+	{
+		md.update(name.getBytes("UTF-8"));
+		byte[] buf = new byte[1 << 16];
+		InputStream in = new FileInputStream(f);
+		try{
+			int n;
+			while((n = in.read(buf)) > 0)
+				md.update(buf, 0, n);
+		}
+		finally{
+			in.close();
+		}
+	}
+
+	private static File getEntryFile(String key)
+	{
+		String dir = System.getProperty("user.dir") + System.getProperty("file.separator") + CACHE_DIR;
+		return new File(dir, key + ".sharedvars");
+	}
+
+	/**
+	 * Returns the shared variables stored for a given key, or null if there is no entry.
+	 * @param key
+	 * @return
+	 */
+	public static HashSet<String> load(String key)
+	{
+		if(key == null)
+			return null;
+		File f = getEntryFile(key);
+		if(!f.exists())
+			return null;
+
+		try{
+			HashSet<String> sharedVars = new HashSet<String>();
+			BufferedReader br = new BufferedReader(new FileReader(f));
+			String line;
+			while((line = br.readLine()) != null)
+			{
+				if(!line.isEmpty())
+					sharedVars.add(line);
+			}
+			br.close();
+			return sharedVars;
+		}
+		catch(IOException e){
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the shared variables computed for a given key.
+	 * The entry is written to a temporary file first, so that concurrent transformers never read a partial entry.
+	 * @param key
+	 * @param sharedVars
+	 */
+	public static void store(String key, HashSet<String> sharedVars)
+	{
+		if(key == null)
+			return;
+		File f = getEntryFile(key);
+		f.getParentFile().mkdirs();
+
+		try{
+			File tmp = new File(f.getPath() + ".tmp");
+			BufferedWriter bw = new BufferedWriter(new FileWriter(tmp));
+			for(String sv : sharedVars)
+				bw.write(sv + "\n");
+			bw.close();
+			if(!tmp.renameTo(f)){
+				f.delete();
+				tmp.renameTo(f);
+			}
+			System.out.println("[SymbiosisTransformer] Analysis results cached to: "+f.getPath());
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package pt.tecnico.symbiosis.transformer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * Manifest of an instrumented version of the program, saved to [main-class].manifest in its output folder.
+ * For each instrumented class, it keeps the hash of the original class file, a digest of the shared variables
+ * the class accesses, the range of basic block ids assigned to the class and the log lines it produced (shared
+ * accesses and path graphs), so that an incremental run (--incremental) only re-instruments the classes that
+ * changed (or whose accesses became shared or thread-local) and the remaining ones keep their block ids.
+ *
+ * Format:
+ *   next [next free basic block id] [next free method id]
+ *   class [name] [hash] [first basic block id] [number of basic block ids reserved] [shared variables digest]
+ *   a [shared access]		(lines of the class in [main-class].accesses)
+ *   p [path graph line]	(lines of the class in [main-class].paths)
+ *   s [basic block id]		(blocks of the class without probe, in sparse probes mode)
+ * @author nunomachado
+ *
+ */
+public class InstrumentationManifest {
+
+	public static class ClassEntry {
+		public String hash;
+		public String svHash;		//digest of the shared variables accessed by the class ("-" if the version does not depend on them)
+		public long firstBB;
+		public long numBBs;
+		public StringBuilder accesses = new StringBuilder();
+		public StringBuilder paths = new StringBuilder();
+		public StringBuilder skipped = new StringBuilder();
+
+		public ClassEntry(String hash, String svHash, long firstBB, long numBBs)
+		{
+			this.hash = hash;
+			this.svHash = svHash;
+			this.firstBB = firstBB;
+			this.numBBs = numBBs;
+		}
+	}
+
+	public LinkedHashMap<String, ClassEntry> classes;
+	public long nextBB;
+	public long nextMethodId;
+
+	//class being instrumented and the log lengths at the beginning of the current method
+	private String curClass;
+	private int accLogLen;
+	private int pathLogLen;
+
+	public InstrumentationManifest()
+	{
+		classes = new LinkedHashMap<String, ClassEntry>();
+		nextBB = 0;
+		nextMethodId = 0;
+	}
+
+	/**
+	 * Loads a manifest, or returns null if it does not exist.
+	 * @param fname
+	 * @return
+	 */
+	public static InstrumentationManifest load(String fname)
+	{
+		File f = new File(fname);
+		if(!f.exists())
+			return null;
+
+		InstrumentationManifest manifest = new InstrumentationManifest();
+		try{
+			BufferedReader br = new BufferedReader(new FileReader(f));
+			ClassEntry entry = null;
+			String line;
+			while((line = br.readLine()) != null)
+			{
+				if(line.startsWith("next ")){
+					String[] vals = line.split(" ");
+					manifest.nextBB = Long.parseLong(vals[1]);
+					manifest.nextMethodId = Long.parseLong(vals[2]);
+				}
+				else if(line.startsWith("class ")){
+					String[] vals = line.split(" ");
+					//(manifests without the shared variables digest never match, so their classes are re-instrumented)
+					entry = new ClassEntry(vals[2], (vals.length > 5 ? vals[5] : "?"), Long.parseLong(vals[3]), Long.parseLong(vals[4]));
+					manifest.classes.put(vals[1], entry);
+				}
+				else if(line.startsWith("a "))
+					entry.accesses.append(line.substring(2)+"\n");
+				else if(line.startsWith("p "))
+					entry.paths.append(line.substring(2)+"\n");
+				else if(line.startsWith("s "))
+					entry.skipped.append(line.substring(2)+"\n");
+			}
+			br.close();
+		}
+		catch(IOException e){
+			e.printStackTrace();
+			return null;
+		}
+		return manifest;
+	}
+
+	public void save(String fname)
+	{
+		try{
+			BufferedWriter bw = new BufferedWriter(new FileWriter(fname, false));
+			bw.write("next "+nextBB+" "+nextMethodId+"\n");
+			for(Entry<String, ClassEntry> e : classes.entrySet())
+			{
+				ClassEntry entry = e.getValue();
+				bw.write("class "+e.getKey()+" "+entry.hash+" "+entry.firstBB+" "+entry.numBBs+" "+entry.svHash+"\n");
+				writePrefixed(bw, "a ", entry.accesses);
+				writePrefixed(bw, "p ", entry.paths);
+				writePrefixed(bw, "s ", entry.skipped);
+			}
+			bw.close();
+			System.out.println("[SymbiosisTransformer] Manifest saved to: "+fname);
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+
+	private static void writePrefixed(BufferedWriter bw, String prefix, StringBuilder lines) throws IOException
+	{
+		if(lines.length() == 0)
+			return;
+		for(String line : lines.toString().split("\n"))
+			bw.write(prefix+line+"\n");
+	}
+
+	/**
+	 * Called before instrumenting a method: the block ids of the class start at the range reserved by SymbIncrementalPass.
+	 * @param cname
+	 */
+	public void beginMethod(String cname)
+	{
+		if(!cname.equals(curClass))
+		{
+			curClass = cname;
+			ClassEntry entry = classes.get(cname);
+			if(entry == null){
+				//class not seen by SymbIncrementalPass: use the ids after all the reserved ranges
+				entry = new ClassEntry(hashClass(cname), "?", nextBB, 0);
+				classes.put(cname, entry);
+			}
+			SymbiosisTransformer.bbIdCounter = entry.firstBB;
+		}
+		accLogLen = SymbiosisTransformer.sharedAccLog.length();
+		pathLogLen = SymbiosisTransformer.pathProfileLog.length();
+	}
+
+	/**
+	 * Called after instrumenting a method: records the block ids and log lines of the method in its class entry.
+	 */
+	public void endMethod()
+	{
+		ClassEntry entry = classes.get(curClass);
+		long used = SymbiosisTransformer.bbIdCounter - entry.firstBB;
+		if(used > entry.numBBs && entry.firstBB + entry.numBBs < nextBB)
+			System.err.println("[SymbiosisTransformer] WARNING: "+curClass+" uses more block ids than reserved ("+used+" > "+entry.numBBs+")");
+		entry.numBBs = Math.max(entry.numBBs, used);
+		entry.accesses.append(SymbiosisTransformer.sharedAccLog.substring(accLogLen));
+		entry.paths.append(SymbiosisTransformer.pathProfileLog.substring(pathLogLen));
+		nextBB = Math.max(nextBB, SymbiosisTransformer.bbIdCounter);
+		nextMethodId = Math.max(nextMethodId, SymbiosisTransformer.methodIdCounter);
+	}
+
+	/**
+	 * Records the blocks without probe of each class (sparse probes mode), before saving the manifest.
+	 */
+	public void collectSkippedBlocks()
+	{
+		for(ClassEntry entry : classes.values())
+		{
+			entry.skipped.setLength(0);
+			for(long bbid = entry.firstBB; bbid < entry.firstBB + entry.numBBs; bbid++){
+				if(SymbiosisTransformer.skippedBBs.contains(bbid))
+					entry.skipped.append(bbid+"\n");
+			}
+		}
+	}
+
+	/**
+	 * Returns the SHA-1 digest of a sequence of strings, in hexadecimal.
+	 * @param lines
+	 * @return
+	 */
+	public static String hashLines(Iterable<String> lines)
+	{
+		try{
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			for(String line : lines){
+				md.update(line.getBytes("UTF-8"));
+				md.update((byte) '\n');
+			}
+			return toHex(md.digest());
+		}
+		catch(NoSuchAlgorithmException e){
+			e.printStackTrace();
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+		return "?";
+	}
+
+	private static String toHex(byte[] digest)
+	{
+		StringBuilder hash = new StringBuilder();
+		for(byte b : digest)
+			hash.append(String.format("%02x", b));
+		return hash.toString();
+	}
+
+	/**
+	 * Returns the hash of the original class file of a given class, looked up in the classpath.
+	 * @param cname
+	 * @return the hash, or "?" if the class file was not found (the class is then always re-instrumented)
+	 */
+	public static String hashClass(String cname)
+	{
+		String path = cname.replace('.', '/') + ".class";
+		try{
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			for(String cp : System.getProperty("java.class.path").split(File.pathSeparator))
+			{
+				File f = new File(cp);
+				InputStream in = null;
+				JarFile jar = null;
+				if(f.isDirectory() && new File(f, path).isFile())
+					in = new FileInputStream(new File(f, path));
+				else if(f.isFile() && cp.endsWith(".jar")){
+					jar = new JarFile(f);
+					ZipEntry ze = jar.getEntry(path);
+					if(ze != null)
+						in = jar.getInputStream(ze);
+				}
+
+				if(in != null)
+				{
+					byte[] buf = new byte[1 << 14];
+					int n;
+					while((n = in.read(buf)) > 0)
+						md.update(buf, 0, n);
+					in.close();
+					if(jar != null)
+						jar.close();
+
+					return toHex(md.digest());
+				}
+				if(jar != null)
+					jar.close();
+			}
+		}
+		catch(NoSuchAlgorithmException e){
+			e.printStackTrace();
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+		return "?";
+	}
+}
@@ -0,0 +1,697 @@
+package pt.tecnico.symbiosis.transformer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import soot.Body;
+import soot.Local;
+import soot.LongType;
+import soot.RefType;
+import soot.Scene;
+import soot.SootMethodRef;
+import soot.Unit;
+import soot.UnitBox;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.CastExpr;
+import soot.jimple.DivExpr;
+import soot.jimple.EnterMonitorStmt;
+import soot.jimple.ExitMonitorStmt;
+import soot.jimple.IdentityStmt;
+import soot.jimple.InvokeStmt;
+import soot.jimple.Jimple;
+import soot.jimple.LengthExpr;
+import soot.jimple.LongConstant;
+import soot.jimple.NewArrayExpr;
+import soot.jimple.NewExpr;
+import soot.jimple.NewMultiArrayExpr;
+import soot.jimple.RemExpr;
+import soot.jimple.SpecialInvokeExpr;
+import soot.jimple.Stmt;
+import soot.jimple.ThrowStmt;
+import soot.toolkits.graph.Block;
+import soot.toolkits.graph.BriefBlockGraph;
+import soot.util.Chain;
+
+/**
+ * Ball-Larus path profiling instrumentation (runtime version only).
+ * Instead of one symbiosisBBEntry call per basic block, each method keeps the id of the path
+ * being executed in a local variable, which is only updated on the chords of a spanning tree of the CFG,
+ * and reports it with a single symbiosisPathEntry(methodId, pathId) call when the path ends.
+ *
+ * Paths end at returns, at loop back edges and before invocations (so that the paths of a
+ * method and of its callees are recorded in execution order). Paths also end at the statements that throw
+ * an exception: the edges from their segments to EXIT are kept in the spanning tree, so that the path
+ * register holds the id of the path ending there, which is reported at the entry of the catch block or,
+ * if the exception leaves the method, by a catch-all handler that rethrows it. The structure of each method's path graph
+ * is saved to [main-class].paths, which allows SymbiosisListener (see PathProfileDecoder)
+ * to rebuild the exact basic block sequence, using the same block ids as the JPF version.
+ *
+ * Path graph nodes: 0 is ENTRY, 1 is EXIT and the remaining ones are block segments; a block
+ * with k cut invocations has k+1 segments, and only the first one corresponds to entering the block.
+ * Asynchronous errors (e.g. StackOverflowError) are not expected to be caught, so they may end a path anywhere.
+ * @author nunomachado
+ *
+ */
+public class PathProfiler {
+
+	public static final int ENTRY = 0;
+	public static final int EXIT = 1;
+	private static final long MAX_PATHS = 1L << 62; //methods with more paths fall back to basic block probes
+
+	//kinds of edges of the path graph
+	private static final int START = 0;		//ENTRY -> first segment of the method's entry block (or of a catch block)
+	private static final int NORMAL = 1;	//CFG edge
+	private static final int BACK_EXIT = 2;	//loop back edge, split into BACK_EXIT + BACK_ENTRY
+	private static final int BACK_ENTRY = 3;
+	private static final int CUT_EXIT = 4;	//invocation, split into CUT_EXIT + CUT_ENTRY
+	private static final int CUT_ENTRY = 5;
+	private static final int RETURN = 6;	//block without successors -> EXIT
+	private static final int THROW = 7;		//segment that may throw an exception -> EXIT (always in the spanning tree)
+
+	private static class Edge {
+		final int src;
+		final int dst;
+		final int kind;
+		final Block from;	//CFG edge (NORMAL, BACK_*), or block of the start/return/throw
+		final Block to;
+		final Stmt cut;		//invocation (CUT_*)
+		long val;			//Ball-Larus edge value
+		long inc;			//increment placed on the edge (0 for spanning tree edges)
+		int weight;			//estimated execution frequency
+		boolean inTree;
+
+		Edge(int src, int dst, int kind, Block from, Block to, Stmt cut)
+		{
+			this.src = src;
+			this.dst = dst;
+			this.kind = kind;
+			this.from = from;
+			this.to = to;
+			this.cut = cut;
+		}
+	}
+
+	/**
+	 * Assigns the basic block ids of a method, following the same order as SymbBodyPass.addBBTrace,
+	 * so that they match the ids of the JPF version. Must be called before any other instrumentation of the body.
+	 * @param body
+	 * @return map: original head of the block -> basic block id
+	 */
+	public static HashMap<Unit, Long> assignBlockIds(Body body)
+	{
+		HashMap<Unit, Long> ids = new HashMap<Unit, Long>();
+		BriefBlockGraph bbg = new BriefBlockGraph(body);
+		for(Block b : bbg.getBlocks())
+		{
+			//catch-exception blocks are not instrumented (see SymbBodyPass.addBBTrace)
+			if(b.getHead().toString().contains("@caughtexception"))
+				continue;
+			if(SymbiosisTransformer.SPARSE_MODE && SymbBodyPass.isSkippableBlock(bbg, b))
+				SymbiosisTransformer.skippedBBs.add(SymbiosisTransformer.bbIdCounter);
+			ids.put(b.getHead(), SymbiosisTransformer.bbIdCounter);
+			SymbiosisTransformer.bbIdCounter++;
+		}
+		return ids;
+	}
+
+	/**
+	 * Instruments a method with path profiling probes. Must be called after the remaining
+	 * instrumentation of the body (thread handling and assertions), so that the calls to assertHandler end a path.
+	 * @param body
+	 * @param ids basic block ids returned by assignBlockIds
+	 */
+	public static void addPathProfile(Body body, HashMap<Unit, Long> ids)
+	{
+		Chain units = body.getUnits();
+		BriefBlockGraph bbg = new BriefBlockGraph(body);
+		List<Block> blocks = bbg.getBlocks();
+		int nblocks = blocks.size();
+
+		//** build the nodes of the path graph (block segments)
+		int[] segStart = new int[nblocks];
+		ArrayList<List<Stmt>> cuts = new ArrayList<List<Stmt>>();
+		HashSet<Integer> throwing = new HashSet<Integer>(); //segments that may throw an exception
+		ArrayList<Long> nodeBB = new ArrayList<Long>();
+		nodeBB.add(-1L); //ENTRY
+		nodeBB.add(-1L); //EXIT
+		for(Block b : blocks)
+		{
+			long bbid = -1;
+			ArrayList<Stmt> bcuts = new ArrayList<Stmt>();
+			segStart[b.getIndexInMethod()] = nodeBB.size();
+			Iterator it = b.iterator();
+			while(it.hasNext())
+			{
+				Stmt s = (Stmt) it.next();
+				if(ids.containsKey(s) && !SymbiosisTransformer.skippedBBs.contains(ids.get(s)))
+					bbid = ids.get(s);
+				if(isCut(s))
+					bcuts.add(s);
+				if(mayThrow(s))
+					throwing.add(segStart[b.getIndexInMethod()] + bcuts.size()); //(a cut invocation throws in the segment after it)
+			}
+			nodeBB.add(bbid);
+			for(int i = 0; i < bcuts.size(); i++)
+				nodeBB.add(-1L);
+			cuts.add(bcuts);
+		}
+		int nnodes = nodeBB.size();
+
+		//** find loop back edges (retreating edges of a DFS) and the blocks where paths start
+		ArrayList<Block> starts = new ArrayList<Block>();
+		HashSet<Long> backEdges = new HashSet<Long>();
+		int[] state = new int[nblocks]; //0: not visited; 1: in the DFS stack; 2: done
+		for(Block head : bbg.getHeads())
+			dfs(head, nblocks, state, backEdges, starts);
+		for(Block b : blocks)
+			dfs(b, nblocks, state, backEdges, starts); //blocks only reachable from unreachable cycles
+
+		//** build the edges of the path graph (a DAG)
+		ArrayList<Edge> edges = new ArrayList<Edge>();
+		for(Block b : starts)
+			edges.add(new Edge(ENTRY, segStart[b.getIndexInMethod()], START, b, b, null));
+		for(Block b : blocks)
+		{
+			int u = b.getIndexInMethod();
+			List<Stmt> bcuts = cuts.get(u);
+			for(int i = 0; i < bcuts.size(); i++)
+			{
+				edges.add(new Edge(segStart[u]+i, EXIT, CUT_EXIT, b, b, bcuts.get(i)));
+				edges.add(new Edge(ENTRY, segStart[u]+i+1, CUT_ENTRY, b, b, bcuts.get(i)));
+			}
+
+			for(int n = segStart[u]; n <= segStart[u] + bcuts.size(); n++){
+				if(throwing.contains(n))
+					edges.add(new Edge(n, EXIT, THROW, b, b, null));
+			}
+
+			int last = segStart[u] + bcuts.size();
+			List<Block> succs = getSuccs(b);
+			if(succs.isEmpty() && !(b.getTail() instanceof ThrowStmt)) //(a throw statement ends the path with its THROW edge)
+				edges.add(new Edge(last, EXIT, RETURN, b, b, null));
+			for(Block c : succs)
+			{
+				int v = c.getIndexInMethod();
+				if(backEdges.contains((long)u*nblocks + v)){
+					edges.add(new Edge(last, EXIT, BACK_EXIT, b, c, null));
+					edges.add(new Edge(ENTRY, segStart[v], BACK_ENTRY, b, c, null));
+				}
+				else{
+					edges.add(new Edge(last, segStart[v], NORMAL, b, c, null));
+				}
+			}
+		}
+
+		//** compute the number of paths and the edge values (Ball-Larus numbering)
+		if(!computeEdgeValues(nnodes, edges))
+		{
+			System.out.println("[SymbiosisTransformer] too many paths in "+body.getMethod().getSignature()+" -> instrument basic blocks");
+			addBlockProbes(body, ids);
+			return;
+		}
+
+		//** place the increments on the chords of a maximum spanning tree
+		computeWeights(blocks, backEdges, edges);
+		computeIncrements(nnodes, edges);
+
+		//** instrument the method
+		long mid = SymbiosisTransformer.methodIdCounter++;
+		instrument(body, bbg, mid, edges);
+		logPathGraph(body, mid, nodeBB, edges);
+	}
+
+	/**
+	 * An invocation ends the current path, unless it is a call to the runtime (other than assertHandler, which saves the trace).
+	 * @param s
+	 * @return
+	 */
+	private static boolean isCut(Stmt s)
+	{
+		if(!s.containsInvokeExpr())
+			return false;
+		SootMethodRef ref = s.getInvokeExpr().getMethodRef();
+		if(ref.declaringClass().getName().equals(SymbiosisTransformer.runtimeClass))
+			return ref.name().equals("assertHandler");
+		return true;
+	}
+
+	/**
+	 * Whether a statement may throw an exception (other than an asynchronous error).
+	 * @param s
+	 * @return
+	 */
+	private static boolean mayThrow(Stmt s)
+	{
+		if(s instanceof ThrowStmt || s instanceof EnterMonitorStmt || s instanceof ExitMonitorStmt
+				|| s.containsInvokeExpr() || s.containsFieldRef() || s.containsArrayRef())
+			return true;
+		for(Object box : s.getUseBoxes())
+		{
+			Value v = ((ValueBox) box).getValue();
+			if(v instanceof NewExpr || v instanceof NewArrayExpr || v instanceof NewMultiArrayExpr
+					|| v instanceof CastExpr || v instanceof LengthExpr || v instanceof DivExpr || v instanceof RemExpr)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the successors of a block, without duplicates.
+	 * @param b
+	 * @return
+	 */
+	private static List<Block> getSuccs(Block b)
+	{
+		ArrayList<Block> succs = new ArrayList<Block>();
+		for(Block c : b.getSuccs())
+		{
+			if(!succs.contains(c))
+				succs.add(c);
+		}
+		return succs;
+	}
+
+	/**
+	 * Iterative DFS from block root (if not visited yet) that collects the retreating edges.
+	 */
+	private static void dfs(Block root, int nblocks, int[] state, HashSet<Long> backEdges, List<Block> starts)
+	{
+		if(state[root.getIndexInMethod()] != 0)
+			return;
+		starts.add(root);
+
+		LinkedList<Block> stack = new LinkedList<Block>();
+		LinkedList<Iterator<Block>> succIts = new LinkedList<Iterator<Block>>();
+		state[root.getIndexInMethod()] = 1;
+		stack.push(root);
+		succIts.push(getSuccs(root).iterator());
+		while(!stack.isEmpty())
+		{
+			Block b = stack.peek();
+			Iterator<Block> it = succIts.peek();
+			if(it.hasNext())
+			{
+				Block c = it.next();
+				int v = c.getIndexInMethod();
+				if(state[v] == 1)
+					backEdges.add((long)b.getIndexInMethod()*nblocks + v);
+				else if(state[v] == 0){
+					state[v] = 1;
+					stack.push(c);
+					succIts.push(getSuccs(c).iterator());
+				}
+			}
+			else
+			{
+				state[b.getIndexInMethod()] = 2;
+				stack.pop();
+				succIts.pop();
+			}
+		}
+	}
+
+	/**
+	 * Computes the Ball-Larus value of each edge, processing the DAG in reverse topological order.
+	 * @return false if the method has too many paths
+	 */
+	private static boolean computeEdgeValues(int nnodes, List<Edge> edges)
+	{
+		ArrayList<List<Edge>> out = outEdges(nnodes, edges);
+		int[] indegree = new int[nnodes];
+		for(Edge e : edges)
+			indegree[e.dst]++;
+
+		int[] topo = new int[nnodes];
+		int size = 0;
+		for(int n = 0; n < nnodes; n++){
+			if(indegree[n] == 0)
+				topo[size++] = n;
+		}
+		for(int i = 0; i < size; i++){
+			for(Edge e : out.get(topo[i])){
+				if(--indegree[e.dst] == 0)
+					topo[size++] = e.dst;
+			}
+		}
+		if(size != nnodes)
+			return false; //not a DAG (should not happen)
+
+		long[] numPaths = new long[nnodes];
+		for(int i = nnodes-1; i >= 0; i--)
+		{
+			int n = topo[i];
+			if(n == EXIT){
+				numPaths[n] = 1;
+				continue;
+			}
+			long sum = 0;
+			for(Edge e : out.get(n)){
+				e.val = sum;
+				sum += numPaths[e.dst];
+				if(sum > MAX_PATHS)
+					return false;
+			}
+			numPaths[n] = sum;
+		}
+		return true;
+	}
+
+	/**
+	 * Estimates the execution frequency of the edges according to their loop nesting depth.
+	 * Edges from ENTRY and to EXIT are instrumented anyway, so they are the first to go into the spanning tree
+	 * (THROW edges go before all the others, see computeIncrements).
+	 */
+	private static void computeWeights(List<Block> blocks, HashSet<Long> backEdges, List<Edge> edges)
+	{
+		int nblocks = blocks.size();
+		int[] depth = new int[nblocks];
+		for(long be : backEdges)
+		{
+			//natural loop of the back edge: blocks that reach its source without going through the loop header
+			Block tail = blocks.get((int)(be / nblocks));
+			Block header = blocks.get((int)(be % nblocks));
+			HashSet<Block> loop = new HashSet<Block>();
+			LinkedList<Block> worklist = new LinkedList<Block>();
+			loop.add(header);
+			if(loop.add(tail))
+				worklist.add(tail);
+			while(!worklist.isEmpty()){
+				for(Block p : worklist.poll().getPreds()){
+					if(loop.add(p))
+						worklist.add(p);
+				}
+			}
+			for(Block b : loop)
+				depth[b.getIndexInMethod()]++;
+		}
+
+		for(Edge e : edges)
+		{
+			if(e.src == ENTRY || e.dst == EXIT)
+				e.weight = Integer.MAX_VALUE;
+			else
+				e.weight = Math.min(depth[e.from.getIndexInMethod()], depth[e.to.getIndexInMethod()]);
+		}
+	}
+
+	/**
+	 * Computes a maximum spanning tree of the path graph (plus the edge EXIT->ENTRY) and
+	 * the increments of the chords: inc(e) = val(e) + phi(dst) - phi(src), where the node potential phi
+	 * is such that val(e) = phi(src) - phi(dst) for every tree edge. The sum of the increments along any
+	 * path from ENTRY to EXIT is thus equal to the sum of the values, i.e. to the path id.
+	 *
+	 * THROW edges are added to the tree first: as phi(EXIT) = 0, the sum of the increments up to a segment
+	 * with a THROW edge is then the id of the path that ends with the exception, which is what the handlers report.
+	 */
+	private static void computeIncrements(int nnodes, List<Edge> edges)
+	{
+		//** Kruskal
+		int[] parent = new int[nnodes];
+		for(int n = 0; n < nnodes; n++)
+			parent[n] = n;
+		parent[find(parent, EXIT)] = find(parent, ENTRY);
+
+		ArrayList<Edge> sorted = new ArrayList<Edge>(edges);
+		Collections.sort(sorted, new Comparator<Edge>() {
+			public int compare(Edge e1, Edge e2) {
+				if((e1.kind == THROW) != (e2.kind == THROW))
+					return (e1.kind == THROW ? -1 : 1);
+				return (e1.weight == e2.weight ? 0 : (e1.weight > e2.weight ? -1 : 1));
+			}
+		});
+		ArrayList<List<Edge>> tree = new ArrayList<List<Edge>>();
+		for(int n = 0; n < nnodes; n++)
+			tree.add(new ArrayList<Edge>());
+		for(Edge e : sorted)
+		{
+			int r1 = find(parent, e.src);
+			int r2 = find(parent, e.dst);
+			if(r1 != r2){
+				parent[r1] = r2;
+				e.inTree = true;
+				tree.get(e.src).add(e);
+				tree.get(e.dst).add(e);
+			}
+		}
+
+		//** node potentials (the edge EXIT->ENTRY has value 0)
+		long[] phi = new long[nnodes];
+		boolean[] visited = new boolean[nnodes];
+		LinkedList<Integer> worklist = new LinkedList<Integer>();
+		visited[ENTRY] = visited[EXIT] = true;
+		worklist.add(ENTRY);
+		worklist.add(EXIT);
+		while(!worklist.isEmpty())
+		{
+			int n = worklist.poll();
+			for(Edge e : tree.get(n))
+			{
+				if(e.src == n && !visited[e.dst]){
+					phi[e.dst] = phi[n] - e.val;
+					visited[e.dst] = true;
+					worklist.add(e.dst);
+				}
+				else if(e.dst == n && !visited[e.src]){
+					phi[e.src] = phi[n] + e.val;
+					visited[e.src] = true;
+					worklist.add(e.src);
+				}
+			}
+		}
+
+		for(Edge e : edges)
+			e.inc = (e.inTree ? 0 : e.val + phi[e.dst] - phi[e.src]);
+	}
+
+	private static int find(int[] parent, int n)
+	{
+		while(parent[n] != n){
+			parent[n] = parent[parent[n]];
+			n = parent[n];
+		}
+		return n;
+	}
+
+	private static ArrayList<List<Edge>> outEdges(int nnodes, List<Edge> edges)
+	{
+		ArrayList<List<Edge>> out = new ArrayList<List<Edge>>();
+		for(int n = 0; n < nnodes; n++)
+			out.add(new ArrayList<Edge>());
+		for(Edge e : edges)
+			out.get(e.src).add(e);
+		return out;
+	}
+
+	/**
+	 * Inserts the path register updates and the calls to symbiosisPathEntry, including the ones that report
+	 * the paths ended by exceptions (at the entry of the catch blocks and in a catch-all handler).
+	 */
+	private static void instrument(Body body, BriefBlockGraph bbg, long mid, List<Edge> edges)
+	{
+		Chain units = body.getUnits();
+		Local path = Jimple.v().newLocal("symbPathId", LongType.v());
+		Local tmp = Jimple.v().newLocal("symbPathTmp", LongType.v());
+		body.getLocals().add(path);
+		body.getLocals().add(tmp);
+		SootMethodRef pathEntryRef = Scene.v().getMethod("<" + SymbiosisTransformer.runtimeClass +": void symbiosisPathEntry(long,long)>").makeRef();
+
+		//edges are instrumented before the code inside blocks, as the latter may redirect jumps to block heads
+		for(int i = 0; i < edges.size(); i++)
+		{
+			Edge e = edges.get(i);
+			if(e.kind == NORMAL && e.inc != 0){
+				ArrayList<Stmt> code = new ArrayList<Stmt>();
+				code.add(Jimple.v().newAssignStmt(path, Jimple.v().newAddExpr(path, LongConstant.v(e.inc))));
+				insertOnEdge(units, bbg, e.from, e.to, code);
+			}
+			else if(e.kind == BACK_EXIT){
+				Edge entry = edges.get(i+1); //BACK_ENTRY
+				ArrayList<Stmt> code = recordPath(path, tmp, pathEntryRef, mid, e.inc);
+				code.add(Jimple.v().newAssignStmt(path, LongConstant.v(entry.inc)));
+				insertOnEdge(units, bbg, e.from, e.to, code);
+			}
+		}
+
+		for(int i = 0; i < edges.size(); i++)
+		{
+			Edge e = edges.get(i);
+			if(e.kind == CUT_EXIT){
+				Edge entry = edges.get(i+1); //CUT_ENTRY
+				ArrayList<Stmt> code = recordPath(path, tmp, pathEntryRef, mid, e.inc);
+				code.add(Jimple.v().newAssignStmt(path, LongConstant.v(entry.inc)));
+				units.insertBefore(code, e.cut);
+			}
+			else if(e.kind == RETURN){
+				units.insertBefore(recordPath(path, tmp, pathEntryRef, mid, e.inc), e.from.getTail());
+			}
+		}
+
+		Stmt entryInit = null;
+		for(Edge e : edges)
+		{
+			if(e.kind != START)
+				continue;
+			Stmt init = Jimple.v().newAssignStmt(path, LongConstant.v(e.inc));
+			Unit head = e.from.getHead();
+			if(head == units.getFirst())
+			{
+				entryInit = init;
+				//method entry: jumps to the first statement must not reset the path
+				Unit last = null;
+				for(Unit u = head; u instanceof IdentityStmt; u = (Unit) units.getSuccOf(u))
+					last = u;
+				if(last != null)
+					units.insertAfter(init, last);
+				else
+					units.addFirst(init);
+			}
+			else if(head instanceof IdentityStmt)
+			{
+				//catch block: the path register still holds the path ended by the exception
+				units.insertAfter(init, head);
+				units.insertAfter(recordPath(path, tmp, pathEntryRef, mid, 0), head);
+			}
+			else
+				units.insertBefore(init, head);
+		}
+
+		//** exceptions that leave the method: report their path and rethrow them
+		//(the handler covers the whole method after the initialization of the path register)
+		Local exc = Jimple.v().newLocal("symbPathExc", RefType.v("java.lang.Throwable"));
+		body.getLocals().add(exc);
+		Stmt catchStmt = Jimple.v().newIdentityStmt(exc, Jimple.v().newCaughtExceptionRef());
+		Unit begin = (Unit) units.getSuccOf(entryInit);
+		if(body.getMethod().isConstructor())
+		{
+			//in constructors, it cannot cover the code before the call to the super (or this) constructor,
+			//where the object is not initialized yet
+			for(Unit u = begin; u != null; u = (Unit) units.getSuccOf(u))
+			{
+				Stmt s = (Stmt) u;
+				if(s.containsInvokeExpr() && s.getInvokeExpr() instanceof SpecialInvokeExpr
+						&& ((SpecialInvokeExpr) s.getInvokeExpr()).getBase() == body.getThisLocal()
+						&& s.getInvokeExpr().getMethodRef().name().equals("<init>")){
+					begin = (Unit) units.getSuccOf(u);
+					break;
+				}
+			}
+		}
+		units.addLast(catchStmt);
+		units.addLast(recordPath(path, tmp, pathEntryRef, mid, 0));
+		units.addLast(Jimple.v().newThrowStmt(exc));
+		body.getTraps().addLast(Jimple.v().newTrap(Scene.v().getSootClass("java.lang.Throwable"), begin, catchStmt, catchStmt));
+	}
+
+	/**
+	 * Returns the code that reports the current path (plus inc) to the runtime.
+	 */
+	private static ArrayList<Stmt> recordPath(Local path, Local tmp, SootMethodRef pathEntryRef, long mid, long inc)
+	{
+		ArrayList<Stmt> code = new ArrayList<Stmt>();
+		Value pathId = path;
+		if(inc != 0){
+			code.add(Jimple.v().newAssignStmt(tmp, Jimple.v().newAddExpr(path, LongConstant.v(inc))));
+			pathId = tmp;
+		}
+		LinkedList<Value> args = new LinkedList<Value>();
+		args.add(LongConstant.v(mid));
+		args.add(pathId);
+		code.add(Jimple.v().newInvokeStmt(Jimple.v().newStaticInvokeExpr(pathEntryRef, args)));
+		return code;
+	}
+
+	/**
+	 * Inserts code on the CFG edge u -> v: at the end of u if it is u's only successor, at the beginning of v
+	 * if u is v's only predecessor, and otherwise in a new block that jumps to v (or right after u's branch, for the fall-through edge).
+	 */
+	private static void insertOnEdge(Chain units, BriefBlockGraph bbg, Block u, Block v, List<Stmt> code)
+	{
+		Unit tail = u.getTail();
+		Unit vhead = v.getHead();
+
+		if(getSuccs(u).size() == 1)
+		{
+			if(tail.fallsThrough() && !tail.branches())
+				units.insertAfter(code, tail);
+			else
+				units.insertBefore(code, tail);	//(also redirects the jumps to the tail)
+		}
+		else if(v.getPreds().size() == 1 && !bbg.getHeads().contains(v))
+		{
+			units.insertBefore(code, vhead); 	//(also redirects the jumps to v)
+		}
+		else if(tail.fallsThrough() && units.getSuccOf(tail) == vhead)
+		{
+			units.insertAfter(code, tail);		//fall-through edge of a conditional branch
+		}
+		else
+		{
+			Stmt first = code.get(0);
+			for(Object box : tail.getUnitBoxes())
+			{
+				if(((UnitBox) box).getUnit() == vhead)
+					((UnitBox) box).setUnit(first);
+			}
+			for(Stmt s : code)
+				units.addLast(s);
+			units.addLast(Jimple.v().newGotoStmt(vhead));
+		}
+	}
+
+	/**
+	 * Fallback for methods with too many paths: instruments each basic block with a call to symbiosisBBEntry.
+	 */
+	private static void addBlockProbes(Body body, HashMap<Unit, Long> ids)
+	{
+		Chain units = body.getUnits();
+		SootMethodRef bbEntryRef = Scene.v().getMethod("<" + SymbiosisTransformer.runtimeClass +": void symbiosisBBEntry(long)>").makeRef();
+		BriefBlockGraph bbg = new BriefBlockGraph(body);
+		for(Block b : bbg.getBlocks())
+		{
+			Long bbid = null;
+			Iterator it = b.iterator();
+			while(it.hasNext() && bbid == null)
+				bbid = ids.get(it.next());
+			if(bbid == null || SymbiosisTransformer.skippedBBs.contains(bbid))
+				continue;
+
+			InvokeStmt bbEntryStmt = Jimple.v().newInvokeStmt(Jimple.v().newStaticInvokeExpr(bbEntryRef, LongConstant.v(bbid)));
+			Unit last = null;
+			for(Unit u = b.getHead(); u instanceof IdentityStmt && u != b.getTail(); u = (Unit) units.getSuccOf(u))
+				last = u;
+			if(b.getHead() instanceof IdentityStmt && last == null)
+				last = b.getHead();
+			if(last != null)
+				units.insertAfter(bbEntryStmt, last);
+			else
+				units.insertBefore(bbEntryStmt, b.getHead());
+		}
+	}
+
+	/**
+	 * Appends the path graph of a method to the path profile log:
+	 *   method [id] [number of nodes] [signature]
+	 *   n [node] [basic block id]			(for the segments that correspond to entering a basic block)
+	 *   e [source node] [target node] [value]	(edges in increasing order of value for each source node)
+	 */
+	private static void logPathGraph(Body body, long mid, List<Long> nodeBB, List<Edge> edges)
+	{
+		StringBuilder log = SymbiosisTransformer.pathProfileLog;
+		log.append("method "+mid+" "+nodeBB.size()+" "+body.getMethod().getSignature()+"\n");
+		for(int n = 2; n < nodeBB.size(); n++){
+			if(nodeBB.get(n) >= 0)
+				log.append("n "+n+" "+nodeBB.get(n)+"\n");
+		}
+		for(List<Edge> out : outEdges(nodeBB.size(), edges)){
+			for(Edge e : out)
+				log.append("e "+e.src+" "+e.dst+" "+e.val+"\n");
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package pt.tecnico.symbiosis.transformer;
 
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map;
@@ -15,10 +16,13 @@ import soot.Scene;
 import soot.SootField;
 import soot.SootMethod;
 import soot.SootMethodRef;
+import soot.Unit;
 import soot.Value;
 import soot.jimple.AssignStmt;
 import soot.jimple.ConcreteRef;
 import soot.jimple.Constant;
+import soot.jimple.EnterMonitorStmt;
+import soot.jimple.ExitMonitorStmt;
 import soot.jimple.GotoStmt;
 import soot.jimple.IdentityStmt;
 import soot.jimple.IfStmt;
@@ -56,9 +60,15 @@ public class SymbBodyPass extends BodyTransformer{
 		//check if we should instrument this method
 		if(!shouldInstruThisMethod(m.getName()))
 			return;
+		SymbiosisTransformer.manifest.beginMethod(m.getDeclaringClass().getName());
 		
-		//instrument basic blocks
-		addBBTrace(body);
+		//instrument basic blocks (or, in path profiling mode, only number them; the paths are instrumented at the end)
+		boolean pathMode = SymbiosisTransformer.PATH_MODE && !SymbiosisTransformer.JPF_MODE;
+		HashMap<Unit,Long> bbIds = null;
+		if(pathMode)
+			bbIds = PathProfiler.assignBlockIds(body);
+		else
+			addBBTrace(body);
 
 		//instrument support for thread consistent identification
 		if(m.toString().contains("void main(java.lang.String[])"))
@@ -108,6 +118,10 @@ public class SymbBodyPass extends BodyTransformer{
 			if(SymbiosisTransformer.JPF_MODE)
 				checkForSharedAccesses(m,s);
 		}
+
+		if(pathMode)
+			PathProfiler.addPathProfile(body, bbIds);
+		SymbiosisTransformer.manifest.endMethod();
 	}
 
 	/**
@@ -163,6 +177,18 @@ public class SymbBodyPass extends BodyTransformer{
 				continue; 
 			}
 
+			//sparse probes mode: the runtime version skips the blocks whose ids can be re-derived by the JPF side
+			//(the block keeps its id, so that the JPF side knows which blocks are not in the BB trace)
+			if(SymbiosisTransformer.SPARSE_MODE && isSkippableBlock(bbg, b))
+			{
+				SymbiosisTransformer.skippedBBs.add(SymbiosisTransformer.bbIdCounter);
+				if(!SymbiosisTransformer.JPF_MODE)
+				{
+					SymbiosisTransformer.bbIdCounter++;
+					continue;
+				}
+			}
+
 			Stmt predStmt = null; //** stmt pointer to the last identity stmt
 			while (insertStmt instanceof IdentityStmt)
 			{
@@ -266,8 +292,10 @@ public class SymbBodyPass extends BodyTransformer{
 		Value staticInvoke = Jimple.v().newStaticInvokeExpr(mr, args);    
 
 		//for assertFail, insert before the assertion error invocation; 
-		//for assertOk, insert after the symbiosisBBEntry call 
-		if(success)
+		//for assertOk, insert after the symbiosisBBEntry call (or at the beginning of the block, in path profiling mode)
+		if(success && SymbiosisTransformer.PATH_MODE && !SymbiosisTransformer.JPF_MODE)
+			units.insertBefore(Jimple.v().newInvokeStmt(staticInvoke), s);
+		else if(success)
 			units.insertAfter(Jimple.v().newInvokeStmt(staticInvoke), s);
 		else
 			units.insertBefore(Jimple.v().newInvokeStmt(staticInvoke), s);
@@ -312,70 +340,80 @@ public class SymbBodyPass extends BodyTransformer{
 	{
 		if(s instanceof AssignStmt)
 		{
-			Value left = ((AssignStmt)s).getLeftOp();
-			Value right = ((AssignStmt)s).getRightOp();
-			RefContext context;
-
 			//handle write accesses
-			if (left instanceof ConcreteRef) {
-
-				//context = LHSContextImpl.getInstance();
-				//if (context != RHSContextImpl.getInstance())
-				//{
-				if (((ConcreteRef) left) instanceof InstanceFieldRef)
-				{
-					InstanceFieldRef fieldRef = ((InstanceFieldRef) left);
-					SootField field  = fieldRef.getField();
-					String sig = field.getDeclaringClass().getName()+"."+fieldRef.getField().getName()+".INSTANCE";
-
-					if(SymbiosisTransformer.sharedVars.contains(sig) && !sig.contains("java.lang.System"))
-					{
-						logSharedAccess(sm,s,field);
-					}
-				}
-				else if(((ConcreteRef) left) instanceof StaticFieldRef)
-				{
-					StaticFieldRef fieldRef = ((StaticFieldRef) left);
-					SootField field  = fieldRef.getField();
-					String sig = field.getDeclaringClass().getName()+"."+fieldRef.getField().getName()+".STATIC";
-
-					if(SymbiosisTransformer.sharedVars.contains(sig) && !sig.contains("java.lang.System"))
-					{
-						logSharedAccess(sm,s,field);
-					}
-				}
-				//}
-			}
+			SootField field = getSharedField(((AssignStmt)s).getLeftOp());
+			if(field != null)
+				logSharedAccess(sm,s,field);
 
 			//handle read accesses
-			if (right instanceof ConcreteRef) {
-				if (((ConcreteRef) right) instanceof InstanceFieldRef)
-				{
-					InstanceFieldRef fieldRef = ((InstanceFieldRef) right);
-					SootField field  = fieldRef.getField();
-					String sig = field.getDeclaringClass().getName()+"."+fieldRef.getField().getName()+".INSTANCE";
-
-					if(SymbiosisTransformer.sharedVars.contains(sig) && !sig.contains("java.lang.System"))
-					{
-						logSharedAccess(sm,s,field);
-					}
-				}
-				else if(((ConcreteRef) right) instanceof StaticFieldRef)
-				{
-					StaticFieldRef fieldRef = ((StaticFieldRef) right);
-					SootField field  = fieldRef.getField();
-					String sig = field.getDeclaringClass().getName()+"."+fieldRef.getField().getName()+".STATIC";
+			field = getSharedField(((AssignStmt)s).getRightOp());
+			if(field != null)
+				logSharedAccess(sm,s,field);
+		}
+	}
 
-					if(SymbiosisTransformer.sharedVars.contains(sig) && !sig.contains("java.lang.System"))
-					{
-						logSharedAccess(sm,s,field);
-					}
-				}
-			}
+	/**
+	 * Returns the field referenced by v if it is a shared variable (according to the escape analysis), or null otherwise.
+	 * @param v
+	 * @return
+	 */
+	static SootField getSharedField(Value v)
+	{
+		String sig;
+		SootField field;
+		if(v instanceof InstanceFieldRef)
+		{
+			field = ((InstanceFieldRef) v).getField();
+			sig = field.getDeclaringClass().getName()+"."+field.getName()+".INSTANCE";
 		}
+		else if(v instanceof StaticFieldRef)
+		{
+			field = ((StaticFieldRef) v).getField();
+			sig = field.getDeclaringClass().getName()+"."+field.getName()+".STATIC";
+		}
+		else
+			return null;
+
+		if(SymbiosisTransformer.sharedVars.contains(sig) && !sig.contains("java.lang.System"))
+			return field;
+		return null;
 	}
 
+	/**
+	 * Returns true if the probe of block b can be omitted in the runtime version (sparse probes mode), i.e. if the block
+	 * is always entered from the same predecessor, which has no other successor (so the block id can be re-derived
+	 * by the JPF side from the predecessor's one), and it only touches thread-local data.
+	 * Requires the shared variables (i.e. the escape analysis or its cached results), and
+	 * must be called before instrumenting the block, so that both versions take the same decision.
+	 * @param bbg
+	 * @param b
+	 * @return
+	 */
+	public static boolean isSkippableBlock(BriefBlockGraph bbg, Block b)
+	{
+		if(bbg.getHeads().contains(b) || b.getPreds().size() != 1)
+			return false;
+		Block pred = b.getPreds().get(0);
+		if(pred == b)
+			return false;
+		for(Block succ : pred.getSuccs()){
+			if(succ != b)
+				return false; //conditional entry (if/switch)
+		}
 
+		Iterator it = b.iterator();
+		while(it.hasNext())
+		{
+			Stmt s = (Stmt) it.next();
+			if(s instanceof EnterMonitorStmt || s instanceof ExitMonitorStmt)
+				return false;
+			if(s instanceof AssignStmt && (getSharedField(((AssignStmt)s).getLeftOp()) != null || getSharedField(((AssignStmt)s).getRightOp()) != null))
+				return false;
+			if(s.containsInvokeExpr() && s.getInvokeExpr().getMethodRef().declaringClass().getName().equals("java.lang.AssertionError"))
+				return false; //keep the assertion blocks
+		}
+		return true;
+	}
 
 	/**
 	 * Logs accesses to variables that are identified as shared by the TLE analysis.
@@ -416,7 +454,7 @@ public class SymbBodyPass extends BodyTransformer{
 	}
 	
 	
-	private static boolean shouldInstruThisMethod(String smname)
+	public static boolean shouldInstruThisMethod(String smname)
 	{    	   	
 		if (smname.contains("<clinit>") || smname.contains("<init>"))
 		{
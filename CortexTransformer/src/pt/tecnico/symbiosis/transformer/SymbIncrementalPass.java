@@ -0,0 +1,154 @@
+package pt.tecnico.symbiosis.transformer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+import pt.tecnico.symbiosis.transformer.InstrumentationManifest.ClassEntry;
+import soot.Scene;
+import soot.SceneTransformer;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.AssignStmt;
+import soot.toolkits.graph.Block;
+import soot.toolkits.graph.BriefBlockGraph;
+
+/**
+ * Scene transformer that reserves the range of basic block ids of each application class
+ * (see InstrumentationManifest), before the classes are instrumented by SymbBodyPass.
+ *
+ * In incremental mode, the classes whose class file did not change since the previous run (and whose
+ * instrumented version is still in the output folder) keep their range and their log lines, and are turned
+ * into library classes, so that Soot neither instruments nor writes them again. As the shared accesses logged
+ * by a class (and, in sparse probes mode, its blocks without probe) depend on the shared variables computed
+ * for the whole program, a class whose accessed fields became shared or thread-local is also re-instrumented.
+ * A modified class reuses its previous range if it still fits there, and gets a new range after all the
+ * existing ones otherwise.
+ * @author nunomachado
+ *
+ */
+public class SymbIncrementalPass extends SceneTransformer{
+
+	private final InstrumentationManifest previous; //manifest of the previous run (null for a full run)
+
+	public SymbIncrementalPass(InstrumentationManifest previous)
+	{
+		this.previous = previous;
+	}
+
+	protected void internalTransform(String pn, Map map)
+	{
+		InstrumentationManifest manifest = SymbiosisTransformer.manifest;
+		if(previous != null){
+			manifest.nextBB = previous.nextBB;
+			manifest.nextMethodId = previous.nextMethodId;
+			SymbiosisTransformer.methodIdCounter = previous.nextMethodId;
+		}
+
+		String outpath = SymbiosisTransformer.getOutputDir();
+		ArrayList<SootClass> unchanged = new ArrayList<SootClass>();
+		int changed = 0;
+		for(SootClass sc : new ArrayList<SootClass>(Scene.v().getApplicationClasses()))
+		{
+			String cname = sc.getName();
+			String hash = InstrumentationManifest.hashClass(cname);
+			String svHash = hashSharedVars(sc);
+			ClassEntry old = (previous != null ? previous.classes.get(cname) : null);
+			boolean hasOutput = new File(outpath + cname.replace('.', File.separatorChar) + ".class").exists();
+
+			if(old != null && !hash.equals("?") && old.hash.equals(hash) && old.svHash.equals(svHash) && hasOutput)
+			{
+				//keep the class as it is
+				manifest.classes.put(cname, old);
+				SymbiosisTransformer.sharedAccLog += old.accesses;
+				SymbiosisTransformer.pathProfileLog.append(old.paths);
+				for(String bbid : old.skipped.toString().split("\n")){
+					if(!bbid.isEmpty())
+						SymbiosisTransformer.skippedBBs.add(Long.parseLong(bbid));
+				}
+				unchanged.add(sc);
+			}
+			else
+			{
+				long count = countBlocks(sc);
+				ClassEntry entry;
+				if(old != null && count <= old.numBBs)
+					entry = new ClassEntry(hash, svHash, old.firstBB, old.numBBs);
+				else{
+					entry = new ClassEntry(hash, svHash, manifest.nextBB, count);
+					manifest.nextBB += count;
+				}
+				manifest.classes.put(cname, entry);
+				changed++;
+				if(previous != null)
+					System.out.println("[SymbiosisTransformer] Class changed: "+cname+(old != null && old.hash.equals(hash) && !old.svHash.equals(svHash) ? " (shared variables)" : "")
+							+" (block ids "+entry.firstBB+" to "+(entry.firstBB+count-1)+")");
+			}
+		}
+
+		for(SootClass sc : unchanged)
+			sc.setLibraryClass();
+		if(previous != null)
+			System.out.println("[SymbiosisTransformer] Incremental instrumentation: "+changed+" classes changed, "+unchanged.size()+" unchanged");
+	}
+
+	/**
+	 * Returns a digest of the shared variables accessed by a class (see SymbBodyPass.getSharedField), or "-" if
+	 * the version being instrumented does not depend on them (runtime version without sparse probes).
+	 * @param sc
+	 * @return
+	 */
+	private static String hashSharedVars(SootClass sc)
+	{
+		if(SymbiosisTransformer.sharedVars == null || !(SymbiosisTransformer.JPF_MODE || SymbiosisTransformer.SPARSE_MODE))
+			return "-";
+
+		TreeSet<String> accessed = new TreeSet<String>();
+		for(SootMethod sm : sc.getMethods())
+		{
+			if(!sm.isConcrete())
+				continue;
+			Iterator it = sm.retrieveActiveBody().getUnits().iterator();
+			while(it.hasNext())
+			{
+				Unit u = (Unit) it.next();
+				if(!(u instanceof AssignStmt))
+					continue;
+				for(Value v : new Value[]{((AssignStmt) u).getLeftOp(), ((AssignStmt) u).getRightOp()})
+				{
+					SootField field = SymbBodyPass.getSharedField(v);
+					if(field != null)
+						accessed.add(field.getDeclaringClass().getName()+"."+field.getName());
+				}
+			}
+		}
+		return InstrumentationManifest.hashLines(accessed);
+	}
+
+	/**
+	 * Returns the number of basic block ids that SymbBodyPass will assign to a class.
+	 * @param sc
+	 * @return
+	 */
+	private static long countBlocks(SootClass sc)
+	{
+		long count = 0;
+		for(SootMethod sm : sc.getMethods())
+		{
+			if(!sm.isConcrete() || !SymbBodyPass.shouldInstruThisMethod(sm.getName()))
+				continue;
+			BriefBlockGraph bbg = new BriefBlockGraph(sm.retrieveActiveBody());
+			for(Block b : bbg.getBlocks())
+			{
+				if(!b.getHead().toString().contains("@caughtexception"))
+					count++;
+			}
+		}
+		return count;
+	}
+}
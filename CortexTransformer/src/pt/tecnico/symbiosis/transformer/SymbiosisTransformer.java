@@ -1,13 +1,17 @@
 package pt.tecnico.symbiosis.transformer;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.TreeMap;
 
 import pt.tecnico.symbiosis.tloax.XFieldThreadEscapeAnalysis;
 import soot.PackManager;
@@ -28,6 +32,14 @@ public class SymbiosisTransformer {
 	public static final String jpfClass = "pt.tecnico.jpf.symbiosis.InstrumentationHandler";
 	public static long bbIdCounter = 0;
 	public static boolean JPF_MODE = false; //indicates that we want to instrument the Java Path Finder version of the program
+	public static boolean PATH_MODE = false; //indicates that the runtime version should record Ball-Larus paths instead of basic blocks (see PathProfiler)
+	public static long methodIdCounter = 0;
+	public static boolean SPARSE_MODE = false; //indicates that the runtime version should omit the probes of the blocks whose ids can be re-derived by the JPF side
+	public static HashSet<Long> skippedBBs = new HashSet<Long>(); //ids of the blocks without probe in the runtime version (saved to [main-class].skipped)
+	public static String analysisKey; //key of the whole-program analysis results in the AnalysisCache
+	public static boolean INCREMENTAL_MODE = false; //indicates that only the classes that changed since the previous run should be instrumented
+	public static InstrumentationManifest manifest; //block id ranges and log lines of each class of the version being instrumented
+	public static StringBuilder pathProfileLog = new StringBuilder(); //path graphs of the instrumented methods (saved to [main-class].paths)
 	public static String sharedAccLogPath; 
 	public static String sharedAccLog = ""; 
 	public static HashSet<String> sharedVars; //set containing references to shared variables
@@ -41,9 +53,118 @@ public class SymbiosisTransformer {
 
 		String mainclass = args[0];
 		System.out.println(">> Main Class: "+mainclass);
-		
-		transformRuntimeVersion(mainclass);
-		transformJPFVersion(mainclass);
+		boolean parallel = false;
+		String variant = null; //"--runtime-only" or "--jpf-only" (used by the parallel mode)
+		for(int i = 1; i < args.length; i++){
+			if(args[i].equals("--path-profile"))
+				PATH_MODE = true;
+			else if(args[i].equals("--sparse-probes"))
+				SPARSE_MODE = true;
+			else if(args[i].equals("--parallel"))
+				parallel = true;
+			else if(args[i].equals("--incremental"))
+				INCREMENTAL_MODE = true;
+			else if(args[i].equals("--runtime-only") || args[i].equals("--jpf-only"))
+				variant = args[i];
+		}
+
+		//reuse the shared variables computed by a previous run on the same classes (if any)
+		analysisKey = AnalysisCache.computeKey(getAnalysisOptions(mainclass));
+		sharedVars = AnalysisCache.load(analysisKey);
+		if(sharedVars != null)
+			System.out.println("[SymbiosisTransformer] Using cached analysis results ("+sharedVars.size()+" shared variables)");
+
+		//the runtime version only depends on the analysis in sparse probes mode
+		boolean independent = (!SPARSE_MODE || sharedVars != null);
+		if(variant != null)
+		{
+			if(variant.equals("--runtime-only"))
+				transformRuntimeVersion(mainclass);
+			else
+				transformJPFVersion(mainclass);
+		}
+		else if(parallel && independent)
+		{
+			//each version is generated by its own JVM, as Soot's state is global
+			Process rt = startVariant(args, "--runtime-only");
+			Process jpf = startVariant(args, "--jpf-only");
+			if(waitFor(rt) != 0 || waitFor(jpf) != 0)
+				System.err.println(">> Exception: instrumentation of one of the versions failed");
+		}
+		else if(!independent)
+		{
+			//the blocks without probe are chosen with the escape analysis, which only runs for the JPF version
+			transformJPFVersion(mainclass);
+			soot.G.reset();
+			bbIdCounter = 0;
+			JPF_MODE = false;
+			transformRuntimeVersion(mainclass);
+		}
+		else
+		{
+			transformRuntimeVersion(mainclass);
+			transformJPFVersion(mainclass);
+		}
+	}
+
+	/**
+	 * Launches a new JVM that instruments one version of the program, forwarding its output to ours.
+	 * @param args arguments of this transformer
+	 * @param variant "--runtime-only" or "--jpf-only"
+	 * @return
+	 */
+	private static Process startVariant(String[] args, String variant)
+	{
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+		cmd.add("-Xmx"+(Runtime.getRuntime().maxMemory() >> 20)+"m");
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(SymbiosisTransformer.class.getName());
+		for(String arg : args){
+			if(!arg.equals("--parallel"))
+				cmd.add(arg);
+		}
+		cmd.add(variant);
+
+		try{
+			ProcessBuilder pb = new ProcessBuilder(cmd);
+			pb.redirectErrorStream(true);
+			final Process p = pb.start();
+			final String prefix = "["+variant.substring(2, variant.indexOf("-only"))+"] ";
+			Thread pump = new Thread(){
+				public void run(){
+					try{
+						BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()));
+						String line;
+						while((line = br.readLine()) != null)
+							System.out.println(prefix+line);
+					}
+					catch(IOException e){
+						e.printStackTrace();
+					}
+				}
+			};
+			pump.setDaemon(true);
+			pump.start();
+			return p;
+		}
+		catch(IOException e){
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static int waitFor(Process p)
+	{
+		if(p == null)
+			return -1;
+		try{
+			return p.waitFor();
+		}
+		catch(InterruptedException e){
+			return -1;
+		}
 	}
 
 	/**
@@ -52,6 +173,7 @@ public class SymbiosisTransformer {
 	 */
 	public static void transformRuntimeVersion(String mainclass)
 	{
+		PackManager.v().getPack("wjtp").add(new Transform("wjtp.incremental", new SymbIncrementalPass(loadManifest(mainclass, false))));
 		PackManager.v().getPack("jtp").add(new Transform("jtp.intrumenter", SymbBodyPass.v()));
 		setOptions(mainclass, false);
 		
@@ -66,8 +188,13 @@ public class SymbiosisTransformer {
 			String outpath = getOutputDir();
 			String[] args1 = getArgs(mainclass,outpath);
 		
+			manifest = new InstrumentationManifest();
 			soot.Main.main(args1);
 			System.err.println("***** Runtime version generated *****\n");
+			manifest.collectSkippedBlocks();
+			manifest.save(outpath+mainclass+".manifest");
+			if(PATH_MODE)
+				savePathProfile(outpath+mainclass+".paths");
 
 			//reset soot parameters
 			soot.G.reset();
@@ -87,11 +214,15 @@ public class SymbiosisTransformer {
 	 */
 	public static void transformJPFVersion(String mainclass)
 	{	
-		sharedVars = new HashSet<String>();
-		
-		PackManager.v().getPack("wjtp").add(new Transform("wjtp.transformer", new SymbScenePass()));
+		//the whole-program analysis (Spark + escape analysis) only runs if its results are not cached
+		boolean runAnalysis = (sharedVars == null);
+		if(runAnalysis){
+			sharedVars = new HashSet<String>();
+			PackManager.v().getPack("wjtp").add(new Transform("wjtp.transformer", new SymbScenePass()));
+		}
+		PackManager.v().getPack("wjtp").add(new Transform("wjtp.incremental", new SymbIncrementalPass(loadManifest(mainclass, true))));
 		PackManager.v().getPack("jtp").add(new Transform("jtp.transformer", new SymbBodyPass()));
-		setOptions(mainclass, true);
+		setOptions(mainclass, runAnalysis);
 		Scene.v().loadClassAndSupport(jpfClass);
 		
 		try{
@@ -102,9 +233,16 @@ public class SymbiosisTransformer {
 			sharedAccLogPath = outpath+mainclass+".accesses";
 			String[] args1 = getArgs(mainclass,outpath);
 			
+			manifest = new InstrumentationManifest();
 			soot.Main.main(args1);
 			System.err.println("***** JPF version generated *****");
+			manifest.collectSkippedBlocks();
+			manifest.save(outpath+mainclass+".manifest");
+			if(runAnalysis)
+				AnalysisCache.store(analysisKey, sharedVars);
 			saveSharedAccessesLog();
+			if(SPARSE_MODE)
+				saveSkippedBlocks(outpath+mainclass+".skipped");
 			
 		}catch (Exception e)
 		{
@@ -114,6 +252,27 @@ public class SymbiosisTransformer {
 
 	}
 
+	/**
+	 * Returns the manifest of the previous instrumentation of a version, or null if there is none or if we are not in incremental mode.
+	 * @param mainclass
+	 * @param isJPF
+	 * @return
+	 */
+	private static InstrumentationManifest loadManifest(String mainclass, boolean isJPF)
+	{
+		if(!INCREMENTAL_MODE)
+			return null;
+		boolean mode = JPF_MODE;
+		JPF_MODE = isJPF;
+		String fname = getOutputDir()+mainclass+".manifest";
+		JPF_MODE = mode;
+
+		InstrumentationManifest previous = InstrumentationManifest.load(fname);
+		if(previous == null)
+			System.out.println("[SymbiosisTransformer] No manifest found at "+fname+" -> instrument all classes");
+		return previous;
+	}
+
 	/**
 	 * Returns the path for the output directory according to the instrumentation mode
 	 * @return
@@ -153,7 +312,41 @@ public class SymbiosisTransformer {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Saves the path graphs of the methods instrumented with path profiling,
+	 * which are needed to decode the production traces (see pt.tecnico.jpf.symbiosis.util.PathProfileDecoder).
+	 * @param fname
+	 */
+	public static void savePathProfile(String fname) {
+		try {
+			BufferedWriter bw = new BufferedWriter(new FileWriter(fname, false));
+			bw.write(pathProfileLog.toString());
+			bw.close();
+			System.out.println("[SymbiosisTransformer] Path profile saved to: "+fname);
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 	
+	/**
+	 * Saves the ids of the blocks that have no probe in the runtime version (one per line),
+	 * so that SymbiosisListener does not expect them in the BB traces.
+	 * @param fname
+	 */
+	public static void saveSkippedBlocks(String fname) {
+		try {
+			BufferedWriter bw = new BufferedWriter(new FileWriter(fname, false));
+			for(long bbid : skippedBBs)
+				bw.write(bbid+"\n");
+			bw.close();
+			System.out.println("[SymbiosisTransformer] "+skippedBBs.size()+" blocks without probe saved to: "+fname);
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 	
 	private static String[] getArgs(String mainclass, String outpath)
 	{
@@ -180,7 +373,35 @@ public class SymbiosisTransformer {
 		return args1;
 	}
 	
-	private static void setOptions(String mainclass, boolean isJPF)
+	/**
+	 * Returns a description of the options that affect the whole-program analysis (used in the AnalysisCache key).
+	 * @param mainclass
+	 * @return
+	 */
+	private static String getAnalysisOptions(String mainclass)
+	{
+		return mainclass+" "+Arrays.toString(getArgs(mainclass, ""))+" "+new TreeMap<String,String>(getSparkOptions());
+	}
+
+	private static HashMap<String,String> getSparkOptions()
+	{
+		HashMap<String,String> opt = new HashMap<String,String>();
+		//opt.put("verbose","true");
+		opt.put("propagator","worklist");
+		opt.put("simple-edges-bidirectional","false");
+		opt.put("on-fly-cg","true");
+		opt.put("set-impl","double");
+		opt.put("double-set-old","hybrid");
+		opt.put("double-set-new","hybrid");
+		opt.put("pre_jimplify", "true");
+		return opt;
+	}
+
+	/**
+	 * @param mainclass
+	 * @param runAnalysis indicates whether the whole-program analysis (Spark) is needed
+	 */
+	private static void setOptions(String mainclass, boolean runAnalysis)
 	{
 		PhaseOptions.v().setPhaseOption("jb", "enabled:true");
 		PhaseOptions.v().setPhaseOption("tag.ln", "on");
@@ -189,23 +410,13 @@ public class SymbiosisTransformer {
 		Options.v().set_app(true);
 		Options.v().set_whole_program(true);
 		
-		if(isJPF){	
+		if(runAnalysis){	
 			//Enable Spark
-			HashMap<String,String> opt = new HashMap<String,String>();
-			//opt.put("verbose","true");
-			opt.put("propagator","worklist");
-			opt.put("simple-edges-bidirectional","false");
-			opt.put("on-fly-cg","true");
-			opt.put("set-impl","double");
-			opt.put("double-set-old","hybrid");
-			opt.put("double-set-new","hybrid");
-			opt.put("pre_jimplify", "true");
-			SparkTransformer.v().transform("",opt);
+			SparkTransformer.v().transform("",getSparkOptions());
 			PhaseOptions.v().setPhaseOption("cg.spark", "enabled:true");
-
-			Scene.v().setSootClassPath(System.getProperty("sun.boot.class.path")
-					+ File.pathSeparator + System.getProperty("java.class.path"));
 		}
+		Scene.v().setSootClassPath(System.getProperty("sun.boot.class.path")
+				+ File.pathSeparator + System.getProperty("java.class.path"));
 		
 		List excludes = new ArrayList();
 		excludes.add("org.eclipse.");
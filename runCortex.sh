@@ -29,6 +29,8 @@ RUNS=100
 #path to Cortex Symbolic Execution Engine (Java PathFinder)
 CORTEX_SE=$CORTEX_HOME/CortexSE/jpf-symbiosis
 TMPFILE=$CORTEX_HOME/Tests/TMP.jpf
+#number of JVMs generating symbolic traces in parallel (can be overridden in config.sh)
+SE_WORKERS=${SE_WORKERS:-1}
 
 #path to Cortex Solver
 CORTEX_SOLVER=$CORTEX_HOME/CortexSolver
@@ -71,14 +73,12 @@ while getopts "irsed" opt; do
         cd $PRFOLDER
         sed -i "s?CORTEX_HOME?$CORTEX_HOME?" $TMPFILE
         sed -i "s/^cortex.flipfile=/#cortex.flipfile=/" $TMPFILE
-        for f in *.ok; do
-	    echo $'\n'=== SYMBOLIC EXECUTION - $f
-            #change the trace used by JPF
-            sed -i "s?.*symbiosis.bbtrace.*?symbiosis.bbtrace=$CORTEX_HOME/Tests/$PROG/PRuns/$f?" $TMPFILE
-            #run Cortex SE (JPF)
-            cd $CORTEX_SE
-            java -Xmx1500m -jar $CORTEX_HOME/CortexSE/jpf-core/build/RunJPF.jar +shell.port=4242 $TMPFILE
-        done
+        #leave the last trace in the JPF file (used by the exploration step)
+        last=$(ls *.ok | tail -n 1)
+        sed -i "s?.*symbiosis.bbtrace.*?symbiosis.bbtrace=$CORTEX_HOME/Tests/$PROG/PRuns/$last?" $TMPFILE
+        #run Cortex SE (JPF) over all the traces in a single JVM
+        cd $CORTEX_SE
+        java -Xmx1500m -jar $CORTEX_HOME/CortexSE/jpf-core/build/RunJPF.jar +shell=pt.tecnico.jpf.symbiosis.SymbiosisBatch +symbiosis.batch.folder=$CORTEX_HOME/Tests/$PROG/PRuns +symbiosis.batch.workers=$SE_WORKERS $TMPFILE
         sed -i "s/^#cortex.flipfile=/cortex.flipfile=/" $TMPFILE
         ;;
 